@@ -0,0 +1,36 @@
+#!/bin/sh
+# Compiles a PMP program with two sets of compiler options, builds both with clang
+# and times the resulting executables on the same input. Option sets containing
+# --emit=asm are assembled and linked with cc instead of clang; option sets containing
+# --interpret, --vm or --run are run by the compiler itself, so only their run time is reported.
+#
+# Usage: bench/bench.sh PROGRAM.pmp INPUT "OPTIONS A" "OPTIONS B"
+# Example: bench/bench.sh bench/CondShortCircuit.pmp 100000000 "" "--no-short-circuit"
+#          bench/bench.sh bench/LoopInvariant.pmp "300 300" "-O2" "-O2 --emit=asm"
+#          bench/bench.sh tests/00-euclid.pmp "12 18" "" "--interpret" "--run"
+
+JAR=${JAR:-dist/part3.jar}
+CLANG=${CLANG:-clang}
+CLANG_FLAGS=${CLANG_FLAGS:--O0}
+CC=${CC:-cc}
+PROGRAM=$1
+INPUT=$2
+WORK=$(mktemp -d)
+NAME=$(basename "$PROGRAM" .pmp)
+
+shift 2
+for OPTIONS in "$@"; do
+    case "$OPTIONS" in
+        *--interpret*|*--vm*|*--run*)
+            echo "== options: [$OPTIONS]"
+            /usr/bin/time -f "run:     %e s, %M KB" sh -c "echo $INPUT | java -jar $JAR $OPTIONS $PROGRAM > /dev/null"
+            continue ;;
+        *--emit=asm*) BUILD="$CC more/results/$NAME.s" ;;
+        *) BUILD="$CLANG $CLANG_FLAGS more/results/$NAME.ll" ;;
+    esac
+    echo "== options: [$OPTIONS] $BUILD"
+    /usr/bin/time -f "compile: %e s" java -jar "$JAR" $OPTIONS "$PROGRAM" > /dev/null || exit 1
+    /usr/bin/time -f "build:   %e s" $BUILD -o "$WORK/$NAME" || exit 1
+    /usr/bin/time -f "run:     %e s, %M KB" sh -c "echo $INPUT | $WORK/$NAME > /dev/null"
+done
+rm -rf "$WORK"
@@ -0,0 +1,33 @@
+#!/bin/sh
+# Compares two JMH result files written with -rf csv (e.g. baseline.csv and a new run): for every benchmark
+# and parameter set, prints both scores and the change. Lower is better in us/op and B/op, higher in ops/s.
+#
+# Usage: bench/jmh/compare.sh BASELINE.csv NEW.csv
+
+if [ $# -ne 2 ]; then
+    echo "Usage: $0 BASELINE.csv NEW.csv" >&2
+    exit 1
+fi
+
+awk -F, '
+    # drops the quotes around a CSV field
+    function field(i) { value = $i; gsub(/"/, "", value); return value }
+    FNR == 1 { next }
+    {
+        name = field(1)
+        if (name ~ /:gc\.(alloc\.rate|count|time|churn)/ && name !~ /:gc\.alloc\.rate\.norm/) next
+        sub(/^pmp\.compiler\./, "", name)
+        key = name
+        for (i = 8; i <= NF; i++) if (field(i) != "") key = key " " field(i)
+        if (FNR == NR) { base[key] = field(5); next }
+        keys[++count] = key; score[key] = field(5); unit[key] = field(7)
+    }
+    END {
+        printf "%-64s %14s %14s %8s\n", "Benchmark", "baseline", "new", "change"
+        for (k = 1; k <= count; k++) {
+            key = keys[k]
+            if (!(key in base)) { printf "%-64s %14s %14.3f %8s %s\n", key, "-", score[key], "", unit[key]; continue }
+            change = base[key] == 0 ? 0 : (score[key] - base[key]) * 100 / base[key]
+            printf "%-64s %14.3f %14.3f %+7.1f%% %s\n", key, base[key], score[key], change, unit[key]
+        }
+    }' "$1" "$2"
@@ -0,0 +1,161 @@
+package pmp.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Programs the benchmarks run on: a file of the tests directory given by its name (e.g. "00-euclid"), or a
+ * synthetic program of a given number of top-level instructions (e.g. "synthetic-10000").
+ *
+ * The tests directory is the system property pmp.tests, or tests/ or ../../tests/ of the working directory.
+ */
+final class BenchmarkInputs {
+    private static final String SYNTHETIC = "synthetic-";
+    private static final String[] VARIABLES = {"a", "b", "c", "d", "e"};
+
+    private BenchmarkInputs() {
+    }
+
+    /**
+     * Returns the source of a program.
+     *
+     * @param input the name of a test file without extension, or "synthetic-" and a number of instructions.
+     */
+    static String source(String input) {
+        if (input.startsWith(SYNTHETIC)) {
+            return synthetic(Integer.parseInt(input.substring(SYNTHETIC.length())));
+        }
+        try {
+            return Files.readString(testsDirectory().resolve(input + ".pmp"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<Symbol> tokens(String source) {
+        try {
+            return Parser.lex(new StringReader(source));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ParseTree tree(List<Symbol> tokens) {
+        try {
+            Parser parser = new Parser(tokens);
+            parser.displayNoRules();
+            return parser.parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path testsDirectory() {
+        String property = System.getProperty("pmp.tests");
+        if (property != null) {
+            return Path.of(property);
+        }
+        for (String candidate : new String[] {"tests", "../../tests"}) {
+            if (Files.isDirectory(Path.of(candidate))) {
+                return Path.of(candidate);
+            }
+        }
+        throw new IllegalStateException("tests directory not found, set -Dpmp.tests");
+    }
+
+    /**
+     * Generates a program reading two variables, then running the given number of assignments, prints, if and
+     * while instructions with nested blocks, always the same for a given size.
+     */
+    private static String synthetic(int instructions) {
+        Random random = new Random(instructions);
+        StringBuilder program = new StringBuilder("begin\n  read(a)...\n  read(b)...\n  c := 3...\n");
+        for (int i = 0; i < instructions; i++) {
+            program.append("  ");
+            instruction(random, program, 0, true);
+            program.append("...\n");
+        }
+        return program.append("  print(a)\nend\n").toString();
+    }
+
+    /**
+     * Generates an instruction.
+     *
+     * @param emptyElse whether an if may end with an empty else, which is not the case right before another else.
+     */
+    private static void instruction(Random random, StringBuilder program, int depth, boolean emptyElse) {
+        int kind = random.nextInt(depth < 2 ? 10 : 6);
+        if (kind < 5) {
+            program.append(variable(random)).append(" := ");
+            expression(random, program, 0);
+        } else if (kind == 5) {
+            program.append("print(").append(variable(random)).append(')');
+        } else if (kind < 8) {
+            program.append("if ");
+            condition(random, program);
+            program.append(" then ");
+            instruction(random, program, depth + 1, false);
+            program.append(" else");
+            if (!emptyElse || random.nextBoolean()) {
+                program.append(' ');
+                instruction(random, program, depth + 1, emptyElse);
+            }
+        } else if (kind == 8) {
+            program.append("while ");
+            condition(random, program);
+            program.append(" do begin ");
+            instruction(random, program, depth + 1, true);
+            program.append("... ").append(variable(random)).append(" := 0 end");
+        } else {
+            program.append("begin ");
+            instruction(random, program, depth + 1, true);
+            program.append("... ");
+            instruction(random, program, depth + 1, true);
+            program.append(" end");
+        }
+    }
+
+    private static void condition(Random random, StringBuilder program) {
+        expression(random, program, 2);
+        program.append(random.nextBoolean() ? " < " : " = ");
+        expression(random, program, 2);
+        if (random.nextInt(3) == 0) {
+            program.append(random.nextBoolean() ? " and {" : " or {");
+            condition(random, program);
+            program.append('}');
+        }
+    }
+
+    private static void expression(Random random, StringBuilder program, int depth) {
+        int kind = random.nextInt(depth < 3 ? 6 : 2);
+        switch (kind) {
+            case 0 -> program.append(random.nextInt(100));
+            case 1 -> program.append(variable(random));
+            case 2 -> {
+                program.append('(');
+                expression(random, program, depth + 1);
+                program.append(')');
+            }
+            case 3 -> {
+                program.append('-');
+                expression(random, program, depth + 1);
+            }
+            default -> {
+                expression(random, program, depth + 1);
+                program.append(" +-*".charAt(random.nextInt(3) + 1));
+                expression(random, program, depth + 1);
+            }
+        }
+    }
+
+    private static String variable(Random random) {
+        return VARIABLES[random.nextInt(VARIABLES.length)];
+    }
+}
@@ -0,0 +1,41 @@
+package pmp.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ParseTree#program()}: generation of the IR from a parse tree built beforehand, without passes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+public class CodegenBenchmark {
+    @Param({"00-euclid", "07-CondBig", "synthetic-1000", "synthetic-20000"})
+    public String input;
+
+    private ParseTree tree;
+
+    @Setup
+    public void setUp() {
+        tree = BenchmarkInputs.tree(BenchmarkInputs.tokens(BenchmarkInputs.source(input)));
+    }
+
+    @Benchmark
+    public IrFunction program() {
+        return tree.program();
+    }
+}
@@ -0,0 +1,79 @@
+package pmp.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end compilation of a program held in memory: lexing, parsing, IR generation, the passes of the
+ * optimization level and the printing of the LLVM IR, which is counted and dropped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+public class CompileBenchmark {
+    @Param({"00-euclid", "07-CondBig", "synthetic-1000", "synthetic-20000"})
+    public String input;
+
+    @Param({"0", "2"})
+    public int level;
+
+    private String source;
+
+    /**
+     * Channel counting the bytes written to it.
+     */
+    private static final class CountingChannel implements WritableByteChannel {
+        private long bytes;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            source.position(source.limit());
+            bytes += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        source = BenchmarkInputs.source(input);
+    }
+
+    @Benchmark
+    public long compile() throws IOException, ParseException {
+        Parser parser = new Parser(Parser.lex(new StringReader(source)));
+        parser.displayNoRules();
+        IrFunction ir = parser.parse().program();
+        PassManager.forLevel(level).run(ir);
+        CountingChannel output = new CountingChannel();
+        new LlvmPrinter().write(ir, output);
+        return output.bytes;
+    }
+}
@@ -0,0 +1,67 @@
+package pmp.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link LexicalAnalyzer#nextToken()}: lexes a whole program per operation, and counts its tokens so
+ * that the report also gives tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+public class LexerBenchmark {
+    @Param({"00-euclid", "07-CondBig", "synthetic-1000", "synthetic-20000"})
+    public String input;
+
+    private String source;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        source = BenchmarkInputs.source(input);
+    }
+
+    @Benchmark
+    public int nextToken(Tokens counter) throws IOException {
+        LexicalAnalyzer scanner = new LexicalAnalyzer(new StringReader(source));
+        int count = 0;
+        int checksum = 0;
+        Symbol token;
+        do {
+            token = scanner.nextToken();
+            checksum += token.getType().ordinal();
+            count++;
+        } while (token.getType() != LexicalUnit.EOS);
+        counter.tokens += count;
+        return checksum;
+    }
+}
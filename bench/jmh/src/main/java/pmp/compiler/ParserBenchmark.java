@@ -0,0 +1,45 @@
+package pmp.compiler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Parser#parse()} over tokens lexed beforehand, without printing the rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+public class ParserBenchmark {
+    @Param({"00-euclid", "07-CondBig", "synthetic-1000", "synthetic-20000"})
+    public String input;
+
+    private List<Symbol> tokens;
+
+    @Setup
+    public void setUp() {
+        tokens = BenchmarkInputs.tokens(BenchmarkInputs.source(input));
+    }
+
+    @Benchmark
+    public ParseTree parse() throws IOException, ParseException {
+        Parser parser = new Parser(tokens);
+        parser.displayNoRules();
+        return parser.parse();
+    }
+}
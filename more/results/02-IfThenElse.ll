@@ -2,21 +2,10 @@ define i32 @main() {
   %x= alloca i32
   %1= call i32 @readInt()
   store i32 %1, i32* %x
-  %2= add i32 0 , 1
-  %3= add i32 0 , 1
-  %4= icmp eq i32 %2, %3
-  br i1 %4, label %if0, label %Else0
-if0:
-  %5= add i32 0 , 0
-  store i32 %5, i32* %x
-  br label %EndIf0
-Else0:
-  %6= add i32 0 , 1
-  store i32 %6, i32* %x
-  br label %EndIf0
-EndIf0:
-  %7= load i32, i32* %x
-  call void @println(i32 %7)
+  %2= add i32 0 , 0
+  store i32 %2, i32* %x
+  %3= load i32, i32* %x
+  call void @println(i32 %3)
 ret i32 0
 }
 @.strR= private unnamed_addr constant [3 x i8] c"%d\00", align 1
@@ -13,22 +13,23 @@ CondWhile0:
   %4= add i32 0 , 0
   %5= load i32, i32* %x
   %6= icmp slt i32 %4, %5
+  br i1 %6, label %While0, label %OrElse0
+OrElse0:
   %7= load i32, i32* %y
   %8= load i32, i32* %z
   %9= icmp slt i32 %7, %8
-  %10= or i1 %6, %9
-  br i1 %10, label %While0, label %WhileEnd0
+  br i1 %9, label %While0, label %WhileEnd0
 While0:
-  %11= add i32 0 , 1
-  %12= mul i32  -1 , %11
-  store i32 %12, i32* %x
-  %13= add i32 0 , 2
-  %14= mul i32  -1 , %13
-  store i32 %14, i32* %z
+  %10= add i32 0 , 1
+  %11= mul i32  -1 , %10
+  store i32 %11, i32* %x
+  %12= add i32 0 , 2
+  %13= mul i32  -1 , %12
+  store i32 %13, i32* %z
   br label %CondWhile0
 WhileEnd0:
-  %15= load i32, i32* %x
-  call void @println(i32 %15)
+  %14= load i32, i32* %x
+  call void @println(i32 %14)
 ret i32 0
 }
 @.strP= private unnamed_addr constant [4 x i8] c"%d\0A\00", align 1
@@ -13,24 +13,26 @@ CondWhile0:
   %4= load i32, i32* %x
   %5= add i32 0 , 1
   %6= icmp eq i32 %4, %5
+  br i1 %6, label %While0, label %OrElse0
+OrElse0:
   %7= load i32, i32* %y
   %8= add i32 0 , 2
   %9= icmp slt i32 %7, %8
+  br i1 %9, label %AndThen1, label %WhileEnd0
+AndThen1:
   %10= add i32 0 , 3
   %11= load i32, i32* %z
   %12= icmp slt i32 %10, %11
-  %13= and i1 %9, %12
-  %14= or i1 %6, %13
-  br i1 %14, label %While0, label %WhileEnd0
+  br i1 %12, label %While0, label %WhileEnd0
 While0:
-  %15= add i32 0 , 0
-  store i32 %15, i32* %x
-  %16= add i32 0 , 3
-  store i32 %16, i32* %z
+  %13= add i32 0 , 0
+  store i32 %13, i32* %x
+  %14= add i32 0 , 3
+  store i32 %14, i32* %z
   br label %CondWhile0
 WhileEnd0:
-  %17= load i32, i32* %z
-  call void @println(i32 %17)
+  %15= load i32, i32* %z
+  call void @println(i32 %15)
 ret i32 0
 }
 @.strP= private unnamed_addr constant [4 x i8] c"%d\0A\00", align 1
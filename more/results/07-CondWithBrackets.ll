@@ -13,22 +13,24 @@ CondWhile0:
   %4= load i32, i32* %x
   %5= add i32 0 , 1
   %6= icmp eq i32 %4, %5
+  br i1 %6, label %AndThen0, label %OrElse1
+OrElse1:
   %7= load i32, i32* %y
   %8= add i32 0 , 2
   %9= icmp slt i32 %7, %8
-  %10= or i1 %6, %9
-  %11= add i32 0 , 3
-  %12= load i32, i32* %z
-  %13= icmp slt i32 %11, %12
-  %14= and i1 %10, %13
-  br i1 %14, label %While0, label %WhileEnd0
+  br i1 %9, label %AndThen0, label %WhileEnd0
+AndThen0:
+  %10= add i32 0 , 3
+  %11= load i32, i32* %z
+  %12= icmp slt i32 %10, %11
+  br i1 %12, label %While0, label %WhileEnd0
 While0:
-  %15= add i32 0 , 2
-  store i32 %15, i32* %z
+  %13= add i32 0 , 2
+  store i32 %13, i32* %z
   br label %CondWhile0
 WhileEnd0:
-  %16= load i32, i32* %z
-  call void @println(i32 %16)
+  %14= load i32, i32* %z
+  call void @println(i32 %14)
 ret i32 0
 }
 @.strP= private unnamed_addr constant [4 x i8] c"%d\0A\00", align 1
@@ -0,0 +1,660 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes an {@link IrFunction} as an LLVM bitcode module, the binary equivalent of the text of {@link LlvmPrinter},
+ * so that clang does not have to parse the IR again.
+ *
+ * The module uses version 1 of the format: value names are given in value symbol tables and instruction operands
+ * are numbered relative to the instruction. Types and function signatures are fixed, every constant (integers,
+ * format strings and their getelementptr) lives in the module constants table and @readInt/@println are defined
+ * with the same bodies as in the text runtime.
+ */
+public class BitcodeWriter {
+    private static final int IDENTIFICATION_BLOCK = 13;
+    private static final int MODULE_BLOCK = 8;
+    private static final int TYPE_BLOCK = 17;
+    private static final int CONSTANTS_BLOCK = 11;
+    private static final int FUNCTION_BLOCK = 12;
+    private static final int VALUE_SYMTAB_BLOCK = 14;
+
+    private static final int IDENTIFICATION_STRING = 1;
+    private static final int IDENTIFICATION_EPOCH = 2;
+    private static final int MODULE_VERSION = 1;
+    private static final int MODULE_GLOBALVAR = 7;
+    private static final int MODULE_FUNCTION = 8;
+    private static final int TYPE_NUMENTRY = 1;
+    private static final int TYPE_VOID = 2;
+    private static final int TYPE_INTEGER = 7;
+    private static final int TYPE_POINTER = 8;
+    private static final int TYPE_ARRAY = 11;
+    private static final int TYPE_FUNCTION = 21;
+    private static final int CST_SETTYPE = 1;
+    private static final int CST_INTEGER = 4;
+    private static final int CST_CSTRING = 9;
+    private static final int CST_INBOUNDS_GEP = 20;
+    private static final int FUNC_DECLAREBLOCKS = 1;
+    private static final int FUNC_BINOP = 2;
+    private static final int FUNC_RET = 10;
+    private static final int FUNC_BR = 11;
+    private static final int FUNC_ALLOCA = 19;
+    private static final int FUNC_LOAD = 20;
+    private static final int FUNC_CMP2 = 28;
+    private static final int FUNC_CALL = 34;
+    private static final int FUNC_STORE = 44;
+    private static final int VST_ENTRY = 1;
+    private static final int VST_BBENTRY = 2;
+
+    private static final int BINOP_ADD = 0;
+    private static final int BINOP_SUB = 1;
+    private static final int BINOP_MUL = 2;
+    private static final int BINOP_SDIV = 4;
+    private static final int BINOP_AND = 10;
+    private static final int BINOP_OR = 11;
+    private static final int ICMP_EQ = 32;
+    private static final int ICMP_SLT = 40;
+    private static final int LINKAGE_EXTERNAL = 0;
+    private static final int LINKAGE_PRIVATE = 9;
+    /** Alignment 4, encoded as log2 + 1. */
+    private static final int ALIGN_4 = 3;
+    /** Alignment 1, encoded as log2 + 1. */
+    private static final int ALIGN_1 = 1;
+    /** Packed alignment of an alloca: alignment 4 and the explicit type flag. */
+    private static final int ALLOCA_ALIGN_4 = ALIGN_4 | 1 << 6;
+    /** Calling convention field of a call: the function type is given explicitly. */
+    private static final int CALL_EXPLICIT_TYPE = 1 << 15;
+
+    // the type table, always written in full
+    private static final int I32 = 0;
+    private static final int I1 = 1;
+    private static final int I8 = 2;
+    private static final int VOID = 3;
+    private static final int I32_PTR = 4;
+    private static final int I8_PTR = 5;
+    private static final int READ_FORMAT = 6;
+    private static final int PRINT_FORMAT = 7;
+    private static final int READ_FORMAT_PTR = 8;
+    private static final int PRINT_FORMAT_PTR = 9;
+    private static final int MAIN_TYPE = 10;
+    private static final int PRINTLN_TYPE = 11;
+    private static final int PRINTF_TYPE = 12;
+    private static final int TYPE_COUNT = 13;
+    private static final int TYPE_BITS = 4;
+
+    private final BitstreamWriter stream = new BitstreamWriter();
+    private IrFunction function;
+    private boolean reads;
+    private boolean prints;
+
+    // module-level value ids
+    private int valueCount = 0;
+    private int readFormat = -1;
+    private int printFormat = -1;
+    private int main;
+    private int readInt = -1;
+    private int println = -1;
+    private int scanf = -1;
+    private int printf = -1;
+    private final Map<Integer, Integer> integers = new LinkedHashMap<>();
+    private final boolean[] usesBoolean = new boolean[2];
+    private final int[] booleans = new int[2];
+    private int readFormatString;
+    private int printFormatString;
+    private int readFormatAddress;
+    private int printFormatAddress;
+
+    // function-level state
+    private int[] valueIds;
+    private int[] slotIds;
+    private int nextValue;
+    private int loadAbbreviation;
+    private int storeAbbreviation;
+    private int binopAbbreviation;
+    private int cmpAbbreviation;
+    private int branchAbbreviation;
+
+    /**
+     * Writes a function as the @main function of a bitcode module.
+     *
+     * @param function the function.
+     * @return the bitcode.
+     */
+    public byte[] write(IrFunction function) {
+        this.function = function;
+        this.reads = function.contains(IrOpcode.READ);
+        this.prints = function.contains(IrOpcode.PRINT);
+        stream.emitBytes((byte) 'B', (byte) 'C', (byte) 0xC0, (byte) 0xDE);
+        writeIdentification();
+
+        stream.enterBlock(MODULE_BLOCK, 3);
+        stream.emitUnabbreviatedRecord(MODULE_VERSION, 1);
+        writeTypes();
+        numberModuleValues();
+        writeGlobals();
+        writeConstants();
+        writeModuleSymbols();
+        writeMain();
+        if (reads) {
+            writeReadInt();
+        }
+        if (prints) {
+            writePrintln();
+        }
+        stream.exitBlock();
+        return stream.toByteArray();
+    }
+
+    private void writeIdentification() {
+        stream.enterBlock(IDENTIFICATION_BLOCK, 3);
+        int abbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(IDENTIFICATION_STRING)
+                .add(BitstreamWriter.Encoding.ARRAY)
+                .add(BitstreamWriter.Encoding.CHAR6));
+        stream.emitRecord(abbreviation, record(IDENTIFICATION_STRING, "PMP"));
+        stream.emitUnabbreviatedRecord(IDENTIFICATION_EPOCH, 0);
+        stream.exitBlock();
+    }
+
+    private void writeTypes() {
+        stream.enterBlock(TYPE_BLOCK, 4);
+        stream.emitUnabbreviatedRecord(TYPE_NUMENTRY, TYPE_COUNT);
+        stream.emitUnabbreviatedRecord(TYPE_INTEGER, 32);
+        stream.emitUnabbreviatedRecord(TYPE_INTEGER, 1);
+        stream.emitUnabbreviatedRecord(TYPE_INTEGER, 8);
+        stream.emitUnabbreviatedRecord(TYPE_VOID);
+        stream.emitUnabbreviatedRecord(TYPE_POINTER, I32, 0);
+        stream.emitUnabbreviatedRecord(TYPE_POINTER, I8, 0);
+        stream.emitUnabbreviatedRecord(TYPE_ARRAY, 3, I8);
+        stream.emitUnabbreviatedRecord(TYPE_ARRAY, 4, I8);
+        stream.emitUnabbreviatedRecord(TYPE_POINTER, READ_FORMAT, 0);
+        stream.emitUnabbreviatedRecord(TYPE_POINTER, PRINT_FORMAT, 0);
+        // [vararg, return type, parameter types...]
+        stream.emitUnabbreviatedRecord(TYPE_FUNCTION, 0, I32);
+        stream.emitUnabbreviatedRecord(TYPE_FUNCTION, 0, VOID, I32);
+        stream.emitUnabbreviatedRecord(TYPE_FUNCTION, 1, I32, I8_PTR);
+        stream.exitBlock();
+    }
+
+    /**
+     * Numbers the module-level values in the order they are defined: global variables, functions, constants.
+     */
+    private void numberModuleValues() {
+        if (reads) {
+            readFormat = valueCount++;
+        }
+        if (prints) {
+            printFormat = valueCount++;
+        }
+        main = valueCount++;
+        if (reads) {
+            readInt = valueCount++;
+            scanf = valueCount++;
+        }
+        if (prints) {
+            println = valueCount++;
+            printf = valueCount++;
+        }
+
+        integers.put(0, null);
+        integers.put(1, null);
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IrOpcode opcode = function.getOpcode(instruction);
+                int a = function.getA(instruction);
+                int b = function.getB(instruction);
+                switch (opcode) {
+                    case AND, OR -> {
+                        useBoolean(a);
+                        useBoolean(b);
+                    }
+                    case CBR -> useBoolean(a);
+                    case CONST, NEG, PRINT -> useInteger(a);
+                    case STORE -> useInteger(b);
+                    case ADD, SUB, MUL, SDIV, ICMP_EQ, ICMP_SLT -> {
+                        useInteger(a);
+                        useInteger(b);
+                    }
+                    default -> { }
+                }
+            }
+        }
+        integers.put(-1, null);
+        for (Map.Entry<Integer, Integer> integer : integers.entrySet()) {
+            integer.setValue(valueCount++);
+        }
+        for (int value = 0; value < 2; value++) {
+            if (usesBoolean[value]) {
+                booleans[value] = valueCount++;
+            }
+        }
+        if (reads) {
+            readFormatString = valueCount++;
+        }
+        if (prints) {
+            printFormatString = valueCount++;
+        }
+        if (reads) {
+            readFormatAddress = valueCount++;
+        }
+        if (prints) {
+            printFormatAddress = valueCount++;
+        }
+    }
+
+    private void useInteger(int operand) {
+        if (IrFunction.isConstant(operand)) {
+            integers.putIfAbsent(function.constantValue(operand), null);
+        }
+    }
+
+    private void useBoolean(int operand) {
+        if (IrFunction.isConstant(operand)) {
+            usesBoolean[function.constantValue(operand) != 0 ? 1 : 0] = true;
+        }
+    }
+
+    private void writeGlobals() {
+        // [value type, constant | explicit type, initializer + 1, linkage, alignment, section, visibility,
+        //  thread local, unnamed_addr]
+        if (reads) {
+            stream.emitUnabbreviatedRecord(MODULE_GLOBALVAR, READ_FORMAT, 3, readFormatString + 1, LINKAGE_PRIVATE,
+                    ALIGN_1, 0, 0, 0, 1);
+        }
+        if (prints) {
+            stream.emitUnabbreviatedRecord(MODULE_GLOBALVAR, PRINT_FORMAT, 3, printFormatString + 1,
+                    LINKAGE_PRIVATE, ALIGN_1, 0, 0, 0, 1);
+        }
+        // [type, calling convention, is declaration, linkage, attributes, alignment, section, visibility, gc,
+        //  unnamed_addr]
+        stream.emitUnabbreviatedRecord(MODULE_FUNCTION, MAIN_TYPE, 0, 0, LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+        if (reads) {
+            stream.emitUnabbreviatedRecord(MODULE_FUNCTION, MAIN_TYPE, 0, 0, LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+            stream.emitUnabbreviatedRecord(MODULE_FUNCTION, PRINTF_TYPE, 0, 1, LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+        }
+        if (prints) {
+            stream.emitUnabbreviatedRecord(MODULE_FUNCTION, PRINTLN_TYPE, 0, 0, LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+            stream.emitUnabbreviatedRecord(MODULE_FUNCTION, PRINTF_TYPE, 0, 1, LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+        }
+    }
+
+    private void writeConstants() {
+        stream.enterBlock(CONSTANTS_BLOCK, 4);
+        int setType = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(CST_SETTYPE)
+                .add(BitstreamWriter.Encoding.FIXED, TYPE_BITS));
+        int integer = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(CST_INTEGER)
+                .add(BitstreamWriter.Encoding.VBR, 8));
+
+        stream.emitRecord(setType, CST_SETTYPE, I32);
+        for (int value : integers.keySet()) {
+            stream.emitRecord(integer, CST_INTEGER, BitstreamWriter.signRotate(value));
+        }
+        if (usesBoolean[0] || usesBoolean[1]) {
+            stream.emitRecord(setType, CST_SETTYPE, I1);
+            for (int value = 0; value < 2; value++) {
+                if (usesBoolean[value]) {
+                    // i1 true is the sign extended -1
+                    stream.emitRecord(integer, CST_INTEGER, BitstreamWriter.signRotate(-value));
+                }
+            }
+        }
+        if (reads) {
+            stream.emitRecord(setType, CST_SETTYPE, READ_FORMAT);
+            stream.emitUnabbreviatedRecord(CST_CSTRING, chars("%d"));
+        }
+        if (prints) {
+            stream.emitRecord(setType, CST_SETTYPE, PRINT_FORMAT);
+            stream.emitUnabbreviatedRecord(CST_CSTRING, chars("%d\n"));
+        }
+        if (reads || prints) {
+            // getelementptr inbounds ([N x i8], [N x i8]* @format, i32 0, i32 0)
+            stream.emitRecord(setType, CST_SETTYPE, I8_PTR);
+            int zero = integers.get(0);
+            if (reads) {
+                stream.emitUnabbreviatedRecord(CST_INBOUNDS_GEP, READ_FORMAT, READ_FORMAT_PTR, readFormat,
+                        I32, zero, I32, zero);
+            }
+            if (prints) {
+                stream.emitUnabbreviatedRecord(CST_INBOUNDS_GEP, PRINT_FORMAT, PRINT_FORMAT_PTR, printFormat,
+                        I32, zero, I32, zero);
+            }
+        }
+        stream.exitBlock();
+    }
+
+    private void writeModuleSymbols() {
+        stream.enterBlock(VALUE_SYMTAB_BLOCK, 4);
+        int entry = defineSymbolAbbreviation(VST_ENTRY);
+        if (reads) {
+            stream.emitRecord(entry, record(VST_ENTRY, readFormat, ".strR"));
+            stream.emitRecord(entry, record(VST_ENTRY, readInt, "readInt"));
+            stream.emitRecord(entry, record(VST_ENTRY, scanf, "scanf"));
+        }
+        if (prints) {
+            stream.emitRecord(entry, record(VST_ENTRY, printFormat, ".strP"));
+            stream.emitRecord(entry, record(VST_ENTRY, println, "println"));
+            stream.emitRecord(entry, record(VST_ENTRY, printf, "printf"));
+        }
+        stream.emitRecord(entry, record(VST_ENTRY, main, "main"));
+        stream.exitBlock();
+    }
+
+    private int defineSymbolAbbreviation(int code) {
+        return stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(code)
+                .add(BitstreamWriter.Encoding.VBR, 8)
+                .add(BitstreamWriter.Encoding.ARRAY)
+                .add(BitstreamWriter.Encoding.CHAR6));
+    }
+
+    /* Functions */
+
+    private void enterFunction(int blockCount) {
+        stream.enterBlock(FUNCTION_BLOCK, 4);
+        stream.emitUnabbreviatedRecord(FUNC_DECLAREBLOCKS, blockCount);
+        // [pointer, type, alignment, volatile]
+        loadAbbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(FUNC_LOAD)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.FIXED, TYPE_BITS)
+                .add(BitstreamWriter.Encoding.VBR, 4)
+                .add(BitstreamWriter.Encoding.FIXED, 1));
+        // [pointer, value, alignment, volatile]
+        storeAbbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(FUNC_STORE)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.VBR, 4)
+                .add(BitstreamWriter.Encoding.FIXED, 1));
+        // [left, right, opcode]
+        binopAbbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(FUNC_BINOP)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.FIXED, 4));
+        // [left, right, predicate]
+        cmpAbbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(FUNC_CMP2)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.VBR, 6)
+                .add(BitstreamWriter.Encoding.FIXED, 6));
+        // [target]
+        branchAbbreviation = stream.defineAbbreviation(new BitstreamWriter.Abbreviation()
+                .literal(FUNC_BR)
+                .add(BitstreamWriter.Encoding.VBR, 6));
+    }
+
+    private void writeMain() {
+        // number the values of @main in layout order, allocas included
+        valueIds = new int[function.getValueCount() + 1];
+        slotIds = new int[function.getVariableCount()];
+        int id = valueCount;
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.getOpcode(instruction) == IrOpcode.ALLOCA) {
+                    slotIds[function.getA(instruction)] = id++;
+                } else if (function.getResult(instruction) != IrFunction.NO_VALUE) {
+                    valueIds[function.getResult(instruction)] = id++;
+                }
+            }
+        }
+        int[] blockIndices = new int[maxBlockId() + 1];
+        for (int i = 0; i < function.getBlocks().size(); i++) {
+            blockIndices[function.getBlocks().get(i).getId()] = i;
+        }
+
+        enterFunction(function.getBlocks().size());
+        nextValue = valueCount;
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                writeInstruction(block.get(i), blockIndices);
+            }
+        }
+
+        stream.enterBlock(VALUE_SYMTAB_BLOCK, 4);
+        int entry = defineSymbolAbbreviation(VST_ENTRY);
+        int blockEntry = defineSymbolAbbreviation(VST_BBENTRY);
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.getOpcode(instruction) == IrOpcode.ALLOCA) {
+                    int slot = function.getA(instruction);
+                    writeSymbol(entry, VST_ENTRY, slotIds[slot], function.getVariableName(slot));
+                }
+            }
+        }
+        for (int i = 0; i < function.getBlocks().size(); i++) {
+            String name = function.getBlocks().get(i).getName();
+            if (name != null) {
+                writeSymbol(blockEntry, VST_BBENTRY, i, name);
+            }
+        }
+        stream.exitBlock();
+        stream.exitBlock();
+    }
+
+    private int maxBlockId() {
+        int max = 0;
+        for (IrBlock block : function.getBlocks()) {
+            max = Math.max(max, block.getId());
+        }
+        return max;
+    }
+
+    private void writeSymbol(int abbreviation, int code, int id, String name) {
+        if (BitstreamWriter.isChar6(name)) {
+            stream.emitRecord(abbreviation, record(code, id, name));
+        } else {
+            stream.emitUnabbreviatedRecord(code, chars(id, name));
+        }
+    }
+
+    private void writeInstruction(int instruction, int[] blockIndices) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = function.getA(instruction);
+        int b = function.getB(instruction);
+        switch (opcode) {
+            case ALLOCA -> {
+                stream.emitUnabbreviatedRecord(FUNC_ALLOCA, I32, I32, integers.get(1), ALLOCA_ALIGN_4);
+                nextValue++;
+            }
+            case LOAD -> writeLoad(slotIds[a]);
+            case STORE -> writeStore(slotIds[a], integer(b));
+            case CONST -> binop(integers.get(0), integer(a), BINOP_ADD);
+            case NEG -> binop(integers.get(-1), integer(a), BINOP_MUL);
+            case ADD -> binop(integer(a), integer(b), BINOP_ADD);
+            case SUB -> binop(integer(a), integer(b), BINOP_SUB);
+            case MUL -> binop(integer(a), integer(b), BINOP_MUL);
+            case SDIV -> binop(integer(a), integer(b), BINOP_SDIV);
+            case AND -> binop(bool(a), bool(b), BINOP_AND);
+            case OR -> binop(bool(a), bool(b), BINOP_OR);
+            case ICMP_EQ -> compare(integer(a), integer(b), ICMP_EQ);
+            case ICMP_SLT -> compare(integer(a), integer(b), ICMP_SLT);
+            case READ -> call(MAIN_TYPE, readInt);
+            case PRINT -> call(PRINTLN_TYPE, println, integer(a));
+            case BR -> stream.emitRecord(branchAbbreviation, FUNC_BR, blockIndices[a]);
+            case CBR -> stream.emitUnabbreviatedRecord(FUNC_BR, blockIndices[b],
+                    blockIndices[function.getC(instruction)], relative(bool(a)));
+            case RET -> stream.emitUnabbreviatedRecord(FUNC_RET, relative(integers.get(0)));
+        }
+    }
+
+    private int integer(int operand) {
+        return IrFunction.isConstant(operand) ? integers.get(function.constantValue(operand)) : valueIds[operand];
+    }
+
+    private int bool(int operand) {
+        return IrFunction.isConstant(operand) ? booleans[function.constantValue(operand) != 0 ? 1 : 0]
+                : valueIds[operand];
+    }
+
+    /**
+     * Returns the id of an operand relative to the instruction being written. Forward references wrap around as
+     * 32-bit unsigned ints, as the reader expects.
+     */
+    private long relative(int id) {
+        return (nextValue - id) & 0xFFFFFFFFL;
+    }
+
+    private boolean isForward(int id) {
+        return id >= nextValue;
+    }
+
+    private void writeLoad(int pointer) {
+        if (isForward(pointer)) {
+            // a forward reference in a value/type pair carries its type
+            stream.emitUnabbreviatedRecord(FUNC_LOAD, relative(pointer), I32_PTR, I32, ALIGN_4, 0);
+        } else {
+            stream.emitRecord(loadAbbreviation, FUNC_LOAD, relative(pointer), I32, ALIGN_4, 0);
+        }
+        nextValue++;
+    }
+
+    private void writeStore(int pointer, int value) {
+        if (isForward(pointer) || isForward(value)) {
+            long[] operands = new long[6];
+            int length = 0;
+            operands[length++] = relative(pointer);
+            if (isForward(pointer)) {
+                operands[length++] = I32_PTR;
+            }
+            operands[length++] = relative(value);
+            if (isForward(value)) {
+                operands[length++] = I32;
+            }
+            operands[length++] = ALIGN_4;
+            operands[length++] = 0;
+            stream.emitUnabbreviatedRecord(FUNC_STORE, Arrays.copyOf(operands, length));
+        } else {
+            stream.emitRecord(storeAbbreviation, FUNC_STORE, relative(pointer), relative(value), ALIGN_4, 0);
+        }
+    }
+
+    private void binop(int left, int right, int operation) {
+        if (isForward(left)) {
+            int type = operation == BINOP_AND || operation == BINOP_OR ? I1 : I32;
+            stream.emitUnabbreviatedRecord(FUNC_BINOP, relative(left), type, relative(right), operation);
+        } else {
+            stream.emitRecord(binopAbbreviation, FUNC_BINOP, relative(left), relative(right), operation);
+        }
+        nextValue++;
+    }
+
+    private void compare(int left, int right, int predicate) {
+        if (isForward(left)) {
+            stream.emitUnabbreviatedRecord(FUNC_CMP2, relative(left), I32, relative(right), predicate);
+        } else {
+            stream.emitRecord(cmpAbbreviation, FUNC_CMP2, relative(left), relative(right), predicate);
+        }
+        nextValue++;
+    }
+
+    /**
+     * Writes a call to @readInt or @println; the fixed arguments are relative ids, the callee is known.
+     */
+    private void call(int type, int callee, int... arguments) {
+        long[] operands = new long[4 + arguments.length];
+        operands[0] = 0;
+        operands[1] = CALL_EXPLICIT_TYPE;
+        operands[2] = type;
+        operands[3] = relative(callee);
+        for (int i = 0; i < arguments.length; i++) {
+            operands[4 + i] = relative(arguments[i]);
+        }
+        stream.emitUnabbreviatedRecord(FUNC_CALL, operands);
+        if (type != PRINTLN_TYPE) {
+            nextValue++;
+        }
+    }
+
+    /**
+     * Writes a call to scanf or printf with a format string and one variadic argument of the given type.
+     */
+    private void formatCall(int callee, int format, int argument, int argumentType) {
+        long[] operands = {0, CALL_EXPLICIT_TYPE, PRINTF_TYPE, relative(callee), relative(format),
+                relative(argument), argumentType};
+        // a variadic argument is a value/type pair; backward references leave the type out
+        stream.emitUnabbreviatedRecord(FUNC_CALL, isForward(argument) ? operands
+                : Arrays.copyOf(operands, operands.length - 1));
+        nextValue++;
+    }
+
+    private void writeReadInt() {
+        // %var = alloca i32, align 4
+        // %1 = call i32 (i8*, ...) @scanf(i8* <format>, i32* %var)
+        // %2 = load i32, i32* %var, align 4
+        // ret i32 %2
+        enterFunction(1);
+        nextValue = valueCount;
+        int var = nextValue;
+        stream.emitUnabbreviatedRecord(FUNC_ALLOCA, I32, I32, integers.get(1), ALLOCA_ALIGN_4);
+        nextValue++;
+        formatCall(scanf, readFormatAddress, var, I32_PTR);
+        int loaded = nextValue;
+        stream.emitRecord(loadAbbreviation, FUNC_LOAD, relative(var), I32, ALIGN_4, 0);
+        nextValue++;
+        stream.emitUnabbreviatedRecord(FUNC_RET, relative(loaded));
+        writeLocalSymbol(var);
+        stream.exitBlock();
+    }
+
+    private void writePrintln() {
+        // %1 = call i32 (i8*, ...) @printf(i8* <format>, i32 %var)
+        // ret void
+        enterFunction(1);
+        int var = valueCount;
+        nextValue = valueCount + 1;
+        formatCall(printf, printFormatAddress, var, I32);
+        stream.emitUnabbreviatedRecord(FUNC_RET);
+        writeLocalSymbol(var);
+        stream.exitBlock();
+    }
+
+    private void writeLocalSymbol(int var) {
+        stream.enterBlock(VALUE_SYMTAB_BLOCK, 4);
+        stream.emitRecord(defineSymbolAbbreviation(VST_ENTRY), record(VST_ENTRY, var, "var"));
+        stream.exitBlock();
+    }
+
+    /* Records */
+
+    private static long[] record(int code, String text) {
+        long[] record = new long[1 + text.length()];
+        record[0] = code;
+        for (int i = 0; i < text.length(); i++) {
+            record[1 + i] = text.charAt(i);
+        }
+        return record;
+    }
+
+    private static long[] record(int code, int id, String text) {
+        long[] record = new long[2 + text.length()];
+        record[0] = code;
+        record[1] = id;
+        for (int i = 0; i < text.length(); i++) {
+            record[2 + i] = text.charAt(i);
+        }
+        return record;
+    }
+
+    private static long[] chars(String text) {
+        long[] chars = new long[text.length()];
+        for (int i = 0; i < text.length(); i++) {
+            chars[i] = text.charAt(i);
+        }
+        return chars;
+    }
+
+    private static long[] chars(int id, String text) {
+        long[] chars = new long[1 + text.length()];
+        chars[0] = id;
+        for (int i = 0; i < text.length(); i++) {
+            chars[1 + i] = text.charAt(i);
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,295 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writer for the LLVM bitstream container format, on which bitcode is built.
+ *
+ * Fields are packed least significant bit first into little-endian 32-bit words. The stream is made of nested
+ * blocks; each block has its own abbreviation width and its own abbreviations, which describe how the operands of a
+ * record are encoded (fixed width, variable width, array, 6-bit characters) so that frequent records take a few
+ * bits instead of a 6-bit VBR per operand.
+ */
+public class BitstreamWriter {
+    /** Encoding of an operand in an abbreviation. */
+    public enum Encoding {
+        FIXED(1), VBR(2), ARRAY(3), CHAR6(4);
+
+        private final int code;
+
+        Encoding(int code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * An abbreviation: a list of operands, each one a literal value or an encoding with its width.
+     */
+    public static class Abbreviation {
+        private final List<long[]> operands = new ArrayList<>();
+
+        /**
+         * Adds an operand whose value is implied by the abbreviation, typically the record code.
+         *
+         * @param value the value.
+         * @return this abbreviation.
+         */
+        public Abbreviation literal(long value) {
+            operands.add(new long[]{0, value});
+            return this;
+        }
+
+        /**
+         * Adds an encoded operand.
+         *
+         * @param encoding the encoding.
+         * @param width the width for {@link Encoding#FIXED} and {@link Encoding#VBR}, ignored otherwise.
+         * @return this abbreviation.
+         */
+        public Abbreviation add(Encoding encoding, int width) {
+            operands.add(new long[]{encoding.code, width});
+            return this;
+        }
+
+        public Abbreviation add(Encoding encoding) {
+            return add(encoding, 0);
+        }
+    }
+
+    private static final int END_BLOCK = 0;
+    private static final int ENTER_SUBBLOCK = 1;
+    private static final int DEFINE_ABBREV = 2;
+    private static final int UNABBREV_RECORD = 3;
+    private static final int FIRST_APPLICATION_ABBREV = 4;
+
+    private int[] words = new int[1024];
+    private int wordCount = 0;
+    private long current = 0;
+    private int currentBits = 0;
+
+    private int abbreviationWidth = 2;
+    private List<Abbreviation> abbreviations = new ArrayList<>();
+    private final Deque<int[]> blockStarts = new ArrayDeque<>();
+    private final Deque<List<Abbreviation>> outerAbbreviations = new ArrayDeque<>();
+
+    /**
+     * Writes a fixed-width field.
+     *
+     * @param value the value, of which only the low bits are written.
+     * @param width the width, at most 32 bits.
+     */
+    public void emit(long value, int width) {
+        current |= (value & ((1L << width) - 1)) << currentBits;
+        currentBits += width;
+        if (currentBits >= 32) {
+            writeWord((int) current);
+            current >>>= 32;
+            currentBits -= 32;
+        }
+    }
+
+    /**
+     * Writes a variable-width field: chunks of width - 1 bits, the top bit of each chunk telling whether another one
+     * follows.
+     *
+     * @param value the unsigned value.
+     * @param width the width of a chunk.
+     */
+    public void emitVbr(long value, int width) {
+        long threshold = 1L << (width - 1);
+        while (Long.compareUnsigned(value, threshold) >= 0) {
+            emit((value & (threshold - 1)) | threshold, width);
+            value >>>= width - 1;
+        }
+        emit(value, width);
+    }
+
+    /**
+     * Encodes a signed value for a VBR field, the sign going to the lowest bit.
+     *
+     * @param value the signed value.
+     * @return the encoded value.
+     */
+    public static long signRotate(long value) {
+        return value >= 0 ? value << 1 : (-value << 1) | 1;
+    }
+
+    /**
+     * Writes bytes at the start of the stream, such as the magic number of the format.
+     *
+     * @param bytes the bytes.
+     */
+    public void emitBytes(byte... bytes) {
+        for (byte b : bytes) {
+            emit(b & 0xFF, 8);
+        }
+    }
+
+    private void align() {
+        if (currentBits > 0) {
+            writeWord((int) current);
+            current = 0;
+            currentBits = 0;
+        }
+    }
+
+    private void writeWord(int word) {
+        if (wordCount == words.length) {
+            words = Arrays.copyOf(words, wordCount * 2);
+        }
+        words[wordCount++] = word;
+    }
+
+    /**
+     * Opens a block; records and abbreviations that follow belong to it until {@link #exitBlock()}.
+     *
+     * @param blockId the id of the block.
+     * @param width the abbreviation id width inside the block.
+     */
+    public void enterBlock(int blockId, int width) {
+        emit(ENTER_SUBBLOCK, abbreviationWidth);
+        emitVbr(blockId, 8);
+        emitVbr(width, 4);
+        align();
+        // the length of the block, in words, is filled when the block is closed
+        blockStarts.push(new int[]{wordCount, abbreviationWidth});
+        writeWord(0);
+        outerAbbreviations.push(abbreviations);
+        abbreviations = new ArrayList<>();
+        abbreviationWidth = width;
+    }
+
+    public void exitBlock() {
+        emit(END_BLOCK, abbreviationWidth);
+        align();
+        int[] start = blockStarts.pop();
+        words[start[0]] = wordCount - start[0] - 1;
+        abbreviationWidth = start[1];
+        abbreviations = outerAbbreviations.pop();
+    }
+
+    /**
+     * Defines an abbreviation in the current block.
+     *
+     * @param abbreviation the abbreviation.
+     * @return the id to pass to {@link #emitRecord(int, long...)}.
+     */
+    public int defineAbbreviation(Abbreviation abbreviation) {
+        emit(DEFINE_ABBREV, abbreviationWidth);
+        emitVbr(abbreviation.operands.size(), 5);
+        for (long[] operand : abbreviation.operands) {
+            boolean isLiteral = operand[0] == 0;
+            emit(isLiteral ? 1 : 0, 1);
+            if (isLiteral) {
+                emitVbr(operand[1], 8);
+            } else {
+                emit(operand[0], 3);
+                if (operand[0] == Encoding.FIXED.code || operand[0] == Encoding.VBR.code) {
+                    emitVbr(operand[1], 5);
+                }
+            }
+        }
+        abbreviations.add(abbreviation);
+        return FIRST_APPLICATION_ABBREV + abbreviations.size() - 1;
+    }
+
+    /**
+     * Writes a record without abbreviation: the code and every operand as a 6-bit VBR.
+     *
+     * @param code the code of the record.
+     * @param operands the operands.
+     */
+    public void emitUnabbreviatedRecord(int code, long... operands) {
+        emit(UNABBREV_RECORD, abbreviationWidth);
+        emitVbr(code, 6);
+        emitVbr(operands.length, 6);
+        for (long operand : operands) {
+            emitVbr(operand, 6);
+        }
+    }
+
+    /**
+     * Writes a record with an abbreviation of the current block.
+     *
+     * @param abbreviationId the id returned by {@link #defineAbbreviation(Abbreviation)}.
+     * @param values the code and the operands of the record, literals included; the elements of an array
+     *               operand are the remaining values.
+     */
+    public void emitRecord(int abbreviationId, long... values) {
+        emit(abbreviationId, abbreviationWidth);
+        List<long[]> operands = abbreviations.get(abbreviationId - FIRST_APPLICATION_ABBREV).operands;
+        int next = 0;
+        for (int i = 0; i < operands.size(); i++) {
+            long[] operand = operands.get(i);
+            if (operand[0] == Encoding.ARRAY.code) {
+                long[] element = operands.get(++i);
+                emitVbr(values.length - next, 6);
+                while (next < values.length) {
+                    emitOperand(element, values[next++]);
+                }
+            } else if (operand[0] == 0) {
+                if (values[next++] != operand[1]) {
+                    throw new IllegalArgumentException("Record does not match the literal of its abbreviation");
+                }
+            } else {
+                emitOperand(operand, values[next++]);
+            }
+        }
+    }
+
+    private void emitOperand(long[] operand, long value) {
+        if (operand[0] == Encoding.FIXED.code) {
+            emit(value, (int) operand[1]);
+        } else if (operand[0] == Encoding.VBR.code) {
+            emitVbr(value, (int) operand[1]);
+        } else {
+            emit(char6(value), 6);
+        }
+    }
+
+    /**
+     * Returns whether a string can be written with {@link Encoding#CHAR6}.
+     *
+     * @param text the string.
+     * @return true iff it only contains letters, digits, '.' and '_'.
+     */
+    public static boolean isChar6(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long char6(long c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        } else if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        return c == '.' ? 62 : 63;
+    }
+
+    /**
+     * Returns the stream written so far, padded to a whole number of words.
+     *
+     * @return the bytes of the stream.
+     */
+    public byte[] toByteArray() {
+        align();
+        byte[] bytes = new byte[wordCount * 4];
+        for (int i = 0; i < wordCount; i++) {
+            bytes[4 * i] = (byte) words[i];
+            bytes[4 * i + 1] = (byte) (words[i] >>> 8);
+            bytes[4 * i + 2] = (byte) (words[i] >>> 16);
+            bytes[4 * i + 3] = (byte) (words[i] >>> 24);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Profile-guided block layout: orders the blocks so that the hot paths of a {@link BranchProfile} fall through.
+ *
+ * Starting from the entry block, each block is followed by its most executed successor not placed yet (the
+ * heavier target of a conditional branch with a profile, else the one that came first); when there is none, the
+ * next block of the former layout is taken. Cold blocks, counted but never executed or only reached from cold
+ * blocks, are moved to the end of the function.
+ *
+ * The pass attaches the profile to the function (see {@link BranchProfile#attach(IrFunction)}), so it must run after
+ * every pass that changes the blocks; if the profile was recorded for another program, the layout is left unchanged.
+ */
+public class BlockLayout implements IrPass {
+    private final BranchProfile profile;
+    private int movedBlocks = 0;
+    private int coldBlocks = 0;
+
+    /**
+     * Creates the pass.
+     *
+     * @param profile the profile of the function.
+     */
+    public BlockLayout(BranchProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public String getName() {
+        return "profile-block-layout";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        if (!profile.attach(function)) {
+            return;
+        }
+        function.computeCfg();
+        List<IrBlock> blocks = function.getBlocks();
+        List<IrBlock> former = new ArrayList<>(blocks);
+        int maxId = 0;
+        for (IrBlock block : former) {
+            maxId = Math.max(maxId, block.getId());
+        }
+        int[] positions = new int[maxId + 1];
+        for (int i = 0; i < former.size(); i++) {
+            positions[former.get(i).getId()] = i;
+        }
+        boolean[] cold = coldBlocks(former, maxId);
+        boolean[] placed = new boolean[maxId + 1];
+
+        List<IrBlock> layout = new ArrayList<>(former.size());
+        int next = 0; // first block of the former layout that may not be placed yet
+        IrBlock block = former.get(0);
+        while (block != null) {
+            layout.add(block);
+            placed[block.getId()] = true;
+            block = hottestSuccessor(function, block, positions, placed, cold);
+            if (block == null) {
+                while (next < former.size() && (placed[former.get(next).getId()] || cold[former.get(next).getId()])) {
+                    next++;
+                }
+                block = next < former.size() ? former.get(next) : null;
+            }
+        }
+        for (IrBlock coldBlock : former) {
+            if (!placed[coldBlock.getId()]) {
+                layout.add(coldBlock);
+                coldBlocks++;
+            }
+        }
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.get(i) != former.get(i)) {
+                movedBlocks++;
+            }
+        }
+        blocks.clear();
+        blocks.addAll(layout);
+    }
+
+    /**
+     * Finds the blocks that are not worth placing on the hot path: the counted blocks that were never executed, and
+     * the blocks without count whose predecessors are all cold.
+     */
+    private boolean[] coldBlocks(List<IrBlock> blocks, int maxId) {
+        boolean[] cold = new boolean[maxId + 1];
+        for (IrBlock block : blocks) {
+            cold[block.getId()] = profile.getCount(block) == 0;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IrBlock block : blocks.subList(1, blocks.size())) {
+                if (cold[block.getId()] || profile.getCount(block) >= 0 || block.getPredecessors().isEmpty()) {
+                    continue;
+                }
+                boolean reachedFromHot = false;
+                for (IrBlock predecessor : block.getPredecessors()) {
+                    reachedFromHot |= !cold[predecessor.getId()];
+                }
+                if (!reachedFromHot) {
+                    cold[block.getId()] = true;
+                    changed = true;
+                }
+            }
+        }
+        return cold;
+    }
+
+    /**
+     * Returns the successor of a block that should follow it, or null if all of them are placed or cold.
+     */
+    private IrBlock hottestSuccessor(IrFunction function, IrBlock block, int[] positions, boolean[] placed,
+                                     boolean[] cold) {
+        int terminator = block.getTerminator();
+        int first;
+        int second;
+        switch (function.getOpcode(terminator)) {
+            case BR -> {
+                first = function.getA(terminator);
+                second = first;
+            }
+            case CBR -> {
+                int[] weights = profile.branchWeights(function, terminator);
+                boolean falseFirst = weights != null ? weights[1] > weights[0]
+                        : positions[function.getC(terminator)] < positions[function.getB(terminator)];
+                first = falseFirst ? function.getC(terminator) : function.getB(terminator);
+                second = falseFirst ? function.getB(terminator) : function.getC(terminator);
+            }
+            default -> {
+                return null;
+            }
+        }
+        for (int id : new int[]{first, second}) {
+            if (!placed[id] && !cold[id]) {
+                return function.getBlockById(id);
+            }
+        }
+        return null;
+    }
+
+    public int getMovedBlocks() {
+        return movedBlocks;
+    }
+
+    public int getColdBlocks() {
+        return coldBlocks;
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Execution counts of the blocks of a program, recorded by a build instrumented with
+ * {@link LlvmPrinter#setProfileOutput(String)} and read back to lay out ({@link BlockLayout}) and annotate the
+ * branches of a later build of the same program.
+ *
+ * The counted blocks are the "if", "Else", "While" and "CondWhile" blocks of the function, in layout order, and the
+ * "EndIf" blocks of the if statements without else: the count of a "CondWhile" block is the number of evaluations of
+ * the condition of its loop. The profile file is written by the program itself when @main returns: 64-bit little
+ * endian integers, the magic number "PMPPROF1", a checksum of the names of the counted blocks, then their counts.
+ * The function must be built with the same options and optimization level as the instrumented one, so that it has
+ * the same counted blocks; a profile recorded for another version of the program is recognized by its checksum.
+ */
+public class BranchProfile {
+    /** "PMPPROF1" read as a little endian integer. */
+    static final long MAGIC = 0x31464F5250504D50L;
+    /** Number of integers before the counts. */
+    static final int HEADER_LENGTH = 2;
+
+    private final long checksum;
+    private final long[] counts;
+    private final Map<String, Long> blockCounts = new HashMap<>();
+    private boolean attached = false;
+
+    private BranchProfile(long checksum, long[] counts) {
+        this.checksum = checksum;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns the blocks whose executions are counted by an instrumented build.
+     *
+     * @param function the function, after the passes.
+     * @return the counted blocks, in layout order; the counter of the i-th one is at index
+     * {@link #HEADER_LENGTH} + i of the profile.
+     */
+    public static List<IrBlock> countedBlocks(IrFunction function) {
+        Set<String> elseIndices = new HashSet<>();
+        for (IrBlock block : function.getBlocks()) {
+            if (block.getName() != null && prefix(block.getName()).equals("Else")) {
+                elseIndices.add(block.getName().substring("Else".length()));
+            }
+        }
+        List<IrBlock> counted = new ArrayList<>();
+        for (IrBlock block : function.getBlocks()) {
+            if (block.getName() == null) {
+                continue;
+            }
+            switch (prefix(block.getName())) {
+                case "if", "Else", "While", "CondWhile" -> counted.add(block);
+                case "EndIf" -> {
+                    // without else, the false edge of the condition is counted as EndIf minus if
+                    if (!elseIndices.contains(block.getName().substring("EndIf".length()))) {
+                        counted.add(block);
+                    }
+                }
+                default -> { }
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * Computes the checksum identifying the counted blocks of a function (64-bit FNV-1a of their names).
+     *
+     * @param blocks the counted blocks, see {@link #countedBlocks(IrFunction)}.
+     * @return the checksum.
+     */
+    public static long checksum(List<IrBlock> blocks) {
+        long hash = 0xCBF29CE484222325L;
+        for (IrBlock block : blocks) {
+            String name = block.getName() + "\n";
+            for (int i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Reads a profile file.
+     *
+     * @param file the file written by an instrumented program.
+     * @return the profile, not attached to any function yet.
+     * @throws IOException if the file cannot be read or is not a profile.
+     */
+    public static BranchProfile read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length % Long.BYTES != 0 || bytes.length < HEADER_LENGTH * Long.BYTES || buffer.getLong() != MAGIC) {
+            throw new IOException(file + " is not a profile written by --profile-generate");
+        }
+        long checksum = buffer.getLong();
+        long[] counts = new long[buffer.remaining() / Long.BYTES];
+        buffer.asLongBuffer().get(counts);
+        return new BranchProfile(checksum, counts);
+    }
+
+    /**
+     * Gives the counts of the profile to the blocks of a function, if it was recorded for that function.
+     *
+     * @param function the function, after the passes and before any change of its layout.
+     * @return false if the profile was recorded for another program or with other options.
+     */
+    public boolean attach(IrFunction function) {
+        blockCounts.clear();
+        List<IrBlock> counted = countedBlocks(function);
+        attached = counted.size() == counts.length && checksum(counted) == checksum;
+        if (attached) {
+            for (int i = 0; i < counts.length; i++) {
+                blockCounts.put(counted.get(i).getName(), counts[i]);
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * Returns whether the profile was attached to a function, see {@link #attach(IrFunction)}.
+     *
+     * @return true if the counts of the blocks are known.
+     */
+    public boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * Returns how many times a block was executed.
+     *
+     * @param block a block of the function the profile is attached to.
+     * @return the count, or -1 if the block is not counted.
+     */
+    public long getCount(IrBlock block) {
+        return block.getName() == null ? -1 : blockCounts.getOrDefault(block.getName(), -1L);
+    }
+
+    /**
+     * Returns the weights of the two targets of a conditional branch of an if or while statement: the branch to
+     * "if" and "Else" or "EndIf", or to "While" and "WhileEnd". When the condition is an and/or chain, only its
+     * last test branches there, and it gets the weights of the whole condition.
+     *
+     * @param function the function the profile is attached to.
+     * @param instruction a CBR instruction.
+     * @return the weights of the true and false targets, from 1 to {@link Integer#MAX_VALUE}, or null if the branch
+     * is not one of an if or while statement.
+     */
+    public int[] branchWeights(IrFunction function, int instruction) {
+        String trueName = function.getBlockById(function.getB(instruction)).getName();
+        String falseName = function.getBlockById(function.getC(instruction)).getName();
+        if (trueName == null || falseName == null) {
+            return null;
+        }
+        String index = trueName.substring(prefix(trueName).length());
+        Long taken = blockCounts.get(trueName);
+        Long other;
+        boolean otherIsTotal; // whether the other count includes the taken branches
+        if (trueName.equals("if" + index) && falseName.equals("Else" + index)) {
+            other = blockCounts.get(falseName);
+            otherIsTotal = false;
+        } else if (trueName.equals("if" + index) && falseName.equals("EndIf" + index)) {
+            other = blockCounts.get(falseName);
+            otherIsTotal = true;
+        } else if (trueName.equals("While" + index) && falseName.equals("WhileEnd" + index)) {
+            other = blockCounts.get("CondWhile" + index);
+            otherIsTotal = true;
+        } else {
+            return null;
+        }
+        if (taken == null || other == null) {
+            return null;
+        }
+        long notTaken = Math.max(otherIsTotal ? other - taken : other, 0);
+        // 1 is added so that LLVM never sees a zero weight, and large counts are scaled down to 31 bits
+        long scale = Math.max(taken, notTaken) / Integer.MAX_VALUE + 1;
+        return new int[]{(int) (taken / scale + 1), (int) (notTaken / scale + 1)};
+    }
+
+    /**
+     * Returns the label of a block without its index, e.g. "CondWhile" for "CondWhile3".
+     */
+    private static String prefix(String name) {
+        int digits = name.length();
+        while (digits > 0 && Character.isDigit(name.charAt(digits - 1))) {
+            digits--;
+        }
+        return name.substring(0, digits);
+    }
+}
@@ -0,0 +1,509 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a {@link ParseTree} to the register bytecode of {@link BytecodeProgram}.
+ *
+ * Every variable gets a register, and the temporaries of an expression are allocated like a stack after them and
+ * released at the end of each statement. Conditions are compiled to compare-and-branch instructions jumping
+ * straight to the code to run next, so that and/or chains short-circuit and no boolean is ever materialized.
+ * Loops test their condition at the bottom, hence a single branch per iteration. The expressions and conditions
+ * that do not depend on any variable are folded once, bottom-up, before the code is written.
+ */
+public class BytecodeCompiler {
+    private final Map<String, Integer> variables = new HashMap<>();
+    /** Values of the expression and condition trees that do not depend on any variable; a condition is 0 or 1. */
+    private final Map<ParseTree, Integer> constants = new IdentityHashMap<>();
+    private int[] code = new int[256];
+    private int length = 0;
+    private int nextTemporary;
+    private int registerCount;
+
+    /**
+     * Compiles a program.
+     *
+     * @param program the parse tree of the program.
+     * @return the compiled program.
+     * @throws IllegalStateException if the program needs more than {@link BytecodeProgram#MAX_REGISTERS}
+     *                               registers.
+     */
+    public BytecodeProgram compile(ParseTree program) {
+        // [1] <Program>  ->  begin <Code> end
+        // [2] <Code>  ->  <InstList>
+        // [3] <Code>  ->  EPSILON
+        collectVariables(program);
+        foldConstants(program);
+        registerCount = variables.size();
+        ParseTree instructionList = program.getChildren().get(1).getChildren().get(0);
+        if (instructionList.getLabel().isNonTerminal()) {
+            instructionList(instructionList);
+        }
+        emit(BytecodeProgram.HALT);
+        if (registerCount > BytecodeProgram.MAX_REGISTERS) {
+            throw new IllegalStateException("Program too large for the bytecode: " + registerCount + " registers");
+        }
+        return new BytecodeProgram(Arrays.copyOf(code, length), registerCount);
+    }
+
+    /**
+     * Gives a register to every variable, in the order of their first occurrence.
+     */
+    private void collectVariables(ParseTree program) {
+        Deque<ParseTree> pending = new ArrayDeque<>();
+        pending.push(program);
+        while (!pending.isEmpty()) {
+            ParseTree tree = pending.pop();
+            if (tree.getLabel().getType() == LexicalUnit.VARNAME) {
+                variables.putIfAbsent(tree.getLabel().getValue().toString(), variables.size());
+            }
+            List<ParseTree> children = tree.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Computes the value of every expression and condition tree that does not depend on any variable, like
+     * {@link ParseTree#constantExpr()} and {@link ParseTree#constantCond()} but from the values of its subtrees.
+     */
+    private void foldConstants(ParseTree program) {
+        List<ParseTree> preorder = new ArrayList<>();
+        Deque<ParseTree> pending = new ArrayDeque<>();
+        pending.push(program);
+        while (!pending.isEmpty()) {
+            ParseTree tree = pending.pop();
+            preorder.add(tree);
+            for (ParseTree child : tree.getChildren()) {
+                pending.push(child);
+            }
+        }
+        // the subtrees of a tree come after it in preorder
+        for (int i = preorder.size() - 1; i >= 0; i--) {
+            ParseTree tree = preorder.get(i);
+            if (!tree.getLabel().isNonTerminal()) {
+                continue;
+            }
+            List<ParseTree> children = tree.getChildren();
+            Integer value = switch (tree.getLabel().getNonTerminal()) {
+                // [14] <ExprArith>  ->  <Prod> <ExprArith'>
+                // [18] <Prod>  ->  <Atom> <Prod'>
+                // [29] <Cond>  ->  <Conj> <Cond'>
+                // [32] <Conj>  ->  <SimpleCond> <Conj'>
+                case ExprArith, Prod, Cond, Conj -> foldChain(children);
+                // [22] - [25] <Atom>  ->  - <Atom> | ( <ExprArith> ) | [Varname] | [Number]
+                case Atom -> switch (children.get(0).getLabel().getTerminal()) {
+                    case NUMBER -> (Integer) children.get(0).getLabel().getValue();
+                    case MINUS -> ParseTree.CONSTANT_EVALUATION.negate(constants.get(children.get(1)));
+                    case LPAREN -> constants.get(children.get(1));
+                    default -> null;
+                };
+                // [35] <SimpleCond>  ->  {<Cond>}
+                // [36] <SimpleCond>  ->  <ExprArith> <Comp> <ExprArith>
+                case SimpleCond -> children.get(0).getLabel().getTerminal() == LexicalUnit.LBRACK
+                        ? constants.get(children.get(1))
+                        : ParseTree.CONSTANT_EVALUATION.apply(children.get(1).compOp(),
+                                constants.get(children.get(0)), constants.get(children.get(2)));
+                default -> null;
+            };
+            if (value != null) {
+                constants.put(tree, value);
+            }
+        }
+    }
+
+    /**
+     * Folds the operands of an <ExprArith>, <Prod>, <Cond> or <Conj> from left to right.
+     */
+    private Integer foldChain(List<ParseTree> children) {
+        // [15] - [17] <ExprArith'>  ->  + <Prod> <ExprArith'> | - <Prod> <ExprArith'> | EPSILON
+        // [19] - [21] <Prod'>  ->  * <Atom> <Prod'> | / <Atom> <Prod'> | EPSILON
+        // [30] - [31] <Cond'>  ->  or <Conj> <Cond'> | EPSILON
+        // [33] - [34] <Conj'>  ->  and <SimpleCond> <Conj'> | EPSILON
+        Integer value = constants.get(children.get(0));
+        ParseTree tail = children.size() > 1 ? children.get(1) : null;
+        while (tail != null) {
+            IrOpcode opcode = switch (tail.getChildren().get(0).getLabel().getTerminal()) {
+                case PLUS -> IrOpcode.ADD;
+                case MINUS -> IrOpcode.SUB;
+                case TIMES -> IrOpcode.MUL;
+                case DIVIDE -> IrOpcode.SDIV;
+                case OR -> IrOpcode.OR;
+                case AND -> IrOpcode.AND;
+                default -> null;
+            };
+            if (opcode == null) {
+                break;
+            }
+            value = ParseTree.CONSTANT_EVALUATION.apply(opcode, value, constants.get(tail.getChildren().get(1)));
+            tail = tail.getChildren().size() > 2 ? tail.getChildren().get(2) : null;
+        }
+        return value;
+    }
+
+    private Boolean constantCond(ParseTree cond) {
+        Integer value = constants.get(cond);
+        return value == null ? null : value != 0;
+    }
+
+    private int variable(ParseTree varName) {
+        return variables.get(varName.getLabel().getValue().toString());
+    }
+
+    private int temporary() {
+        int register = variables.size() + nextTemporary++;
+        registerCount = Math.max(registerCount, register + 1);
+        return register;
+    }
+
+    // statements
+
+    private void instructionList(ParseTree tree) {
+        // [4] <InstList>  ->  <Instruction><InstListTail>
+        // [5] <InstListTail>  ->  ...<Instruction><InstListTail>
+        // [6] <InstListTail>  ->  EPSILON
+        instruction(tree.getChildren().get(0));
+        ParseTree tail = tree.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.DOTS) {
+            instruction(tail.getChildren().get(1));
+            tail = tail.getChildren().get(2);
+        }
+    }
+
+    private void instruction(ParseTree tree) {
+        // [7] - [11] <Instruction>  ->  <Assign> | <If> | <While> | <Print> | <Read>
+        // [12] <Instruction>  ->  begin <InstList> end
+        nextTemporary = 0;
+        ParseTree first = tree.getChildren().get(0);
+        if (!first.getLabel().isNonTerminal()) {
+            instructionList(tree.getChildren().get(1));
+            return;
+        }
+        List<ParseTree> children = first.getChildren();
+        switch (first.getLabel().getNonTerminal()) {
+            // [13] <Assign>  ->  [Varname] := <ExprArith>
+            case Assign -> expression(children.get(2), variable(children.get(0)));
+            case If -> ifStatement(children);
+            case While -> whileStatement(children);
+            // [40] <Print>  ->  print([VarName])
+            case Print -> emit(BytecodeProgram.PRINT, variable(children.get(2)), 0, 0);
+            // [41] <Read>  ->  read([VarName])
+            case Read -> emit(BytecodeProgram.READ, variable(children.get(2)), 0, 0);
+            default -> throw new RuntimeException("Error in instruction");
+        }
+    }
+
+    private void ifStatement(List<ParseTree> children) {
+        // [26] <If>  -> if <Cond> then <Instruction> else <IfTail>
+        // [27] <IfTail>  ->  <Instruction>
+        // [28] <IfTail>  ->  EPSILON
+        ParseTree ifTail = children.get(5);
+        ParseTree elseInstruction = ifTail.getLabel().isNonTerminal() && !ifTail.getChildren().isEmpty()
+                && ifTail.getChildren().get(0).getLabel().isNonTerminal() ? ifTail.getChildren().get(0) : null;
+        Boolean knownCond = constantCond(children.get(1));
+        if (knownCond != null) {
+            if (knownCond) {
+                instruction(children.get(3));
+            } else if (elseInstruction != null) {
+                instruction(elseInstruction);
+            }
+            return;
+        }
+        Jumps elseJumps = new Jumps();
+        jumpIfFalse(children.get(1), elseJumps);
+        instruction(children.get(3));
+        if (elseInstruction != null) {
+            Jumps endJumps = new Jumps();
+            endJumps.add(emitJump(BytecodeProgram.JUMP, 0, 0));
+            elseJumps.patch(length);
+            instruction(elseInstruction);
+            endJumps.patch(length);
+        } else {
+            elseJumps.patch(length);
+        }
+    }
+
+    private void whileStatement(List<ParseTree> children) {
+        // [39] <While>  ->  while <Cond> do <Instruction>
+        Boolean knownCond = constantCond(children.get(1));
+        if (knownCond == Boolean.FALSE) {
+            return;
+        }
+        Jumps conditionJumps = new Jumps();
+        if (knownCond == null) {
+            conditionJumps.add(emitJump(BytecodeProgram.JUMP, 0, 0));
+        }
+        int body = length;
+        instruction(children.get(3));
+        conditionJumps.patch(length);
+        nextTemporary = 0;
+        if (knownCond == null) {
+            Jumps bodyJumps = new Jumps();
+            jumpIfTrue(children.get(1), bodyJumps);
+            bodyJumps.patch(body);
+        } else {
+            code[emitJump(BytecodeProgram.JUMP, 0, 0)] = body;
+        }
+    }
+
+    // conditions
+
+    /**
+     * Jumps that go to the same place, which is only known once the code in between is written.
+     */
+    private class Jumps {
+        private int[] targets = new int[4];
+        private int count = 0;
+
+        void add(int target) {
+            if (count == targets.length) {
+                targets = Arrays.copyOf(targets, 2 * count);
+            }
+            targets[count++] = target;
+        }
+
+        void patch(int destination) {
+            for (int i = 0; i < count; i++) {
+                code[targets[i]] = destination;
+            }
+        }
+    }
+
+    private void jumpIfFalse(ParseTree cond, Jumps falseJumps) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        // [30] <Cond'>  ->  or <Conj> <Cond'>
+        // every operand but the last one jumps to the true code when it holds
+        Jumps trueJumps = new Jumps();
+        ParseTree conj = cond.getChildren().get(0);
+        ParseTree tail = cond.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.OR) {
+            conjJumpIfTrue(conj, trueJumps);
+            conj = tail.getChildren().get(1);
+            tail = tail.getChildren().get(2);
+        }
+        conjJumpIfFalse(conj, falseJumps);
+        trueJumps.patch(length);
+    }
+
+    private void jumpIfTrue(ParseTree cond, Jumps trueJumps) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        // [30] <Cond'>  ->  or <Conj> <Cond'>
+        ParseTree conj = cond.getChildren().get(0);
+        ParseTree tail = cond.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.OR) {
+            conjJumpIfTrue(conj, trueJumps);
+            conj = tail.getChildren().get(1);
+            tail = tail.getChildren().get(2);
+        }
+        conjJumpIfTrue(conj, trueJumps);
+    }
+
+    private void conjJumpIfFalse(ParseTree conj, Jumps falseJumps) {
+        // [32] <Conj>  ->  <SimpleCond> <Conj'>
+        // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
+        ParseTree simpleCond = conj.getChildren().get(0);
+        ParseTree tail = conj.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.AND) {
+            simpleCondJump(simpleCond, false, falseJumps);
+            simpleCond = tail.getChildren().get(1);
+            tail = tail.getChildren().get(2);
+        }
+        simpleCondJump(simpleCond, false, falseJumps);
+    }
+
+    private void conjJumpIfTrue(ParseTree conj, Jumps trueJumps) {
+        // [32] <Conj>  ->  <SimpleCond> <Conj'>
+        // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
+        // every operand but the last one jumps over the chain when it does not hold
+        Jumps falseJumps = new Jumps();
+        ParseTree simpleCond = conj.getChildren().get(0);
+        ParseTree tail = conj.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.AND) {
+            simpleCondJump(simpleCond, false, falseJumps);
+            simpleCond = tail.getChildren().get(1);
+            tail = tail.getChildren().get(2);
+        }
+        simpleCondJump(simpleCond, true, trueJumps);
+        falseJumps.patch(length);
+    }
+
+    private void simpleCondJump(ParseTree simpleCond, boolean jumpIfTrue, Jumps jumps) {
+        // [35] <SimpleCond>  ->  {<Cond>}
+        // [36] <SimpleCond>  ->  <ExprArith> <Comp> <ExprArith>
+        List<ParseTree> children = simpleCond.getChildren();
+        if (children.get(0).getLabel().getTerminal() == LexicalUnit.LBRACK) {
+            if (jumpIfTrue) {
+                jumpIfTrue(children.get(1), jumps);
+            } else {
+                jumpIfFalse(children.get(1), jumps);
+            }
+            return;
+        }
+        Boolean known = constantCond(simpleCond);
+        if (known != null) {
+            if (known == jumpIfTrue) {
+                jumps.add(emitJump(BytecodeProgram.JUMP, 0, 0));
+            }
+            return;
+        }
+        boolean isEqual = children.get(1).compOp() == IrOpcode.ICMP_EQ;
+        int mark = nextTemporary;
+        int left = operand(children.get(0));
+        Integer constant = constants.get(children.get(2));
+        if (constant != null) {
+            int opcode = isEqual
+                    ? (jumpIfTrue ? BytecodeProgram.JUMP_IF_EQUAL_CONST : BytecodeProgram.JUMP_IF_NOT_EQUAL_CONST)
+                    : (jumpIfTrue ? BytecodeProgram.JUMP_IF_LESS_CONST : BytecodeProgram.JUMP_IF_NOT_LESS_CONST);
+            emit(opcode, left, 0, 0);
+            word(constant);
+            jumps.add(length);
+            word(0);
+        } else {
+            int right = operand(children.get(2));
+            int opcode = isEqual
+                    ? (jumpIfTrue ? BytecodeProgram.JUMP_IF_EQUAL : BytecodeProgram.JUMP_IF_NOT_EQUAL)
+                    : (jumpIfTrue ? BytecodeProgram.JUMP_IF_LESS : BytecodeProgram.JUMP_IF_NOT_LESS);
+            jumps.add(emitJump(opcode, left, right));
+        }
+        nextTemporary = mark;
+    }
+
+    // expressions
+
+    /**
+     * Returns the register holding the value of an expression: the register of its variable if it is one,
+     * otherwise a temporary it is computed into.
+     */
+    private int operand(ParseTree tree) {
+        int register = variableOf(tree);
+        if (register < 0) {
+            register = temporary();
+            expression(tree, register);
+        }
+        return register;
+    }
+
+    /**
+     * Returns the register of the variable an <ExprArith>, <Prod> or <Atom> is made of, or -1.
+     */
+    private int variableOf(ParseTree tree) {
+        while (true) {
+            List<ParseTree> children = tree.getChildren();
+            if (tree.getLabel().getNonTerminal() != NonTerminal.Atom) {
+                if (children.get(1).getChildren().get(0).getLabel().getTerminal() != LexicalUnit.EPSILON) {
+                    return -1;
+                }
+                tree = children.get(0);
+            } else if (children.get(0).getLabel().getTerminal() == LexicalUnit.VARNAME) {
+                return variable(children.get(0));
+            } else if (children.get(0).getLabel().getTerminal() == LexicalUnit.LPAREN) {
+                tree = children.get(1);
+            } else {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Computes an <ExprArith>, <Prod> or <Atom> into a register. Only the last instruction writes the register, so
+     * it may be a variable the expression reads.
+     */
+    private void expression(ParseTree tree, int destination) {
+        Integer value = constants.get(tree);
+        if (value != null) {
+            emit(BytecodeProgram.CONST, destination, 0, 0);
+            word(value);
+            return;
+        }
+        int mark = nextTemporary;
+        List<ParseTree> children = tree.getChildren();
+        if (tree.getLabel().getNonTerminal() == NonTerminal.Atom) {
+            // [22] <Atom>  ->  - <Atom>
+            // [23] <Atom>  ->  ( <ExprArith> )
+            // [24] <Atom>  ->  [Varname]
+            switch (children.get(0).getLabel().getTerminal()) {
+                case MINUS -> emit(BytecodeProgram.NEG, destination, operand(children.get(1)), 0);
+                case VARNAME -> emit(BytecodeProgram.MOVE, destination, variable(children.get(0)), 0);
+                default -> expression(children.get(1), destination);
+            }
+            nextTemporary = mark;
+            return;
+        }
+        // [14] <ExprArith>  ->  <Prod> <ExprArith'>
+        // [15] - [17] <ExprArith'>  ->  + <Prod> <ExprArith'> | - <Prod> <ExprArith'> | EPSILON
+        // [18] <Prod>  ->  <Atom> <Prod'>
+        // [19] - [21] <Prod'>  ->  * <Atom> <Prod'> | / <Atom> <Prod'> | EPSILON
+        ParseTree tail = children.get(1);
+        if (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.EPSILON) {
+            expression(children.get(0), destination);
+            return;
+        }
+        int left = operand(children.get(0));
+        int accumulator = -1;
+        while (tail.getChildren().get(0).getLabel().getTerminal() != LexicalUnit.EPSILON) {
+            LexicalUnit lu = tail.getChildren().get(0).getLabel().getTerminal();
+            ParseTree right = tail.getChildren().get(1);
+            tail = tail.getChildren().get(2);
+            boolean isLast = tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.EPSILON;
+            int target = destination;
+            if (!isLast) {
+                if (accumulator < 0) {
+                    accumulator = temporary();
+                }
+                target = accumulator;
+            }
+            Integer constant = constants.get(right);
+            if (constant != null) {
+                int opcode = switch (lu) {
+                    case PLUS, MINUS -> BytecodeProgram.ADD_CONST;
+                    case TIMES -> BytecodeProgram.MUL_CONST;
+                    default -> BytecodeProgram.DIV_CONST;
+                };
+                emit(opcode, target, left, 0);
+                word(lu == LexicalUnit.MINUS ? -constant : constant);
+            } else {
+                int opcode = switch (lu) {
+                    case PLUS -> BytecodeProgram.ADD;
+                    case MINUS -> BytecodeProgram.SUB;
+                    case TIMES -> BytecodeProgram.MUL;
+                    default -> BytecodeProgram.DIV;
+                };
+                emit(opcode, target, left, operand(right));
+            }
+            left = target;
+        }
+        nextTemporary = mark;
+    }
+
+    // code
+
+    private void emit(int opcode, int a, int b, int c) {
+        word(opcode | a << 8 | b << 16 | c << 24);
+    }
+
+    private void emit(int opcode) {
+        emit(opcode, 0, 0, 0);
+    }
+
+    /**
+     * Writes a jump and returns the position of its target word.
+     */
+    private int emitJump(int opcode, int a, int b) {
+        emit(opcode, a, b, 0);
+        word(0);
+        return length - 1;
+    }
+
+    private void word(int word) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, 2 * length);
+        }
+        code[length++] = word;
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A PMP program compiled by {@link BytecodeCompiler} to register bytecode, and the virtual machine running it.
+ *
+ * The code is an int[] of 32-bit words. The low byte of an instruction word is its opcode and the three other
+ * bytes are register numbers: the destination first, then the operands. Some instructions are followed by extra
+ * words holding an immediate value or the index of a jump target. Variables live in the first registers and
+ * temporaries in the following ones, so there are at most 256 of them.
+ *
+ * The comparisons of conditions are fused with their branch, and an operation with a constant operand takes a
+ * single instruction, so that a typical loop iteration executes few instructions. A program is saved as the magic
+ * number "PMPB", a format version, the number of registers, the number of words and the words, all big-endian.
+ */
+public class BytecodeProgram implements PmpProgram {
+    /** r[a] = next word. */
+    public static final int CONST = 0;
+    /** r[a] = r[b]. */
+    public static final int MOVE = 1;
+    /** r[a] = -r[b]. */
+    public static final int NEG = 2;
+    /** r[a] = r[b] + r[c]. */
+    public static final int ADD = 3;
+    /** r[a] = r[b] - r[c]. */
+    public static final int SUB = 4;
+    /** r[a] = r[b] * r[c]. */
+    public static final int MUL = 5;
+    /** r[a] = r[b] / r[c]. */
+    public static final int DIV = 6;
+    /** r[a] = r[b] + next word. */
+    public static final int ADD_CONST = 7;
+    /** r[a] = r[b] * next word. */
+    public static final int MUL_CONST = 8;
+    /** r[a] = r[b] / next word. */
+    public static final int DIV_CONST = 9;
+    /** Jumps to the next word. */
+    public static final int JUMP = 10;
+    /** Jumps to the next word if r[a] == r[b]. */
+    public static final int JUMP_IF_EQUAL = 11;
+    /** Jumps to the next word if r[a] != r[b]. */
+    public static final int JUMP_IF_NOT_EQUAL = 12;
+    /** Jumps to the next word if r[a] &lt; r[b]. */
+    public static final int JUMP_IF_LESS = 13;
+    /** Jumps to the next word if r[a] &gt;= r[b]. */
+    public static final int JUMP_IF_NOT_LESS = 14;
+    /** Jumps to the word after next if r[a] == next word. */
+    public static final int JUMP_IF_EQUAL_CONST = 15;
+    /** Jumps to the word after next if r[a] != next word. */
+    public static final int JUMP_IF_NOT_EQUAL_CONST = 16;
+    /** Jumps to the word after next if r[a] &lt; next word. */
+    public static final int JUMP_IF_LESS_CONST = 17;
+    /** Jumps to the word after next if r[a] &gt;= next word. */
+    public static final int JUMP_IF_NOT_LESS_CONST = 18;
+    /** r[a] = the next integer read. */
+    public static final int READ = 19;
+    /** Prints r[a]. */
+    public static final int PRINT = 20;
+    /** Stops the program. */
+    public static final int HALT = 21;
+
+    /** Maximum number of registers, limited by the width of register operands. */
+    public static final int MAX_REGISTERS = 256;
+
+    private static final int MAGIC = 0x504D5042; // "PMPB"
+    private static final int VERSION = 1;
+
+    private final int[] code;
+    private final int registerCount;
+
+    /**
+     * Creates a program.
+     *
+     * @param code the code.
+     * @param registerCount the number of registers it uses.
+     */
+    public BytecodeProgram(int[] code, int registerCount) {
+        this.code = code;
+        this.registerCount = registerCount;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    @Override
+    public void run(IntSupplier in, IntConsumer out) {
+        int[] code = this.code;
+        int[] r = new int[registerCount];
+        int pc = 0;
+        while (true) {
+            int word = code[pc];
+            int a = (word >>> 8) & 0xFF;
+            switch (word & 0xFF) {
+                case CONST -> {
+                    r[a] = code[pc + 1];
+                    pc += 2;
+                }
+                case MOVE -> {
+                    r[a] = r[(word >>> 16) & 0xFF];
+                    pc++;
+                }
+                case NEG -> {
+                    r[a] = -r[(word >>> 16) & 0xFF];
+                    pc++;
+                }
+                case ADD -> {
+                    r[a] = r[(word >>> 16) & 0xFF] + r[word >>> 24];
+                    pc++;
+                }
+                case SUB -> {
+                    r[a] = r[(word >>> 16) & 0xFF] - r[word >>> 24];
+                    pc++;
+                }
+                case MUL -> {
+                    r[a] = r[(word >>> 16) & 0xFF] * r[word >>> 24];
+                    pc++;
+                }
+                case DIV -> {
+                    r[a] = r[(word >>> 16) & 0xFF] / r[word >>> 24];
+                    pc++;
+                }
+                case ADD_CONST -> {
+                    r[a] = r[(word >>> 16) & 0xFF] + code[pc + 1];
+                    pc += 2;
+                }
+                case MUL_CONST -> {
+                    r[a] = r[(word >>> 16) & 0xFF] * code[pc + 1];
+                    pc += 2;
+                }
+                case DIV_CONST -> {
+                    r[a] = r[(word >>> 16) & 0xFF] / code[pc + 1];
+                    pc += 2;
+                }
+                case JUMP -> pc = code[pc + 1];
+                case JUMP_IF_EQUAL -> pc = r[a] == r[(word >>> 16) & 0xFF] ? code[pc + 1] : pc + 2;
+                case JUMP_IF_NOT_EQUAL -> pc = r[a] != r[(word >>> 16) & 0xFF] ? code[pc + 1] : pc + 2;
+                case JUMP_IF_LESS -> pc = r[a] < r[(word >>> 16) & 0xFF] ? code[pc + 1] : pc + 2;
+                case JUMP_IF_NOT_LESS -> pc = r[a] >= r[(word >>> 16) & 0xFF] ? code[pc + 1] : pc + 2;
+                case JUMP_IF_EQUAL_CONST -> pc = r[a] == code[pc + 1] ? code[pc + 2] : pc + 3;
+                case JUMP_IF_NOT_EQUAL_CONST -> pc = r[a] != code[pc + 1] ? code[pc + 2] : pc + 3;
+                case JUMP_IF_LESS_CONST -> pc = r[a] < code[pc + 1] ? code[pc + 2] : pc + 3;
+                case JUMP_IF_NOT_LESS_CONST -> pc = r[a] >= code[pc + 1] ? code[pc + 2] : pc + 3;
+                case READ -> {
+                    r[a] = in.getAsInt();
+                    pc++;
+                }
+                case PRINT -> {
+                    out.accept(r[a]);
+                    pc++;
+                }
+                case HALT -> {
+                    return;
+                }
+                default -> throw new IllegalStateException("Invalid opcode " + (word & 0xFF) + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of words of an instruction.
+     *
+     * @param opcode the opcode of the instruction.
+     * @return 1, 2 or 3.
+     */
+    public static int length(int opcode) {
+        return switch (opcode) {
+            case CONST, ADD_CONST, MUL_CONST, DIV_CONST, JUMP,
+                    JUMP_IF_EQUAL, JUMP_IF_NOT_EQUAL, JUMP_IF_LESS, JUMP_IF_NOT_LESS -> 2;
+            case JUMP_IF_EQUAL_CONST, JUMP_IF_NOT_EQUAL_CONST, JUMP_IF_LESS_CONST, JUMP_IF_NOT_LESS_CONST -> 3;
+            default -> 1;
+        };
+    }
+
+    /**
+     * Saves the program.
+     *
+     * @param output the stream to write to; it is not closed.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(registerCount);
+        data.writeInt(code.length);
+        for (int word : code) {
+            data.writeInt(word);
+        }
+        data.flush();
+    }
+
+    /**
+     * Loads a program saved by {@link #write(OutputStream)}.
+     *
+     * @param input the stream to read from; it is not closed.
+     * @return the program.
+     * @throws IOException if the stream cannot be read or does not hold a valid program.
+     */
+    public static BytecodeProgram read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a PMP bytecode file");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported PMP bytecode version " + version);
+        }
+        int registerCount = data.readInt();
+        int length = data.readInt();
+        if (registerCount < 0 || registerCount > MAX_REGISTERS || length <= 0) {
+            throw new IOException("Invalid PMP bytecode header");
+        }
+        int[] code = new int[length];
+        for (int i = 0; i < length; i++) {
+            code[i] = data.readInt();
+        }
+        BytecodeProgram program = new BytecodeProgram(code, registerCount);
+        program.verify();
+        return program;
+    }
+
+    /**
+     * Checks that every instruction is complete, uses existing registers and jumps to the start of an instruction,
+     * and that the code ends with a jump or {@link #HALT}.
+     */
+    private void verify() throws IOException {
+        boolean[] starts = new boolean[code.length + 1];
+        int pc = 0;
+        int opcode = HALT;
+        while (pc < code.length) {
+            starts[pc] = true;
+            opcode = code[pc] & 0xFF;
+            if (opcode > HALT || pc + length(opcode) > code.length) {
+                throw new IOException("Invalid PMP bytecode instruction at " + pc);
+            }
+            for (int shift = 8; shift < 32; shift += 8) {
+                if ((code[pc] >>> shift & 0xFF) >= Math.max(registerCount, 1)) {
+                    throw new IOException("Invalid PMP bytecode register at " + pc);
+                }
+            }
+            pc += length(opcode);
+        }
+        if (opcode != HALT && opcode != JUMP) {
+            throw new IOException("PMP bytecode does not end with halt");
+        }
+        for (pc = 0; pc < code.length; pc += length(code[pc] & 0xFF)) {
+            opcode = code[pc] & 0xFF;
+            if (opcode >= JUMP && opcode <= JUMP_IF_NOT_LESS_CONST) {
+                int target = code[pc + length(opcode) - 1];
+                if (target < 0 || target >= code.length || !starts[target]) {
+                    throw new IOException("Invalid PMP bytecode jump at " + pc);
+                }
+            }
+        }
+    }
+}
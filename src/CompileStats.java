@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Statistics of the compilation of a file, or the sum of the statistics of several files: the wall time and the
+ * bytes allocated by the compiling thread in every phase, and the size of the program at every stage.
+ *
+ * A phase is measured between {@link #start()} and {@link #end(Phase)}. The allocated bytes come from
+ * {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()} and are -1 when the JVM does not count
+ * them; the threads of <code>--parallel-codegen</code> are not counted.
+ */
+public class CompileStats {
+    /**
+     * The phases of a compilation, in order.
+     */
+    public enum Phase {
+        READ, LEX, PARSE, CODEGEN, WRITE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final String name;
+    private int files;
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] allocatedBytes = new long[PHASES.length];
+    private long sourceLines;
+    private long tokens;
+    private long nodes;
+    private int maxDepth;
+    private long irLines;
+    private long irBytes;
+
+    private long phaseStart;
+    private long phaseAllocatedStart;
+
+    /**
+     * Creates empty statistics.
+     *
+     * @param name the file compiled, or a name for the sum of several files.
+     */
+    public CompileStats(String name) {
+        this.name = name;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Starts measuring a phase.
+     */
+    public void start() {
+        phaseAllocatedStart = allocatedBytes();
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the phase started by the last call to {@link #start()}, adding its time and allocations to the phase.
+     *
+     * @param phase the phase measured.
+     */
+    public void end(Phase phase) {
+        nanos[phase.ordinal()] += System.nanoTime() - phaseStart;
+        long allocated = allocatedBytes();
+        if (allocated >= 0 && allocatedBytes[phase.ordinal()] >= 0) {
+            allocatedBytes[phase.ordinal()] += allocated - phaseAllocatedStart;
+        } else {
+            allocatedBytes[phase.ordinal()] = -1;
+        }
+        files = Math.max(files, 1);
+    }
+
+    /**
+     * Records the size of the source.
+     *
+     * @param source the content of the file.
+     * @param tokens the number of tokens, end of stream included.
+     */
+    public void countSource(String source, int tokens) {
+        long lines = source.isEmpty() || source.endsWith("\n") ? 0 : 1;
+        for (int i = source.indexOf('\n'); i >= 0; i = source.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        this.sourceLines += lines;
+        this.tokens += tokens;
+    }
+
+    /**
+     * Records the number of nodes and the depth of a parse tree, walked without recursion.
+     *
+     * @param tree the parse tree.
+     */
+    public void countTree(ParseTree tree) {
+        ArrayDeque<ParseTree> work = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        work.push(tree);
+        depths.push(1);
+        while (!work.isEmpty()) {
+            ParseTree node = work.pop();
+            int depth = depths.pop();
+            nodes++;
+            maxDepth = Math.max(maxDepth, depth);
+            for (ParseTree child : node.getChildren()) {
+                work.push(child);
+                depths.push(depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Wraps the channel the IR is written to, so that its lines and bytes are counted.
+     *
+     * @param channel the channel written to.
+     * @return a channel writing to it and counting what goes through.
+     */
+    public WritableByteChannel countIr(WritableByteChannel channel) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                int start = source.position();
+                int written = channel.write(source);
+                for (int i = start; i < start + written; i++) {
+                    if (source.get(i) == '\n') {
+                        irLines++;
+                    }
+                }
+                irBytes += written;
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Adds the statistics of another compilation to these ones.
+     *
+     * @param other the statistics added.
+     */
+    public void add(CompileStats other) {
+        files += other.files;
+        for (int i = 0; i < PHASES.length; i++) {
+            nanos[i] += other.nanos[i];
+            allocatedBytes[i] = allocatedBytes[i] < 0 || other.allocatedBytes[i] < 0 ? -1
+                    : allocatedBytes[i] + other.allocatedBytes[i];
+        }
+        sourceLines += other.sourceLines;
+        tokens += other.tokens;
+        nodes += other.nodes;
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        irLines += other.irLines;
+        irBytes += other.irBytes;
+    }
+
+    private long totalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return total;
+    }
+
+    private long totalAllocatedBytes() {
+        long total = 0;
+        for (long phaseBytes : allocatedBytes) {
+            if (phaseBytes < 0) {
+                return -1;
+            }
+            total += phaseBytes;
+        }
+        return total;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the statistics as a table.
+     *
+     * @return a human-readable report.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder("Compile statistics for " + name
+                + (files > 1 ? " (" + files + " files)" : "") + ":\n");
+        for (Phase phase : PHASES) {
+            report.append(String.format("  %-8s %10.3f ms  %12s%n", phase.name().toLowerCase(),
+                    nanos[phase.ordinal()] / 1e6, formatBytes(allocatedBytes[phase.ordinal()])));
+        }
+        long total = totalNanos();
+        report.append(String.format("  %-8s %10.3f ms  %12s%n", "total", total / 1e6,
+                formatBytes(totalAllocatedBytes())));
+        report.append(String.format("  %d source lines, %d tokens, %d parse tree nodes (depth %d), "
+                + "%d IR lines (%d bytes)%n", sourceLines, tokens, nodes, maxDepth, irLines, irBytes));
+        report.append(String.format("  %.0f tokens/s, %.0f lines/s%n", perSecond(tokens, total),
+                perSecond(sourceLines, total)));
+        return report.toString();
+    }
+
+    private static String formatBytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f KB", bytes / 1024.0);
+    }
+
+    /**
+     * Returns the statistics as a JSON object, with times in nanoseconds.
+     *
+     * @return the JSON text, on one line.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"name\": \"");
+        for (char c : name.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append("\", \"files\": ").append(files).append(", \"phases\": {");
+        for (Phase phase : PHASES) {
+            json.append(phase.ordinal() == 0 ? "" : ", ").append('"').append(phase.name().toLowerCase())
+                    .append("\": {\"nanos\": ").append(nanos[phase.ordinal()])
+                    .append(", \"allocatedBytes\": ").append(allocatedBytes[phase.ordinal()]).append('}');
+        }
+        long total = totalNanos();
+        json.append("}, \"totalNanos\": ").append(total)
+                .append(", \"totalAllocatedBytes\": ").append(totalAllocatedBytes())
+                .append(", \"sourceLines\": ").append(sourceLines)
+                .append(", \"tokens\": ").append(tokens)
+                .append(", \"nodes\": ").append(nodes)
+                .append(", \"maxDepth\": ").append(maxDepth)
+                .append(", \"irLines\": ").append(irLines)
+                .append(", \"irBytes\": ").append(irBytes)
+                .append(String.format(Locale.ROOT, ", \"tokensPerSecond\": %.1f", perSecond(tokens, total)))
+                .append(String.format(Locale.ROOT, ", \"linesPerSecond\": %.1f}", perSecond(sourceLines, total)));
+        return json.toString();
+    }
+}
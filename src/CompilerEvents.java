@@ -0,0 +1,184 @@
+import java.io.File;
+import java.util.ArrayDeque;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the compiler: one for the compilation of a file, and one for each of its phases
+ * (lexing, parsing, IR generation and the writing of an output file).
+ *
+ * An event is created and begun before its phase and finished after it, successfully or not. The counts it carries
+ * are only computed when the event is recorded, so the events cost next to nothing when the recorder is not running
+ * or does not enable them (see <code>jfr/compiler.jfc</code>). Every event carries the file being compiled by its
+ * thread, set by {@link #setFile(String)}.
+ */
+public class CompilerEvents {
+    private static final ThreadLocal<String> FILE = new ThreadLocal<>();
+
+    /**
+     * Sets the file compiled by the current thread, stored in the events it emits.
+     *
+     * @param fileName the path of the file, or null once it is compiled.
+     */
+    public static void setFile(String fileName) {
+        if (fileName == null) {
+            FILE.remove();
+        } else {
+            FILE.set(fileName);
+        }
+    }
+
+    /**
+     * Fields common to the events of the compiler.
+     */
+    @Category("PMP Compiler")
+    @StackTrace(false)
+    abstract static class CompilerEvent extends Event {
+        @Label("File")
+        String fileName;
+
+        @Label("Failed")
+        boolean failed;
+
+        @Label("Error")
+        String error;
+    }
+
+    /**
+     * Ends an event and fills its common fields if it is to be committed. This is not a method of the events
+     * themselves: the flight recorder of JDK 17 cannot instrument an abstract event class with such a method.
+     *
+     * @param event the event.
+     * @param failure the exception that stopped the phase, or null if it succeeded.
+     * @return whether the event is to be committed.
+     */
+    private static boolean prepare(CompilerEvent event, Throwable failure) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return false;
+        }
+        event.fileName = FILE.get();
+        event.failed = failure != null;
+        event.error = failure == null ? null : failure.toString();
+        return true;
+    }
+
+    @Name("pmp.FileCompile")
+    @Label("Compile File")
+    @Description("Compilation of a source file, from reading it to writing the outputs")
+    public static class FileCompile extends CompilerEvent {
+        @Label("Source Size")
+        @DataAmount
+        long sourceBytes;
+
+        public void finish(File source, Throwable failure) {
+            if (prepare(this, failure)) {
+                sourceBytes = source.length();
+                commit();
+            }
+        }
+    }
+
+    @Name("pmp.Lex")
+    @Label("Lex")
+    @Description("Lexing of a whole source file before it is parsed")
+    public static class Lex extends CompilerEvent {
+        @Label("Tokens")
+        int tokens;
+
+        public void finish(int tokens, Throwable failure) {
+            if (prepare(this, failure)) {
+                this.tokens = tokens;
+                commit();
+            }
+        }
+    }
+
+    @Name("pmp.Parse")
+    @Label("Parse")
+    @Description("Parsing of a source file, including its lexing unless the tokens were lexed beforehand")
+    public static class Parse extends CompilerEvent {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Parse Tree Nodes")
+        long nodes;
+
+        public void finish(int tokens, ParseTree tree, Throwable failure) {
+            if (prepare(this, failure)) {
+                this.tokens = tokens;
+                this.nodes = tree == null ? 0 : countNodes(tree);
+                commit();
+            }
+        }
+    }
+
+    @Name("pmp.Codegen")
+    @Label("Generate IR")
+    @Description("Generation of the intermediate representation from the parse tree")
+    public static class Codegen extends CompilerEvent {
+        @Label("Threads")
+        int threads;
+
+        @Label("Instructions")
+        int instructions;
+
+        @Label("Blocks")
+        int blocks;
+
+        public void finish(int threads, IrFunction function, Throwable failure) {
+            if (prepare(this, failure)) {
+                this.threads = threads;
+                if (function != null) {
+                    instructions = function.size();
+                    blocks = function.getBlocks().size();
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("pmp.Write")
+    @Label("Write Output")
+    @Description("Writing of an output file of the compilation")
+    public static class Write extends CompilerEvent {
+        @Label("Output")
+        String output;
+
+        @Label("Format")
+        String format;
+
+        @Label("Output Size")
+        @DataAmount
+        long bytes;
+
+        public void finish(File output, String format, Throwable failure) {
+            if (prepare(this, failure)) {
+                this.output = output.getPath();
+                this.format = format;
+                this.bytes = output.length();
+                commit();
+            }
+        }
+    }
+
+    private static long countNodes(ParseTree tree) {
+        long nodes = 0;
+        ArrayDeque<ParseTree> work = new ArrayDeque<>();
+        work.push(tree);
+        while (!work.isEmpty()) {
+            ParseTree node = work.pop();
+            nodes++;
+            for (ParseTree child : node.getChildren()) {
+                work.push(child);
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Propagates constants into their uses and evaluates instructions whose operands are all constants.
+ *
+ * CONST instructions are replaced by immediate operands, so <code>x := 2*3+1</code> becomes a single store of 7.
+ * Divisions by zero are left alone so that they still trap at run time. The instructions made useless are
+ * removed by {@link DeadCodeElimination}.
+ */
+public class ConstantFolding implements IrPass {
+    private int foldedInstructions = 0;
+
+    @Override
+    public String getName() {
+        return "constant-folding";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        int[] replacements = new int[function.getValueCount() + 1];
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IrOpcode opcode = function.getOpcode(instruction);
+                int a = function.getA(instruction);
+                int b = function.getB(instruction);
+                if (IrFunction.usesValueA(opcode)) {
+                    a = IrFunction.resolve(replacements, a);
+                }
+                if (IrFunction.usesValueB(opcode)) {
+                    b = IrFunction.resolve(replacements, b);
+                }
+                Integer folded = null;
+                if (opcode == IrOpcode.CONST) {
+                    folded = function.constantValue(a);
+                } else if (opcode == IrOpcode.NEG && IrFunction.isConstant(a)) {
+                    folded = -function.constantValue(a);
+                } else if (opcode.hasResult() && IrFunction.usesValueB(opcode)
+                        && IrFunction.isConstant(a) && IrFunction.isConstant(b)) {
+                    folded = evaluate(opcode, function.constantValue(a), function.constantValue(b));
+                }
+                if (folded != null) {
+                    replacements[function.getResult(instruction)] = function.constant(folded);
+                    foldedInstructions++;
+                }
+            }
+        }
+        function.replaceUses(replacements);
+        DeadCodeElimination.removeUnused(function, null);
+    }
+
+    /**
+     * Evaluates a binary instruction on constants, with the wrap-around semantics of i32.
+     *
+     * @param opcode a binary opcode.
+     * @param a the first operand.
+     * @param b the second operand.
+     * @return the result (0 or 1 for booleans), or null if it cannot be known at compile time.
+     */
+    static Integer evaluate(IrOpcode opcode, int a, int b) {
+        return switch (opcode) {
+            case ADD -> a + b;
+            case SUB -> a - b;
+            case MUL -> a * b;
+            case SDIV -> b == 0 || (a == Integer.MIN_VALUE && b == -1) ? null : a / b;
+            case ICMP_EQ -> a == b ? 1 : 0;
+            case ICMP_SLT -> a < b ? 1 : 0;
+            case AND -> a & b;
+            case OR -> a | b;
+            default -> null;
+        };
+    }
+
+    public int getFoldedInstructions() {
+        return foldedInstructions;
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+/**
+ * Removes the instructions whose result is never used and that have no other effect.
+ *
+ * Divisions are only removed when their divisor is a non-zero constant, as they may trap otherwise.
+ */
+public class DeadCodeElimination implements IrPass {
+    private int removedInstructions = 0;
+
+    @Override
+    public String getName() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        removedInstructions += removeUnused(function, null);
+    }
+
+    /**
+     * Removes unused side-effect free instructions until none is left.
+     *
+     * The unused instructions are found with a worklist, removing one releasing its operands, and every block is
+     * then compacted once.
+     *
+     * @param function the function.
+     * @param only the only opcode to remove, or null to remove any removable instruction.
+     * @return the number of removed instructions.
+     */
+    static int removeUnused(IrFunction function, IrOpcode only) {
+        int[] uses = countUses(function);
+        int[] definitions = new int[function.getValueCount() + 1];
+        Arrays.fill(definitions, -1);
+        // every value is pushed at most once, when its last use goes away
+        int[] worklist = new int[function.getValueCount() + 1];
+        int pending = 0;
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int result = function.getResult(instruction);
+                if (result == IrFunction.NO_VALUE) {
+                    continue;
+                }
+                definitions[result] = instruction;
+                if (uses[result] == 0 && isRemovable(function, instruction, only)) {
+                    worklist[pending++] = instruction;
+                }
+            }
+        }
+        boolean[] isDead = new boolean[function.getValueCount() + 1];
+        int removed = 0;
+        while (pending > 0) {
+            int instruction = worklist[--pending];
+            isDead[function.getResult(instruction)] = true;
+            removed++;
+            IrOpcode opcode = function.getOpcode(instruction);
+            for (int operand : new int[]{IrFunction.usesValueA(opcode) ? function.getA(instruction) : 0,
+                    IrFunction.usesValueB(opcode) ? function.getB(instruction) : 0}) {
+                if (operand > 0 && --uses[operand] == 0 && definitions[operand] >= 0
+                        && isRemovable(function, definitions[operand], only)) {
+                    worklist[pending++] = definitions[operand];
+                }
+            }
+        }
+        if (removed > 0) {
+            for (IrBlock block : function.getBlocks()) {
+                block.retain(instruction -> !isDead[function.getResult(instruction)]);
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isRemovable(IrFunction function, int instruction, IrOpcode only) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        if (only != null && opcode != only) {
+            return false;
+        }
+        if (opcode == IrOpcode.SDIV) {
+            int divisor = function.getB(instruction);
+            return IrFunction.isConstant(divisor) && function.constantValue(divisor) != 0;
+        }
+        return opcode.isPure();
+    }
+
+    /**
+     * Counts the uses of every value.
+     *
+     * @param function the function.
+     * @return uses[v] is the number of operands referring to value v.
+     */
+    static int[] countUses(IrFunction function) {
+        int[] uses = new int[function.getValueCount() + 1];
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IrOpcode opcode = function.getOpcode(instruction);
+                if (IrFunction.usesValueA(opcode) && function.getA(instruction) > 0) {
+                    uses[function.getA(instruction)]++;
+                }
+                if (IrFunction.usesValueB(opcode) && function.getB(instruction) > 0) {
+                    uses[function.getB(instruction)]++;
+                }
+            }
+        }
+        return uses;
+    }
+
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dominator tree of an {@link IrFunction}.
+ *
+ * Computed with the iterative algorithm of Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm") over
+ * the reverse postorder of the blocks reachable from the entry block. The tree is then numbered in preorder and
+ * postorder, so that dominance queries take constant time.
+ */
+public class DominatorTree {
+    private final IrFunction function;
+    private final List<IrBlock> reversePostorder = new ArrayList<>();
+    private final int[] postorderNumber;
+    private final int[] immediateDominator;
+    private final int[] treePreorder;
+    private final int[] treePostorder;
+
+    /**
+     * Computes the dominator tree of a function; its CFG is recomputed first.
+     *
+     * @param function the function.
+     */
+    public DominatorTree(IrFunction function) {
+        this.function = function;
+        function.computeCfg();
+        int blockCount = 0;
+        for (IrBlock block : function.getBlocks()) {
+            blockCount = Math.max(blockCount, block.getId() + 1);
+        }
+        postorderNumber = new int[blockCount];
+        immediateDominator = new int[blockCount];
+        Arrays.fill(postorderNumber, -1);
+        Arrays.fill(immediateDominator, -1);
+        computeReversePostorder(function.getBlocks().get(0), blockCount);
+
+        IrBlock entry = reversePostorder.get(0);
+        immediateDominator[entry.getId()] = entry.getId();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < reversePostorder.size(); i++) {
+                IrBlock block = reversePostorder.get(i);
+                int newDominator = -1;
+                for (IrBlock predecessor : block.getPredecessors()) {
+                    if (immediateDominator[predecessor.getId()] < 0) {
+                        continue; // not processed yet, or unreachable
+                    }
+                    newDominator = newDominator < 0 ? predecessor.getId() : intersect(predecessor.getId(), newDominator);
+                }
+                if (immediateDominator[block.getId()] != newDominator) {
+                    immediateDominator[block.getId()] = newDominator;
+                    changed = true;
+                }
+            }
+        }
+        treePreorder = new int[blockCount];
+        treePostorder = new int[blockCount];
+        numberTree(entry.getId(), blockCount);
+    }
+
+    private void numberTree(int root, int blockCount) {
+        // Children lists of the tree, then an iterative depth-first search like computeReversePostorder
+        int[] firstChild = new int[blockCount];
+        int[] nextSibling = new int[blockCount];
+        Arrays.fill(firstChild, -1);
+        for (IrBlock block : reversePostorder.subList(1, reversePostorder.size())) {
+            int dominator = immediateDominator[block.getId()];
+            nextSibling[block.getId()] = firstChild[dominator];
+            firstChild[dominator] = block.getId();
+        }
+        int[] stack = new int[blockCount];
+        int[] nextChild = new int[blockCount];
+        int depth = 0;
+        int preorder = 0;
+        int postorder = 0;
+        stack[depth] = root;
+        nextChild[depth++] = firstChild[root];
+        treePreorder[root] = preorder++;
+        while (depth > 0) {
+            int child = nextChild[depth - 1];
+            if (child >= 0) {
+                nextChild[depth - 1] = nextSibling[child];
+                treePreorder[child] = preorder++;
+                stack[depth] = child;
+                nextChild[depth++] = firstChild[child];
+            } else {
+                treePostorder[stack[--depth]] = postorder++;
+            }
+        }
+    }
+
+    private void computeReversePostorder(IrBlock entry, int blockCount) {
+        // Iterative depth-first search: the stack holds blocks and the index of their next successor to visit
+        boolean[] visited = new boolean[blockCount];
+        IrBlock[] stack = new IrBlock[blockCount];
+        int[] nextSuccessor = new int[blockCount];
+        List<IrBlock> postorder = new ArrayList<>();
+        int depth = 0;
+        stack[depth++] = entry;
+        visited[entry.getId()] = true;
+        while (depth > 0) {
+            IrBlock block = stack[depth - 1];
+            List<IrBlock> successors = block.getSuccessors();
+            if (nextSuccessor[depth - 1] < successors.size()) {
+                IrBlock successor = successors.get(nextSuccessor[depth - 1]++);
+                if (!visited[successor.getId()]) {
+                    visited[successor.getId()] = true;
+                    nextSuccessor[depth] = 0;
+                    stack[depth++] = successor;
+                }
+            } else {
+                postorderNumber[block.getId()] = postorder.size();
+                postorder.add(block);
+                depth--;
+            }
+        }
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            reversePostorder.add(postorder.get(i));
+        }
+    }
+
+    private int intersect(int first, int second) {
+        while (first != second) {
+            while (postorderNumber[first] < postorderNumber[second]) {
+                first = immediateDominator[first];
+            }
+            while (postorderNumber[second] < postorderNumber[first]) {
+                second = immediateDominator[second];
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns the blocks reachable from the entry block, in reverse postorder.
+     *
+     * @return the reachable blocks, starting with the entry block.
+     */
+    public List<IrBlock> getReversePostorder() {
+        return reversePostorder;
+    }
+
+    /**
+     * Returns whether a block can be reached from the entry block.
+     *
+     * @param block the block.
+     * @return true iff the block is reachable.
+     */
+    public boolean isReachable(IrBlock block) {
+        return block.getId() < postorderNumber.length && postorderNumber[block.getId()] >= 0;
+    }
+
+    /**
+     * Returns the immediate dominator of a block.
+     *
+     * @param block a reachable block.
+     * @return the immediate dominator, or null for the entry block.
+     */
+    public IrBlock getImmediateDominator(IrBlock block) {
+        int dominator = immediateDominator[block.getId()];
+        return dominator == block.getId() ? null : function.getBlockById(dominator);
+    }
+
+    /**
+     * Returns whether every path from the entry block to a block goes through another one.
+     *
+     * @param dominator the block that may dominate.
+     * @param block the dominated block.
+     * @return true iff dominator dominates block (a block dominates itself).
+     */
+    public boolean dominates(IrBlock dominator, IrBlock block) {
+        if (!isReachable(dominator) || !isReachable(block)) {
+            return false;
+        }
+        // block is in the subtree of dominator
+        return treePreorder[dominator.getId()] <= treePreorder[block.getId()]
+                && treePostorder[block.getId()] <= treePostorder[dominator.getId()];
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the LLVM IR generated for every test program against its expected output, in a single JVM.
+ *
+ * Every <code>tests/NAME.pmp</code> is compiled like <code>Main</code> does without options, in memory and on as
+ * many threads as there are cores, and the IR is compared with <code>more/results/NAME.ll</code>. A mismatch is
+ * reported with the differing lines; with <code>--regenerate</code>, the expected outputs that differ or are
+ * missing are rewritten instead.
+ *
+ * With <code>--deep</code>, the SSA form of programs with long or deeply nested statements, expressions and
+ * conditions, written in memory, is also generated on threads with the default stack size, so that a generator
+ * walking them recursively fails with a StackOverflowError. These checks take several seconds, so they are not run
+ * by default. The exit code is 1 if a test failed.
+ */
+public class GoldenTests {
+    private static final int MAX_DIFF_LINES = 12;
+    private static final long MAX_COMPARED_PAIRS = 4_000_000;
+    /** Length or depth of the programs of {@link #deepPrograms()}. */
+    private static final int DEEP_SIZE = 20_000;
+    /** Stack size of the threads parsing them: unlike the generators, the parser is recursive. */
+    private static final long PARSER_STACK_SIZE = 1L << 30;
+
+    private final File expectedDirectory;
+    private final boolean regenerate;
+
+    private GoldenTests(File expectedDirectory, boolean regenerate) {
+        this.expectedDirectory = expectedDirectory;
+        this.regenerate = regenerate;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean regenerate = false;
+        boolean deep = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> directories = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--regenerate")) {
+                regenerate = true;
+            } else if (arg.equals("--deep")) {
+                deep = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (!arg.startsWith("-") && directories.size() < 2) {
+                directories.add(arg);
+            } else {
+                System.out.println("Usage: java -cp part3.jar GoldenTests [--regenerate] [--deep] [--threads=N]"
+                        + " [TESTS_DIRECTORY [EXPECTED_DIRECTORY]]");
+                return;
+            }
+        }
+        File testDirectory = new File(directories.size() > 0 ? directories.get(0) : "tests");
+        File expectedDirectory = new File(directories.size() > 1 ? directories.get(1) : "more/results");
+        File[] tests = testDirectory.listFiles((directory, name) -> name.endsWith(".pmp"));
+        if (tests == null || tests.length == 0) {
+            System.err.println("No test found in " + testDirectory);
+            System.exit(1);
+        }
+        Arrays.sort(tests);
+        if (!new GoldenTests(expectedDirectory, regenerate).run(tests, deep, threads)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the tests and prints their results, in the order of the files.
+     *
+     * @param deep whether to run the checks of {@link #deepPrograms()} too.
+     * @return whether every test passed.
+     */
+    private boolean run(File[] tests, boolean deep, int threads) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tests.length)));
+        List<String> names = new ArrayList<>();
+        List<Future<String>> results = new ArrayList<>();
+        for (File test : tests) {
+            names.add(test.getName());
+            results.add(executor.submit(() -> check(test)));
+        }
+        if (deep) {
+            for (Map.Entry<String, String> program : deepPrograms().entrySet()) {
+                names.add(program.getKey());
+                results.add(executor.submit(() -> checkDeep(program.getKey(), program.getValue())));
+            }
+        }
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++) {
+            String failure;
+            try {
+                failure = results.get(i).get();
+            } catch (ExecutionException e) {
+                failure = "FAIL " + names.get(i) + ": " + e.getCause() + "\n";
+            }
+            if (failure != null) {
+                failures++;
+                System.out.print(failure);
+            }
+        }
+        executor.shutdown();
+        System.out.printf("%d of %d tests passed in %.0f ms%n", results.size() - failures, results.size(),
+                (System.nanoTime() - start) / 1e6);
+        return failures == 0;
+    }
+
+    /**
+     * Compiles a test and compares its IR with the expected one, or rewrites the expected one if it differs.
+     *
+     * @return the report of the failure, or null if the test passed or its expected output was regenerated.
+     */
+    private String check(File test) throws IOException {
+        String name = test.getName().substring(0, test.getName().length() - ".pmp".length());
+        byte[] actual;
+        try {
+            actual = compile(test);
+        } catch (ParseException | RuntimeException e) {
+            return "FAIL " + name + ": " + e + "\n";
+        }
+        File expectedFile = new File(expectedDirectory, name + ".ll");
+        byte[] expected = expectedFile.isFile() ? Files.readAllBytes(expectedFile.toPath()) : null;
+        if (Arrays.equals(actual, expected)) {
+            return null;
+        }
+        if (regenerate) {
+            expectedDirectory.mkdirs();
+            Files.write(expectedFile.toPath(), actual);
+            System.out.println((expected == null ? "Created " : "Updated ") + expectedFile);
+            return null;
+        }
+        if (expected == null) {
+            return "FAIL " + name + ": " + expectedFile + " is missing\n";
+        }
+        return "FAIL " + name + " (" + expectedFile + "):\n"
+                + diff(lines(expected), lines(actual));
+    }
+
+    /**
+     * Compiles a program to LLVM IR like <code>Main</code> without options, in memory.
+     */
+    private static byte[] compile(File test) throws IOException, ParseException {
+        ParseTree parseTree;
+        try (FileReader source = new FileReader(test)) {
+            Parser parser = new Parser(source);
+            parser.displayNoRules();
+            parseTree = parser.parse();
+        }
+        IrFunction ir = parseTree.program();
+        PassManager.forLevel(0).run(ir);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LlvmPrinter().write(ir, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns programs whose statements, expressions or conditions are long or deeply nested, by name.
+     */
+    private static Map<String, String> deepPrograms() {
+        Map<String, String> programs = new LinkedHashMap<>();
+        StringBuilder ifs = new StringBuilder("begin\nread(x) ...\na := 0 ...\n");
+        for (int i = 0; i < DEEP_SIZE; i++) {
+            ifs.append("if a < ").append(i).append(" then a := a + 1 else a := a - 1 ...\n");
+        }
+        // x is not read by the ifs, so its value is looked up through all of them
+        programs.put("deep-sequential-ifs", ifs.append("print(x)\nend\n").toString());
+        programs.put("deep-nested-ifs", "begin\nread(y) ...\n" + "if y < 3 then begin\n".repeat(DEEP_SIZE)
+                + "x := 1\n" + "end else x := 2\n".repeat(DEEP_SIZE) + "...\nprint(x)\nend\n");
+        programs.put("deep-nested-whiles", "begin\nread(y) ...\n" + "while y < 3 do\n".repeat(DEEP_SIZE)
+                + "y := y + 1 ...\nprint(y)\nend\n");
+        programs.put("deep-parentheses", "begin\nread(x) ...\na := " + "(".repeat(DEEP_SIZE) + "x"
+                + ")".repeat(DEEP_SIZE) + " ...\nprint(a)\nend\n");
+        programs.put("deep-brackets", "begin\nread(y) ...\nif " + "{".repeat(DEEP_SIZE) + "y < 3 or y = 5"
+                + "}".repeat(DEEP_SIZE) + " then x := 1 else x := 2 ...\nprint(x)\nend\n");
+        return programs;
+    }
+
+    /**
+     * Generates the SSA form of a deep program, with and without short-circuit conditions, on the current thread.
+     *
+     * @return the report of the failure, or null if both were generated.
+     */
+    private static String checkDeep(String name, String source) throws InterruptedException {
+        ParseTree tree;
+        try {
+            tree = parseOnLargeStack(source);
+        } catch (IOException | ParseException e) {
+            return "FAIL " + name + ": " + e + "\n";
+        }
+        for (boolean shortCircuit : new boolean[]{true, false}) {
+            try {
+                new SsaGenerator(shortCircuit).generate(tree);
+            } catch (StackOverflowError | RuntimeException e) {
+                return "FAIL " + name + " (--ssa" + (shortCircuit ? "" : " --no-short-circuit") + "): " + e + "\n";
+            }
+        }
+        return null;
+    }
+
+    private static ParseTree parseOnLargeStack(String source)
+            throws IOException, ParseException, InterruptedException {
+        ParseTree[] tree = new ParseTree[1];
+        Exception[] failure = new Exception[1];
+        Thread parser = new Thread(null, () -> {
+            try {
+                Parser sourceParser = new Parser(Parser.lex(new StringReader(source)));
+                sourceParser.displayNoRules();
+                tree[0] = sourceParser.parse();
+            } catch (IOException | ParseException e) {
+                failure[0] = e;
+            }
+        }, "deep-parser", PARSER_STACK_SIZE);
+        parser.start();
+        parser.join();
+        if (failure[0] instanceof IOException e) {
+            throw e;
+        } else if (failure[0] instanceof ParseException e) {
+            throw e;
+        }
+        return tree[0];
+    }
+
+    private static String[] lines(byte[] text) {
+        return new String(text, StandardCharsets.UTF_8).split("\n", -1);
+    }
+
+    /**
+     * Returns the lines removed from the expected output (-), numbered as in it, and the lines added to it (+),
+     * numbered as in the generated output. Past the common first and last lines, they come from a longest common
+     * subsequence of the lines, or are all listed if there are too many to compare. Only the first
+     * {@link #MAX_DIFF_LINES} are kept.
+     */
+    private static String diff(String[] expected, String[] actual) {
+        int start = 0;
+        while (start < expected.length && start < actual.length && expected[start].equals(actual[start])) {
+            start++;
+        }
+        int expectedEnd = expected.length;
+        int actualEnd = actual.length;
+        while (expectedEnd > start && actualEnd > start && expected[expectedEnd - 1].equals(actual[actualEnd - 1])) {
+            expectedEnd--;
+            actualEnd--;
+        }
+        int rows = expectedEnd - start;
+        int columns = actualEnd - start;
+        int[][] common = new int[(long) rows * columns <= MAX_COMPARED_PAIRS ? rows + 1 : 1][columns + 1];
+        if (common.length > 1) {
+            for (int i = rows - 1; i >= 0; i--) {
+                for (int j = columns - 1; j >= 0; j--) {
+                    common[i][j] = expected[start + i].equals(actual[start + j]) ? common[i + 1][j + 1] + 1
+                            : Math.max(common[i + 1][j], common[i][j + 1]);
+                }
+            }
+        }
+        StringBuilder diff = new StringBuilder();
+        int shown = 0;
+        int hidden = 0;
+        int i = 0;
+        int j = 0;
+        while (i < rows || j < columns) {
+            String line;
+            if (common.length > 1 && i < rows && j < columns && expected[start + i].equals(actual[start + j])) {
+                i++;
+                j++;
+                continue;
+            } else if (i < rows && (j == columns || common.length == 1 || common[i + 1][j] >= common[i][j + 1])) {
+                line = String.format("  %4d - %s%n", start + i + 1, expected[start + i]);
+                i++;
+            } else {
+                line = String.format("  %4d + %s%n", start + j + 1, actual[start + j]);
+                j++;
+            }
+            if (shown < MAX_DIFF_LINES) {
+                diff.append(line);
+                shown++;
+            } else {
+                hidden++;
+            }
+        }
+        if (hidden > 0) {
+            diff.append("  ... ").append(hidden).append(" more changed lines\n");
+        }
+        return diff.toString();
+    }
+}
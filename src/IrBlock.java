@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A basic block of an {@link IrFunction}.
+ *
+ * The block only stores the indices of its instructions in the function; the last one is always a terminator.
+ * Predecessors and successors are filled by {@link IrFunction#computeCfg()}.
+ */
+public class IrBlock {
+    private final int id;
+    private final String name;
+    private int[] instructions = new int[8];
+    private int size = 0;
+    private final List<IrBlock> predecessors = new ArrayList<>();
+    private final List<IrBlock> successors = new ArrayList<>();
+
+    IrBlock(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the label of the block.
+     *
+     * @return the label, or null for the entry block of @main.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int position) {
+        return instructions[position];
+    }
+
+    public void add(int instruction) {
+        insert(size, instruction);
+    }
+
+    public void insert(int position, int instruction) {
+        if (size == instructions.length) {
+            instructions = Arrays.copyOf(instructions, size * 2);
+        }
+        System.arraycopy(instructions, position, instructions, position + 1, size - position);
+        instructions[position] = instruction;
+        size++;
+    }
+
+    public void remove(int position) {
+        System.arraycopy(instructions, position + 1, instructions, position, size - position - 1);
+        size--;
+    }
+
+    /**
+     * Removes the instructions rejected by a filter, moving the others down in a single pass over the block.
+     *
+     * @param keep called once on every instruction, in order; false removes the instruction.
+     * @return the number of removed instructions.
+     */
+    public int retain(IntPredicate keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int instruction = instructions[i];
+            if (keep.test(instruction)) {
+                instructions[kept++] = instruction;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Returns the last instruction of the block.
+     *
+     * @return the index of the terminator in the function, or -1 if the block is still empty.
+     */
+    public int getTerminator() {
+        return size == 0 ? -1 : instructions[size - 1];
+    }
+
+    public List<IrBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public List<IrBlock> getSuccessors() {
+        return successors;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "entry" : name;
+    }
+}
@@ -0,0 +1,581 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory three-address code for @main, built by the code generation methods of {@link ParseTree} and
+ * rendered by {@link LlvmPrinter}.
+ *
+ * Instructions are stored column-wise in primitive arrays (opcode, result, operands a, b and c) and referenced by
+ * their index; basic blocks ({@link IrBlock}) list the indices of their instructions in order. Operands are
+ * encoded as ints:
+ * <ul>
+ *   <li>a positive int is a value, i.e. the result of an instruction;</li>
+ *   <li>a negative int is a constant, see {@link #constant(int)} and {@link #constantValue(int)};</li>
+ *   <li>for ALLOCA, LOAD and STORE, operand a is a variable slot, see {@link #getVariableName(int)};</li>
+ *   <li>for BR and CBR, the targets are block ids, see {@link #getBlockById(int)}.</li>
+ * </ul>
+ * Values are numbered in creation order and only renumbered by the printer, so passes can remove or move
+ * instructions freely.
+ */
+public class IrFunction {
+    /** Operand meaning "no value". */
+    public static final int NO_VALUE = 0;
+
+    private byte[] opcodes = new byte[256];
+    private int[] results = new int[256];
+    private int[] operandsA = new int[256];
+    private int[] operandsB = new int[256];
+    private int[] operandsC = new int[256];
+    private int instructionCount = 0;
+    private int valueCount = 0;
+
+    private int[] constants = new int[16];
+    private int constantCount = 0;
+    private final Map<Integer, Integer> constantIndices = new HashMap<>();
+
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> variableSlots = new HashMap<>();
+    private boolean[] allocated = new boolean[16];
+
+    private final List<IrBlock> blocksById = new ArrayList<>();
+    private final List<IrBlock> blocks = new ArrayList<>();
+    private IrBlock current;
+
+    private int ifIndex = 0;
+    private int whileIndex = 0;
+    private int condIndex = 0;
+
+    /**
+     * Creates an empty function whose entry block is the current block.
+     */
+    public IrFunction() {
+        startBlock(newBlock(null));
+    }
+
+    /* Building */
+
+    /**
+     * Creates a block without placing it in the function yet.
+     *
+     * @param name the label of the block.
+     * @return the new block.
+     */
+    public IrBlock newBlock(String name) {
+        IrBlock block = new IrBlock(blocksById.size(), name);
+        blocksById.add(block);
+        return block;
+    }
+
+    /**
+     * Appends a block to the function; following instructions are added to it.
+     *
+     * @param block a block created by {@link #newBlock(String)}.
+     */
+    public void startBlock(IrBlock block) {
+        blocks.add(block);
+        current = block;
+    }
+
+    public IrBlock getCurrentBlock() {
+        return current;
+    }
+
+    /**
+     * Creates an instruction, not attached to any block.
+     *
+     * @param opcode the opcode.
+     * @param a the first operand.
+     * @param b the second operand.
+     * @param c the third operand.
+     * @return the index of the instruction.
+     */
+    public int createInstruction(IrOpcode opcode, int a, int b, int c) {
+        if (instructionCount == opcodes.length) {
+            ensureCapacity(instructionCount * 2);
+        }
+        int instruction = instructionCount++;
+        opcodes[instruction] = (byte) opcode.ordinal();
+        results[instruction] = opcode.hasResult() ? ++valueCount : NO_VALUE;
+        operandsA[instruction] = a;
+        operandsB[instruction] = b;
+        operandsC[instruction] = c;
+        return instruction;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > opcodes.length) {
+            capacity = Math.max(capacity, opcodes.length * 2);
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            results = Arrays.copyOf(results, capacity);
+            operandsA = Arrays.copyOf(operandsA, capacity);
+            operandsB = Arrays.copyOf(operandsB, capacity);
+            operandsC = Arrays.copyOf(operandsC, capacity);
+        }
+    }
+
+    /**
+     * Appends an instruction to the current block.
+     *
+     * @param opcode the opcode.
+     * @param a the first operand.
+     * @param b the second operand.
+     * @return the result of the instruction, or {@link #NO_VALUE}.
+     */
+    public int emit(IrOpcode opcode, int a, int b) {
+        int instruction = createInstruction(opcode, a, b, NO_VALUE);
+        current.add(instruction);
+        return results[instruction];
+    }
+
+    public int emit(IrOpcode opcode, int a) {
+        return emit(opcode, a, NO_VALUE);
+    }
+
+    public int emit(IrOpcode opcode) {
+        return emit(opcode, NO_VALUE, NO_VALUE);
+    }
+
+    public void emitBranch(IrBlock target) {
+        emit(IrOpcode.BR, target.getId());
+    }
+
+    public void emitCondBranch(int condition, IrBlock trueTarget, IrBlock falseTarget) {
+        current.add(createInstruction(IrOpcode.CBR, condition, trueTarget.getId(), falseTarget.getId()));
+    }
+
+    public int nextIfIndex() {
+        return ifIndex++;
+    }
+
+    public int nextWhileIndex() {
+        return whileIndex++;
+    }
+
+    public int nextCondIndex() {
+        return condIndex++;
+    }
+
+    /**
+     * Appends the code of another function, generated separately for the instructions that follow, as if it had
+     * been generated here: its entry block continues the current block, and its values, blocks, variables,
+     * constants and label indices are renumbered after those of this function. An alloca of a variable already
+     * allocated here is dropped, so the result is the same as generating all the instructions in one function.
+     *
+     * @param fragment a function that has not been optimized or terminated.
+     */
+    public void append(IrFunction fragment) {
+        IrBlock[] blockMap = new IrBlock[fragment.blocksById.size()];
+        blockMap[0] = current;
+        for (int id = 1; id < blockMap.length; id++) {
+            blockMap[id] = newBlock(renumberLabel(fragment.blocksById.get(id).getName()));
+        }
+        int[] slots = new int[fragment.variables.size()];
+        for (int slot = 0; slot < slots.length; slot++) {
+            slots[slot] = variable(fragment.variables.get(slot));
+        }
+        int[] constantMap = new int[fragment.constantCount];
+        for (int index = 0; index < constantMap.length; index++) {
+            constantMap[index] = constant(fragment.constants[index]);
+        }
+        // instructions are copied in the same order, so that values keep the numbers they would have had here
+        int valueBase = valueCount;
+        ensureCapacity(instructionCount + fragment.instructionCount);
+        int[] instructionMap = new int[fragment.instructionCount];
+        for (int instruction = 0; instruction < fragment.instructionCount; instruction++) {
+            IrOpcode opcode = fragment.getOpcode(instruction);
+            int a = fragment.operandsA[instruction];
+            int b = fragment.operandsB[instruction];
+            int c = fragment.operandsC[instruction];
+            switch (opcode) {
+                case ALLOCA -> {
+                    if (!allocate(slots[a])) {
+                        instructionMap[instruction] = -1;
+                        continue;
+                    }
+                    a = slots[a];
+                }
+                case LOAD -> a = slots[a];
+                case STORE -> {
+                    a = slots[a];
+                    b = rebase(constantMap, valueBase, b);
+                }
+                case CONST -> a = constantMap[-1 - a];
+                case BR -> a = blockMap[a].getId();
+                case CBR -> {
+                    a = rebase(constantMap, valueBase, a);
+                    b = blockMap[b].getId();
+                    c = blockMap[c].getId();
+                }
+                default -> {
+                    a = usesValueA(opcode) ? rebase(constantMap, valueBase, a) : a;
+                    b = usesValueB(opcode) ? rebase(constantMap, valueBase, b) : b;
+                }
+            }
+            int copy = instructionCount++;
+            int result = fragment.results[instruction];
+            opcodes[copy] = fragment.opcodes[instruction];
+            results[copy] = result == NO_VALUE ? NO_VALUE : valueBase + result;
+            operandsA[copy] = a;
+            operandsB[copy] = b;
+            operandsC[copy] = c;
+            instructionMap[instruction] = copy;
+        }
+        valueCount += fragment.valueCount;
+        for (IrBlock block : fragment.blocks) {
+            IrBlock target = blockMap[block.getId()];
+            if (target != current) {
+                startBlock(target);
+            }
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = instructionMap[block.get(i)];
+                if (instruction >= 0) {
+                    target.add(instruction);
+                }
+            }
+        }
+        ifIndex += fragment.ifIndex;
+        whileIndex += fragment.whileIndex;
+        condIndex += fragment.condIndex;
+    }
+
+    /**
+     * Renumbers a value or constant operand of a fragment being appended; values keep their order.
+     */
+    private static int rebase(int[] constantMap, int valueBase, int operand) {
+        if (isConstant(operand)) {
+            return constantMap[-1 - operand];
+        }
+        return operand == NO_VALUE ? NO_VALUE : valueBase + operand;
+    }
+
+    /**
+     * Shifts the index of a label created by the code generator ("if3", "CondWhile0", "OrElse2"...) by the number
+     * of labels of the same kind in this function.
+     */
+    private String renumberLabel(String name) {
+        int digits = name.length();
+        while (digits > 0 && Character.isDigit(name.charAt(digits - 1))) {
+            digits--;
+        }
+        String prefix = name.substring(0, digits);
+        int base = switch (prefix) {
+            case "if", "Else", "EndIf" -> ifIndex;
+            case "CondWhile", "While", "WhileEnd" -> whileIndex;
+            case "OrElse", "AndThen" -> condIndex;
+            default -> throw new IllegalArgumentException("Unexpected label " + name);
+        };
+        return prefix + (base + Integer.parseInt(name.substring(digits)));
+    }
+
+    /* Constants and variables */
+
+    /**
+     * Returns the operand representing a constant.
+     *
+     * @param value the value of the constant.
+     * @return a negative operand.
+     */
+    public int constant(int value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            index = constantCount;
+            constants[constantCount++] = value;
+            constantIndices.put(value, index);
+        }
+        return -1 - index;
+    }
+
+    public static boolean isConstant(int operand) {
+        return operand < 0;
+    }
+
+    public int constantValue(int operand) {
+        return constants[-1 - operand];
+    }
+
+    /**
+     * Returns the slot of a variable, creating it on first use.
+     *
+     * @param name the name of the variable.
+     * @return the slot of the variable.
+     */
+    public int variable(String name) {
+        Integer slot = variableSlots.get(name);
+        if (slot == null) {
+            slot = variables.size();
+            variables.add(name);
+            variableSlots.put(name, slot);
+            if (slot == allocated.length) {
+                allocated = Arrays.copyOf(allocated, slot * 2);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Marks a variable as allocated.
+     *
+     * @param slot the slot of the variable.
+     * @return true if the variable was not allocated yet.
+     */
+    public boolean allocate(int slot) {
+        boolean first = !allocated[slot];
+        allocated[slot] = true;
+        return first;
+    }
+
+    public String getVariableName(int slot) {
+        return variables.get(slot);
+    }
+
+    public int getVariableCount() {
+        return variables.size();
+    }
+
+    /**
+     * Allocates, at the start of the entry block, every variable that is loaded or stored without any alloca left
+     * in the function (read before being assigned, or allocated in a block that has been removed).
+     */
+    public void ensureAllocas() {
+        boolean[] hasAlloca = new boolean[variables.size()];
+        boolean[] isAccessed = new boolean[variables.size()];
+        for (IrBlock block : blocks) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                switch (getOpcode(instruction)) {
+                    case ALLOCA -> hasAlloca[operandsA[instruction]] = true;
+                    case LOAD, STORE -> isAccessed[operandsA[instruction]] = true;
+                    default -> { }
+                }
+            }
+        }
+        IrBlock entry = blocks.get(0);
+        for (int slot = variables.size() - 1; slot >= 0; slot--) {
+            if (isAccessed[slot] && !hasAlloca[slot]) {
+                entry.insert(0, createInstruction(IrOpcode.ALLOCA, slot, NO_VALUE, NO_VALUE));
+                allocated[slot] = true;
+            }
+        }
+    }
+
+    /* Accessors */
+
+    public IrOpcode getOpcode(int instruction) {
+        return IrOpcode.of(opcodes[instruction]);
+    }
+
+    public int getResult(int instruction) {
+        return results[instruction];
+    }
+
+    public int getA(int instruction) {
+        return operandsA[instruction];
+    }
+
+    public int getB(int instruction) {
+        return operandsB[instruction];
+    }
+
+    public int getC(int instruction) {
+        return operandsC[instruction];
+    }
+
+    public void setOperands(int instruction, int a, int b) {
+        operandsA[instruction] = a;
+        operandsB[instruction] = b;
+    }
+
+    /**
+     * Turns an instruction into another one, keeping its result.
+     *
+     * @param instruction the index of the instruction.
+     * @param opcode the new opcode.
+     * @param a the new first operand.
+     * @param b the new second operand.
+     * @param c the new third operand.
+     */
+    public void replaceInstruction(int instruction, IrOpcode opcode, int a, int b, int c) {
+        opcodes[instruction] = (byte) opcode.ordinal();
+        operandsA[instruction] = a;
+        operandsB[instruction] = b;
+        operandsC[instruction] = c;
+    }
+
+    /**
+     * Returns the number of values created so far; values are numbered from 1 to this number.
+     *
+     * @return the highest value.
+     */
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Returns whether operand a of an instruction with this opcode holds a value (or a constant).
+     *
+     * @param opcode the opcode.
+     * @return false if operand a is a variable slot, a block or unused.
+     */
+    public static boolean usesValueA(IrOpcode opcode) {
+        return switch (opcode) {
+            case ALLOCA, LOAD, STORE, CONST, READ, BR, RET -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Returns whether operand b of an instruction with this opcode holds a value (or a constant).
+     *
+     * @param opcode the opcode.
+     * @return true if operand b is a value.
+     */
+    public static boolean usesValueB(IrOpcode opcode) {
+        return switch (opcode) {
+            case STORE, ADD, SUB, MUL, SDIV, ICMP_EQ, ICMP_SLT, AND, OR -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Replaces the value operands of every instruction according to a map.
+     *
+     * @param replacements replacements[v] is the operand replacing value v, or {@link #NO_VALUE} to keep it.
+     *                     Chains of replacements are followed.
+     */
+    public void replaceUses(int[] replacements) {
+        for (IrBlock block : blocks) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IrOpcode opcode = getOpcode(instruction);
+                if (usesValueA(opcode)) {
+                    operandsA[instruction] = resolve(replacements, operandsA[instruction]);
+                }
+                if (usesValueB(opcode)) {
+                    operandsB[instruction] = resolve(replacements, operandsB[instruction]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows a chain of replacements.
+     *
+     * @param replacements replacements[v] is the operand replacing value v, or {@link #NO_VALUE}.
+     * @param operand an operand.
+     * @return the operand at the end of the chain.
+     */
+    static int resolve(int[] replacements, int operand) {
+        while (operand > 0 && operand < replacements.length && replacements[operand] != NO_VALUE) {
+            operand = replacements[operand];
+        }
+        return operand;
+    }
+
+    /* Blocks and control flow */
+
+    /**
+     * Returns the blocks of the function in layout order; the first one is the entry block.
+     *
+     * @return the placed blocks.
+     */
+    public List<IrBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Places a block in the layout just before another one.
+     *
+     * @param block a block created by {@link #newBlock(String)} and not placed yet.
+     * @param next a placed block.
+     */
+    public void placeBlockBefore(IrBlock block, IrBlock next) {
+        blocks.add(blocks.indexOf(next), block);
+    }
+
+    /**
+     * Makes a terminator jump to another block wherever it jumped to a given one.
+     *
+     * @param instruction a BR or CBR instruction.
+     * @param from the former target.
+     * @param to the new target.
+     */
+    public void retarget(int instruction, IrBlock from, IrBlock to) {
+        if (getOpcode(instruction) == IrOpcode.BR) {
+            operandsA[instruction] = operandsA[instruction] == from.getId() ? to.getId() : operandsA[instruction];
+        } else if (getOpcode(instruction) == IrOpcode.CBR) {
+            operandsB[instruction] = operandsB[instruction] == from.getId() ? to.getId() : operandsB[instruction];
+            operandsC[instruction] = operandsC[instruction] == from.getId() ? to.getId() : operandsC[instruction];
+        }
+    }
+
+    public IrBlock getBlockById(int id) {
+        return blocksById.get(id);
+    }
+
+    /**
+     * Recomputes the predecessors and successors of every block from their terminators.
+     */
+    public void computeCfg() {
+        for (IrBlock block : blocks) {
+            block.getPredecessors().clear();
+            block.getSuccessors().clear();
+        }
+        for (IrBlock block : blocks) {
+            int terminator = block.getTerminator();
+            if (terminator < 0) {
+                continue;
+            }
+            switch (getOpcode(terminator)) {
+                case BR -> addEdge(block, getBlockById(operandsA[terminator]));
+                case CBR -> {
+                    addEdge(block, getBlockById(operandsB[terminator]));
+                    if (operandsC[terminator] != operandsB[terminator]) {
+                        addEdge(block, getBlockById(operandsC[terminator]));
+                    }
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private static void addEdge(IrBlock from, IrBlock to) {
+        from.getSuccessors().add(to);
+        to.getPredecessors().add(from);
+    }
+
+    /**
+     * Returns the total number of instructions placed in blocks.
+     *
+     * @return the size of the function.
+     */
+    public int size() {
+        int size = 0;
+        for (IrBlock block : blocks) {
+            size += block.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns whether some placed instruction has the given opcode.
+     *
+     * @param opcode the opcode looked for.
+     * @return true iff the function contains such an instruction.
+     */
+    public boolean contains(IrOpcode opcode) {
+        for (IrBlock block : blocks) {
+            for (int i = 0; i < block.size(); i++) {
+                if (getOpcode(block.get(i)) == opcode) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The instructions of the intermediate representation (see {@link IrFunction}).
+ *
+ * Operands are stored in the a, b and c columns of the function; their meaning depends on the opcode.
+ */
+public enum IrOpcode {
+    /** Stack slot for variable a. */
+    ALLOCA(false, false),
+    /** result = value of variable a. */
+    LOAD(true, false),
+    /** variable a = b. */
+    STORE(false, false),
+    /** result = constant a (kept as an instruction until constants are folded). */
+    CONST(true, false),
+    /** result = -a. */
+    NEG(true, false),
+    /** result = a + b. */
+    ADD(true, false),
+    /** result = a - b. */
+    SUB(true, false),
+    /** result = a * b. */
+    MUL(true, false),
+    /** result = a / b (traps on division by zero). */
+    SDIV(true, false),
+    /** result (i1) = a == b. */
+    ICMP_EQ(true, false),
+    /** result (i1) = a &lt; b. */
+    ICMP_SLT(true, false),
+    /** result (i1) = a and b. */
+    AND(true, false),
+    /** result (i1) = a or b. */
+    OR(true, false),
+    /** result = integer read on the standard input. */
+    READ(true, false),
+    /** Prints a on the standard output. */
+    PRINT(false, false),
+    /** Jumps to block a. */
+    BR(false, true),
+    /** Jumps to block b if a holds, to block c otherwise. */
+    CBR(false, true),
+    /** Returns from @main. */
+    RET(false, true);
+
+    private static final IrOpcode[] VALUES = values();
+
+    private final boolean hasResult;
+    private final boolean isTerminator;
+
+    IrOpcode(boolean hasResult, boolean isTerminator) {
+        this.hasResult = hasResult;
+        this.isTerminator = isTerminator;
+    }
+
+    /**
+     * Returns the opcode stored with the given ordinal.
+     *
+     * @param ordinal the ordinal of the opcode.
+     * @return the opcode.
+     */
+    public static IrOpcode of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Returns whether the instruction defines a value.
+     *
+     * @return true iff the instruction has a result.
+     */
+    public boolean hasResult() {
+        return hasResult;
+    }
+
+    /**
+     * Returns whether the instruction ends a basic block.
+     *
+     * @return true iff the instruction is a terminator.
+     */
+    public boolean isTerminator() {
+        return isTerminator;
+    }
+
+    /**
+     * Returns whether the instruction can be removed when its result is unused.
+     *
+     * Division is kept unless its divisor is a non-zero constant, since it may trap.
+     *
+     * @return true iff the instruction has no effect besides its result.
+     */
+    public boolean isPure() {
+        return hasResult && this != READ && this != SDIV;
+    }
+
+    /**
+     * Returns whether the result of the instruction is an i1.
+     *
+     * @return true for comparisons and boolean operators.
+     */
+    public boolean isBoolean() {
+        return this == ICMP_EQ || this == ICMP_SLT || this == AND || this == OR;
+    }
+}
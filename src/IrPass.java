@@ -0,0 +1,18 @@
+/**
+ * A transformation of an {@link IrFunction}, run by a {@link PassManager}.
+ */
+public interface IrPass {
+    /**
+     * Returns the name of the pass, as shown in the pass timing report.
+     *
+     * @return the name of the pass.
+     */
+    String getName();
+
+    /**
+     * Transforms a function in place.
+     *
+     * @param function the function to transform.
+     */
+    void run(IrFunction function);
+}
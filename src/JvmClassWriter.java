@@ -0,0 +1,1069 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an {@link IrFunction} to a JVM class implementing {@link PmpProgram}, so that a program can run in
+ * process and be optimized by the JIT compiler.
+ *
+ * The class file is written by hand. Its version is 49 (Java 5), the last one verified by type inference, so no
+ * StackMapTable has to be computed. In run(in, out), locals 1 and 2 hold the arguments; every variable gets its own
+ * int local after them. A value used once, later in its block, with the values used before it still above it, stays
+ * on the operand stack until its use; an unused value is popped, and only the other values get a local. A comparison
+ * only used by the conditional branch that follows it becomes an if_icmp instruction. Branches use 16-bit offsets,
+ * and a method is written again with goto_w jumps when it is too large for them.
+ *
+ * A function whose code does not fit the 64 KB of a JVM method is split into segments of consecutive instructions,
+ * each written as a method segmentN(in, out, state, entry) returning the entry to run next, or -1 once the function
+ * returns; run(in, out) calls them in turn. An entry is the number of a segment times 65536 plus the index of the
+ * position where it starts in the segment: 0 for its first instruction, then the blocks that other segments branch
+ * to, in layout order. Between the calls, the variables and the values used out of the block or the segment defining
+ * them are kept in the int array state: a segment loads those it refers to when it starts, writes a value there when
+ * it defines it, and writes back the variables it stores to when it returns.
+ */
+public class JvmClassWriter {
+    /** Name of the classes that are written. */
+    public static final String CLASS_NAME = "CompiledPmpProgram";
+
+    private static final String SUPPLIER = "java/util/function/IntSupplier";
+    private static final String CONSUMER = "java/util/function/IntConsumer";
+    private static final String SEGMENT_TYPE = "(L" + SUPPLIER + ";L" + CONSUMER + ";[II)I";
+    private static final int MAX_CODE_LENGTH = 65535;
+    private static final int MAX_LOCALS = 0xFFFF;
+    /** Code length a segment is aimed at when a method is split, so that its branches keep 16-bit offsets. */
+    private static final int SEGMENT_CODE_LENGTH = Short.MAX_VALUE;
+    private static final int FIRST_VARIABLE_LOCAL = 3;
+    /** Locals of a segment method: 3 holds the state (aload_3), 4 the entry, and the variables start at 5. */
+    private static final int ENTRY_LOCAL = 4;
+    private static final int FIRST_SEGMENT_LOCAL = 5;
+    /** Values kept on the operand stack at the same time at most, the next ones get a local. */
+    private static final int MAX_STACKED_VALUES = 64;
+    /** Label of the end of a segment method, where it writes back its variables and returns the next entry. */
+    private static final int EPILOGUE = -1;
+
+    // opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ILOAD_0 = 0x1a;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int ISTORE_0 = 0x3b;
+    private static final int ASTORE_3 = 0x4e;
+    private static final int IASTORE = 0x4f;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int SWAP = 0x5f;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int INEG = 0x74;
+    private static final int ISHR = 0x7a;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEWARRAY = 0xbc;
+    private static final int WIDE = 0xc4;
+    private static final int GOTO_W = 0xc8;
+    private static final int T_INT = 10;
+
+    private IrFunction function;
+    private int[] uses;
+
+    // the instructions in layout order, numbered by position
+    private List<IrBlock> blocks;
+    private int[] instructions;
+    private int[] blockIndices;
+    private int[] blockStarts;
+    private int maxBlockId;
+
+    // the segments
+    private int[] segmentStarts;
+    private int[] segmentOfBlock;
+    /** Index of the entry starting at each block, or -1 if no other segment branches to it. */
+    private int[] entryOfBlock;
+    /** Positions of the entries of each segment. */
+    private List<int[]> entryPositions;
+    /** Whether each value is kept in the state, and its index there. */
+    private boolean[] global;
+    private int[] globalSlots;
+    private int stateSize;
+    /** Whether each value stays on the operand stack between its definition and its use. */
+    private boolean[] stacked;
+    private int maxStack;
+
+    // the method being written
+    private int segment;
+    private int firstLocal;
+    private int[] locals;
+    private int localCount;
+
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    private int constantCount = 1;
+
+    private byte[] code;
+    private int codeLength;
+    private boolean wideBranches;
+    private int[] blockOffsets;
+    private int[] exitOffsets;
+    private int epilogueOffset;
+    /** Branches to patch: position of the instruction, position of the offset, label of the target. */
+    private final List<int[]> branches = new ArrayList<>();
+    /** Blocks of other segments branched to from the segment being written, each reached through an exit. */
+    private final List<Integer> exits = new ArrayList<>();
+
+    /**
+     * Code of a method.
+     */
+    private static class MethodCode {
+        private final byte[] code;
+        private final int maxStack;
+        private final int maxLocals;
+
+        MethodCode(byte[] code, int maxStack, int maxLocals) {
+            this.code = code;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+    }
+
+    /**
+     * Writes the class file of a function.
+     *
+     * @param function the function.
+     * @return the class file.
+     * @throws IllegalStateException if the function exceeds the limits of a JVM class.
+     */
+    public byte[] write(IrFunction function) {
+        this.function = function;
+        this.uses = DeadCodeElimination.countUses(function);
+        numberPositions();
+
+        int thisClass = classConstant(CLASS_NAME);
+        int superClass = classConstant("java/lang/Object");
+        int programInterface = classConstant("PmpProgram");
+        int codeName = utf8("Code");
+        int objectConstructor = methodConstant(10, "java/lang/Object", "<init>", "()V");
+        int initName = utf8("<init>");
+        int initType = utf8("()V");
+        int runName = utf8("run");
+        int runType = utf8("(L" + SUPPLIER + ";L" + CONSUMER + ";)V");
+
+        // the oversized segments are split again until every one fits a method
+        int[] starts = {0, instructions.length};
+        List<MethodCode> segments = new ArrayList<>();
+        boolean fits = false;
+        while (!fits) {
+            splitSegments(starts);
+            segments.clear();
+            fits = true;
+            List<Integer> nextStarts = new ArrayList<>();
+            for (int s = 0; s + 1 < starts.length; s++) {
+                MethodCode segmentCode = writeSegment(s);
+                segments.add(segmentCode);
+                nextStarts.add(starts[s]);
+                if (segmentCode.code.length > MAX_CODE_LENGTH || segmentCode.maxLocals > MAX_LOCALS) {
+                    fits = false;
+                    int length = starts[s + 1] - starts[s];
+                    if (length == 1) {
+                        throw new IllegalStateException("Program too large for a JVM method: "
+                                + segmentCode.maxLocals + " locals");
+                    }
+                    int pieces = Math.min(length, Math.max(segmentCode.code.length / SEGMENT_CODE_LENGTH,
+                            segmentCode.maxLocals / (MAX_LOCALS / 2)) + 1);
+                    for (int piece = 1; piece < pieces; piece++) {
+                        nextStarts.add(starts[s] + (int) ((long) length * piece / pieces));
+                    }
+                }
+            }
+            nextStarts.add(instructions.length);
+            starts = nextStarts.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (segments.size() > Short.MAX_VALUE) {
+            throw new IllegalStateException("Program too large for a JVM class: " + segments.size() + " methods");
+        }
+        MethodCode runCode = segments.size() == 1 ? segments.get(0) : writeDispatcher(segments.size());
+        int[] segmentNames = new int[segments.size()];
+        int segmentType = utf8(SEGMENT_TYPE);
+        if (segments.size() > 1) {
+            for (int s = 0; s < segments.size(); s++) {
+                segmentNames[s] = utf8("segment" + s);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(0xCAFEBABE);
+            output.writeShort(0);
+            output.writeShort(49);
+            output.writeShort(constantCount);
+            constantPool.writeTo(output);
+            output.writeShort(0x0031); // public final super
+            output.writeShort(thisClass);
+            output.writeShort(superClass);
+            output.writeShort(1);
+            output.writeShort(programInterface);
+            output.writeShort(0);
+            output.writeShort(segments.size() == 1 ? 2 : 2 + segments.size());
+            byte[] constructorCode = {
+                    (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectConstructor >> 8), (byte) objectConstructor,
+                    (byte) RETURN};
+            writeMethod(output, 0x0001, initName, initType, codeName, new MethodCode(constructorCode, 1, 1));
+            writeMethod(output, 0x0001, runName, runType, codeName, runCode);
+            if (segments.size() > 1) {
+                for (int s = 0; s < segments.size(); s++) {
+                    writeMethod(output, 0x0002, segmentNames[s], segmentType, codeName, segments.get(s));
+                }
+            }
+            output.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Defines a class written by {@link #write(IrFunction)} as a hidden class and creates an instance of it.
+     *
+     * @param classFile the class file.
+     * @return the program.
+     * @throws ReflectiveOperationException if the class cannot be defined.
+     */
+    public static PmpProgram load(byte[] classFile) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+        try {
+            return (PmpProgram) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (ReflectiveOperationException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream output, int access, int name, int type, int codeName,
+                                    MethodCode method) throws IOException {
+        output.writeShort(access);
+        output.writeShort(name);
+        output.writeShort(type);
+        output.writeShort(1);
+        output.writeShort(codeName);
+        output.writeInt(12 + method.code.length);
+        output.writeShort(method.maxStack);
+        output.writeShort(method.maxLocals);
+        output.writeInt(method.code.length);
+        output.write(method.code);
+        output.writeShort(0);
+        output.writeShort(0);
+    }
+
+    /**
+     * Numbers the instructions of the function by their position in layout order.
+     */
+    private void numberPositions() {
+        blocks = function.getBlocks();
+        instructions = new int[function.size()];
+        blockIndices = new int[instructions.length];
+        blockStarts = new int[blocks.size()];
+        maxBlockId = 0;
+        int position = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            IrBlock block = blocks.get(b);
+            maxBlockId = Math.max(maxBlockId, block.getId());
+            blockStarts[b] = position;
+            for (int i = 0; i < block.size(); i++, position++) {
+                instructions[position] = block.get(i);
+                blockIndices[position] = b;
+            }
+        }
+    }
+
+    /**
+     * Splits the function into segments and finds their entries, the values kept in the state and the values kept on
+     * the operand stack.
+     *
+     * @param starts the first position of every segment, then the number of positions.
+     */
+    private void splitSegments(int[] starts) {
+        segmentStarts = starts;
+        int segmentCount = starts.length - 1;
+        int[] segmentOfPosition = new int[instructions.length];
+        for (int s = 0; s < segmentCount; s++) {
+            Arrays.fill(segmentOfPosition, starts[s], starts[s + 1], s);
+        }
+        segmentOfBlock = new int[maxBlockId + 1];
+        for (int b = 0; b < blocks.size(); b++) {
+            segmentOfBlock[blocks.get(b).getId()] = segmentOfPosition[blockStarts[b]];
+        }
+
+        // blocks branched to from another segment
+        boolean[] entered = new boolean[maxBlockId + 1];
+        for (int position = 0; position < instructions.length; position++) {
+            int instruction = instructions[position];
+            IrOpcode opcode = function.getOpcode(instruction);
+            int[] targets = opcode == IrOpcode.BR ? new int[]{function.getA(instruction)}
+                    : opcode == IrOpcode.CBR ? new int[]{function.getB(instruction), function.getC(instruction)}
+                    : new int[0];
+            for (int target : targets) {
+                entered[target] |= segmentOfBlock[target] != segmentOfPosition[position];
+            }
+        }
+        entryOfBlock = new int[maxBlockId + 1];
+        Arrays.fill(entryOfBlock, -1);
+        List<List<Integer>> entries = new ArrayList<>();
+        for (int s = 0; s < segmentCount; s++) {
+            entries.add(new ArrayList<>(List.of(starts[s])));
+        }
+        for (int b = 0; b < blocks.size(); b++) {
+            int id = blocks.get(b).getId();
+            if (entered[id]) {
+                List<Integer> segmentEntries = entries.get(segmentOfBlock[id]);
+                if (blockStarts[b] == segmentEntries.get(0)) {
+                    entryOfBlock[id] = 0;
+                } else {
+                    entryOfBlock[id] = segmentEntries.size();
+                    segmentEntries.add(blockStarts[b]);
+                }
+            }
+        }
+        entryPositions = new ArrayList<>();
+        for (List<Integer> segmentEntries : entries) {
+            entryPositions.add(segmentEntries.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        // values used out of the block or the segment defining them
+        global = new boolean[function.getValueCount() + 1];
+        globalSlots = new int[function.getValueCount() + 1];
+        stateSize = function.getVariableCount();
+        if (segmentCount > 1) {
+            int[] definitions = new int[function.getValueCount() + 1];
+            for (int position = 0; position < instructions.length; position++) {
+                int result = function.getResult(instructions[position]);
+                if (result != IrFunction.NO_VALUE) {
+                    definitions[result] = position;
+                }
+            }
+            for (int position = 0; position < instructions.length; position++) {
+                for (int value : usedValues(instructions[position])) {
+                    int definition = definitions[value];
+                    global[value] |= blockIndices[position] != blockIndices[definition]
+                            || segmentOfPosition[position] != segmentOfPosition[definition];
+                }
+            }
+            for (int value = 1; value < global.length; value++) {
+                if (global[value]) {
+                    globalSlots[value] = stateSize++;
+                }
+            }
+        }
+        findStackedValues();
+    }
+
+    /**
+     * Returns the values read by an instruction, in the order they are pushed.
+     */
+    private int[] usedValues(int instruction) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = IrFunction.usesValueA(opcode) ? function.getA(instruction) : IrFunction.NO_VALUE;
+        int b = IrFunction.usesValueB(opcode) ? function.getB(instruction) : IrFunction.NO_VALUE;
+        if (a > 0 && b > 0) {
+            return new int[]{a, b};
+        } else if (a > 0) {
+            return new int[]{a};
+        } else if (b > 0) {
+            return new int[]{b};
+        }
+        return new int[0];
+    }
+
+    /**
+     * Returns the instruction following a position in its block and segment, or -1.
+     */
+    private int following(int position, int end) {
+        return position + 1 < end && blockIndices[position + 1] == blockIndices[position]
+                ? instructions[position + 1] : -1;
+    }
+
+    /**
+     * Decides which values stay on the operand stack, by following the stack of every block: a value used once is
+     * pushed when it is defined, and it stays there if its use finds it (with the other stacked operands of the
+     * use) on top of the stack. Otherwise, or if it is used in another block or segment, it is given a local.
+     */
+    private void findStackedValues() {
+        stacked = new boolean[function.getValueCount() + 1];
+        int maxStacked = 0;
+        List<Integer> stack = new ArrayList<>();
+        for (int s = 0; s + 1 < segmentStarts.length; s++) {
+            int end = segmentStarts[s + 1];
+            for (int position = segmentStarts[s]; position < end; position++) {
+                if (position == segmentStarts[s] || position == blockStarts[blockIndices[position]]) {
+                    // used in another block or segment
+                    for (int value : stack) {
+                        stacked[value] = false;
+                    }
+                    stack.clear();
+                }
+                int instruction = instructions[position];
+                if (isFused(instruction, following(position, end))) {
+                    popOperands(stack, function.getA(instruction), function.getB(instruction));
+                    position++;
+                    continue;
+                }
+                IrOpcode opcode = function.getOpcode(instruction);
+                popOperands(stack, IrFunction.usesValueA(opcode) ? function.getA(instruction) : IrFunction.NO_VALUE,
+                        IrFunction.usesValueB(opcode) ? function.getB(instruction) : IrFunction.NO_VALUE);
+                int result = function.getResult(instruction);
+                if (result != IrFunction.NO_VALUE && uses[result] == 1 && stack.size() < MAX_STACKED_VALUES) {
+                    stacked[result] = true;
+                    stack.add(result);
+                    maxStacked = Math.max(maxStacked, stack.size());
+                }
+            }
+        }
+        for (int value : stack) {
+            stacked[value] = false;
+        }
+        // two operands, or the consumer of print and one operand, are pushed above the stacked values; a value
+        // written to the state is duplicated and stored under the state and its index
+        maxStack = segmentStarts.length > 2 ? Math.max(maxStacked + 3, 4) : maxStacked + 2;
+    }
+
+    /**
+     * Takes the stacked operands of an instruction off the stack, or gives them a local if they are not on top of it
+     * in the order they are used.
+     */
+    private void popOperands(List<Integer> stack, int a, int b) {
+        boolean stackedA = a > 0 && stacked[a];
+        boolean stackedB = b > 0 && stacked[b];
+        int size = stack.size();
+        boolean inPlace;
+        if (stackedA && stackedB) {
+            inPlace = size >= 2 && stack.get(size - 2) == a && stack.get(size - 1) == b;
+        } else if (stackedA || stackedB) {
+            inPlace = size >= 1 && stack.get(size - 1) == (stackedA ? a : b);
+        } else {
+            return;
+        }
+        for (int operand : new int[]{b, a}) {
+            if (operand > 0 && stacked[operand]) {
+                stack.remove(Integer.valueOf(operand));
+                stacked[operand] = inPlace;
+            }
+        }
+    }
+
+    /**
+     * Writes a segment as a method, with short branches if they are enough.
+     */
+    private MethodCode writeSegment(int s) {
+        segment = s;
+        firstLocal = segmentStarts.length > 2 ? FIRST_SEGMENT_LOCAL : FIRST_VARIABLE_LOCAL;
+        numberLocals();
+        wideBranches = false;
+        writeCode();
+        if (codeLength > Short.MAX_VALUE) {
+            // written again so that no branch offset overflows
+            wideBranches = true;
+            writeCode();
+        }
+        return new MethodCode(Arrays.copyOf(code, codeLength), maxStack, localCount);
+    }
+
+    /**
+     * Gives an int local to every variable, then to every value of the segment that is used but not stacked, in
+     * layout order, then to the values of the state it uses.
+     */
+    private void numberLocals() {
+        locals = new int[function.getValueCount() + 1];
+        Arrays.fill(locals, -1);
+        localCount = firstLocal + function.getVariableCount();
+        for (int position = segmentStarts[segment]; position < segmentStarts[segment + 1]; position++) {
+            int result = function.getResult(instructions[position]);
+            if (result != IrFunction.NO_VALUE && !stacked[result] && uses[result] > 0) {
+                locals[result] = localCount++;
+            }
+        }
+        for (int position = segmentStarts[segment]; position < segmentStarts[segment + 1]; position++) {
+            for (int value : usedValues(instructions[position])) {
+                if (!stacked[value] && locals[value] < 0) {
+                    locals[value] = localCount++;
+                }
+            }
+        }
+    }
+
+    private void writeCode() {
+        code = new byte[1024];
+        codeLength = 0;
+        branches.clear();
+        exits.clear();
+        blockOffsets = new int[maxBlockId + 1];
+        exitOffsets = new int[maxBlockId + 1];
+        Arrays.fill(exitOffsets, -1);
+        int start = segmentStarts[segment];
+        int end = segmentStarts[segment + 1];
+        boolean segmented = segmentStarts.length > 2;
+
+        int[] entries = entryPositions.get(segment);
+        int entrySwitch = -1;
+        if (!segmented) {
+            // a variable read before being written is 0, and the verifier needs every local to be set before its use
+            for (int slot = 0; slot < function.getVariableCount(); slot++) {
+                byte1(ICONST_0);
+                store(firstLocal + slot);
+            }
+        } else {
+            // the variables and the values of the state the segment refers to are loaded, then its entry is found
+            BitSet variables = new BitSet();
+            BitSet values = new BitSet();
+            for (int position = start; position < end; position++) {
+                int instruction = instructions[position];
+                IrOpcode opcode = function.getOpcode(instruction);
+                if (opcode == IrOpcode.LOAD || opcode == IrOpcode.STORE) {
+                    variables.set(function.getA(instruction));
+                }
+                int result = function.getResult(instruction);
+                if (result != IrFunction.NO_VALUE && global[result]) {
+                    values.set(result);
+                }
+                for (int value : usedValues(instruction)) {
+                    if (global[value]) {
+                        values.set(value);
+                    }
+                }
+            }
+            for (int slot = variables.nextSetBit(0); slot >= 0; slot = variables.nextSetBit(slot + 1)) {
+                loadState(slot);
+                store(firstLocal + slot);
+            }
+            for (int value = values.nextSetBit(0); value >= 0; value = values.nextSetBit(value + 1)) {
+                loadState(globalSlots[value]);
+                store(locals[value]);
+            }
+            if (entries.length > 1) {
+                load(ENTRY_LOCAL);
+                pushInt(0xFFFF);
+                byte1(IAND);
+                entrySwitch = tableSwitch(entries.length);
+            }
+        }
+
+        int[] entryOffsets = new int[entries.length];
+        int entry = 0;
+        for (int position = start; position < end; position++) {
+            int b = blockIndices[position];
+            if (position == blockStarts[b]) {
+                blockOffsets[blocks.get(b).getId()] = codeLength;
+            }
+            if (entry < entries.length && position == entries[entry]) {
+                entryOffsets[entry++] = codeLength;
+            }
+            IrBlock next = b + 1 < blocks.size() && blockStarts[b + 1] < end ? blocks.get(b + 1) : null;
+            int instruction = instructions[position];
+            int following = following(position, end);
+            if (isFused(instruction, following)) {
+                fusedBranch(instruction, following, next);
+                position++;
+            } else {
+                writeInstruction(instruction, next);
+            }
+        }
+
+        if (segmented) {
+            if (!function.getOpcode(instructions[end - 1]).isTerminator()) {
+                // the block goes on in the next segment
+                pushInt((segment + 1) << 16);
+                branch(GOTO, EPILOGUE);
+            }
+            for (int exit = 0; exit < exits.size(); exit++) {
+                int target = exits.get(exit);
+                exitOffsets[target] = codeLength;
+                pushInt(segmentOfBlock[target] << 16 | entryOfBlock[target]);
+                branch(GOTO, EPILOGUE);
+            }
+            epilogueOffset = codeLength;
+            BitSet stored = new BitSet();
+            for (int position = start; position < end; position++) {
+                if (function.getOpcode(instructions[position]) == IrOpcode.STORE) {
+                    stored.set(function.getA(instructions[position]));
+                }
+            }
+            for (int slot = stored.nextSetBit(0); slot >= 0; slot = stored.nextSetBit(slot + 1)) {
+                byte1(ALOAD_3);
+                pushInt(slot);
+                load(firstLocal + slot);
+                byte1(IASTORE);
+            }
+            byte1(IRETURN);
+        }
+
+        for (int[] branch : branches) {
+            int offset = labelOffset(branch[2]) - branch[0];
+            if (wideBranches) {
+                patch4(branch[1], offset);
+            } else {
+                code[branch[1]] = (byte) (offset >> 8);
+                code[branch[1] + 1] = (byte) offset;
+            }
+        }
+        if (entrySwitch >= 0) {
+            patch4(switchField(entrySwitch, -1), entryOffsets[0] - entrySwitch);
+            for (int k = 0; k < entries.length; k++) {
+                patch4(switchField(entrySwitch, k), entryOffsets[k] - entrySwitch);
+            }
+        }
+    }
+
+    /**
+     * Writes run(in, out) for a function split into segments: it creates the state, then calls the segment of each
+     * entry until one returns -1.
+     */
+    private MethodCode writeDispatcher(int segmentCount) {
+        int[] segmentMethods = new int[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            segmentMethods[s] = methodConstant(10, CLASS_NAME, "segment" + s, SEGMENT_TYPE);
+        }
+        code = new byte[1024];
+        codeLength = 0;
+        pushInt(stateSize);
+        byte1(NEWARRAY);
+        byte1(T_INT);
+        byte1(ASTORE_3);
+        byte1(ICONST_0);
+        store(ENTRY_LOCAL);
+
+        int loop = codeLength;
+        load(ENTRY_LOCAL);
+        int exitBranch = codeLength;
+        byte1(IFLT);
+        byte2(0);
+        load(ENTRY_LOCAL);
+        pushInt(16);
+        byte1(ISHR);
+        int segmentSwitch = tableSwitch(segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            patch4(switchField(segmentSwitch, s), codeLength - segmentSwitch);
+            byte1(ALOAD_0);
+            byte1(ALOAD_1);
+            byte1(ALOAD_2);
+            byte1(ALOAD_3);
+            load(ENTRY_LOCAL);
+            byte1(INVOKESPECIAL);
+            byte2(segmentMethods[s]);
+            store(ENTRY_LOCAL);
+            byte1(GOTO_W);
+            byte4(loop - (codeLength - 1));
+        }
+        patch4(switchField(segmentSwitch, -1), codeLength - segmentSwitch);
+        code[exitBranch + 1] = (byte) ((codeLength - exitBranch) >> 8);
+        code[exitBranch + 2] = (byte) (codeLength - exitBranch);
+        byte1(RETURN);
+        if (codeLength > Short.MAX_VALUE) {
+            throw new IllegalStateException("Program too large for a JVM method: " + segmentCount + " segments");
+        }
+        return new MethodCode(Arrays.copyOf(code, codeLength), 5, FIRST_SEGMENT_LOCAL);
+    }
+
+    /**
+     * Writes a tableswitch on 0 to count - 1 with offsets to patch, see {@link #switchField(int, int)}.
+     *
+     * @return the position of the instruction.
+     */
+    private int tableSwitch(int count) {
+        int position = codeLength;
+        byte1(TABLESWITCH);
+        while (codeLength % 4 != 0) {
+            byte1(0);
+        }
+        byte4(0);
+        byte4(0);
+        byte4(count - 1);
+        for (int k = 0; k < count; k++) {
+            byte4(0);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the position of the offset of a case of a tableswitch, or of its default case for -1.
+     */
+    private static int switchField(int switchPosition, int index) {
+        int defaultField = (switchPosition + 4) & ~3;
+        return index < 0 ? defaultField : defaultField + 12 + 4 * index;
+    }
+
+    private void writeInstruction(int instruction, IrBlock next) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = function.getA(instruction);
+        int b = function.getB(instruction);
+        switch (opcode) {
+            case ALLOCA -> { }
+            case LOAD -> {
+                load(firstLocal + a);
+                storeResult(instruction);
+            }
+            case STORE -> {
+                operand(b);
+                store(firstLocal + a);
+            }
+            case CONST -> {
+                operand(a);
+                storeResult(instruction);
+            }
+            case NEG -> {
+                operand(a);
+                byte1(INEG);
+                storeResult(instruction);
+            }
+            case ADD -> binary(IADD, a, b, instruction);
+            case SUB -> binary(ISUB, a, b, instruction);
+            case MUL -> binary(IMUL, a, b, instruction);
+            case SDIV -> binary(IDIV, a, b, instruction);
+            case AND -> binary(IAND, a, b, instruction);
+            case OR -> binary(IOR, a, b, instruction);
+            case ICMP_EQ, ICMP_SLT -> {
+                operands(a, b);
+                // if_icmpne/if_icmpge +7; iconst_1; goto +4; iconst_0
+                byte1(opcode == IrOpcode.ICMP_EQ ? IF_ICMPNE : IF_ICMPGE);
+                byte2(7);
+                byte1(ICONST_0 + 1);
+                byte1(GOTO);
+                byte2(4);
+                byte1(ICONST_0);
+                storeResult(instruction);
+            }
+            case READ -> {
+                byte1(ALOAD_1);
+                invokeInterface(SUPPLIER, "getAsInt", "()I", 1);
+                storeResult(instruction);
+            }
+            case PRINT -> {
+                byte1(ALOAD_2);
+                if (isStacked(a)) {
+                    byte1(SWAP);
+                } else {
+                    operand(a);
+                }
+                invokeInterface(CONSUMER, "accept", "(I)V", 2);
+            }
+            case BR -> jump(function.getBlockById(a), next);
+            case CBR -> {
+                IrBlock trueTarget = function.getBlockById(b);
+                IrBlock falseTarget = function.getBlockById(function.getC(instruction));
+                if (IrFunction.isConstant(a)) {
+                    jump(function.constantValue(a) != 0 ? trueTarget : falseTarget, next);
+                } else {
+                    operand(a);
+                    conditionalJump(IFNE, IFEQ, trueTarget, falseTarget, next);
+                }
+            }
+            case RET -> {
+                if (segmentStarts.length > 2) {
+                    pushInt(-1);
+                    branch(GOTO, EPILOGUE);
+                } else {
+                    byte1(RETURN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a comparison only feeds the conditional branch right after it, which then compares itself.
+     */
+    private boolean isFused(int comparison, int following) {
+        IrOpcode opcode = function.getOpcode(comparison);
+        return (opcode == IrOpcode.ICMP_EQ || opcode == IrOpcode.ICMP_SLT)
+                && following >= 0 && function.getOpcode(following) == IrOpcode.CBR
+                && function.getA(following) == function.getResult(comparison)
+                && uses[function.getResult(comparison)] == 1;
+    }
+
+    private void fusedBranch(int comparison, int branch, IrBlock next) {
+        boolean isEqual = function.getOpcode(comparison) == IrOpcode.ICMP_EQ;
+        operands(function.getA(comparison), function.getB(comparison));
+        conditionalJump(isEqual ? IF_ICMPEQ : IF_ICMPLT, isEqual ? IF_ICMPNE : IF_ICMPGE,
+                function.getBlockById(function.getB(branch)), function.getBlockById(function.getC(branch)), next);
+    }
+
+    /**
+     * Writes a two-way branch on the operands already on the stack.
+     *
+     * @param jump the opcode jumping when the condition holds.
+     * @param inverse the opcode jumping when it does not.
+     */
+    private void conditionalJump(int jump, int inverse, IrBlock trueTarget, IrBlock falseTarget, IrBlock next) {
+        if (trueTarget == next) {
+            branch(inverse, falseTarget.getId());
+        } else {
+            branch(jump, trueTarget.getId());
+            jump(falseTarget, next);
+        }
+    }
+
+    private void jump(IrBlock target, IrBlock next) {
+        if (target != next) {
+            branch(GOTO, target.getId());
+        }
+    }
+
+    /**
+     * Writes a branch to a block, to the exit towards a block of another segment, or to {@link #EPILOGUE}.
+     */
+    private void branch(int opcode, int label) {
+        if (label != EPILOGUE && segmentOfBlock[label] != segment && exitOffsets[label] < 0) {
+            exitOffsets[label] = 0;
+            exits.add(label);
+        }
+        if (!wideBranches) {
+            branches.add(new int[]{codeLength, codeLength + 1, label});
+            byte1(opcode);
+            byte2(0);
+        } else if (opcode == GOTO) {
+            branches.add(new int[]{codeLength, codeLength + 1, label});
+            byte1(GOTO_W);
+            byte4(0);
+        } else {
+            // the inverse condition jumps over a goto_w
+            byte1(inverse(opcode));
+            byte2(8);
+            branches.add(new int[]{codeLength, codeLength + 1, label});
+            byte1(GOTO_W);
+            byte4(0);
+        }
+    }
+
+    private int labelOffset(int label) {
+        if (label == EPILOGUE) {
+            return epilogueOffset;
+        }
+        return segmentOfBlock[label] == segment ? blockOffsets[label] : exitOffsets[label];
+    }
+
+    private static int inverse(int opcode) {
+        return switch (opcode) {
+            case IFEQ -> IFNE;
+            case IFNE -> IFEQ;
+            case IF_ICMPEQ -> IF_ICMPNE;
+            case IF_ICMPNE -> IF_ICMPEQ;
+            case IF_ICMPLT -> IF_ICMPGE;
+            default -> IF_ICMPLT;
+        };
+    }
+
+    private void binary(int opcode, int a, int b, int instruction) {
+        operands(a, b);
+        byte1(opcode);
+        storeResult(instruction);
+    }
+
+    /**
+     * Pushes the two operands of an instruction; when only the second one is stacked, the first one is pushed above
+     * it and swapped.
+     */
+    private void operands(int a, int b) {
+        operand(a);
+        operand(b);
+        if (isStacked(b) && !isStacked(a)) {
+            byte1(SWAP);
+        }
+    }
+
+    private boolean isStacked(int operand) {
+        return !IrFunction.isConstant(operand) && stacked[operand];
+    }
+
+    /**
+     * Pushes an operand, unless it is a value already on the stack.
+     */
+    private void operand(int operand) {
+        if (!IrFunction.isConstant(operand)) {
+            if (!stacked[operand]) {
+                load(locals[operand]);
+            }
+            return;
+        }
+        pushInt(function.constantValue(operand));
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            byte1(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            byte1(BIPUSH);
+            byte1(value);
+        } else if (value == (short) value) {
+            byte1(SIPUSH);
+            byte2(value);
+        } else {
+            int index = integerConstant(value);
+            if (index <= 0xFF) {
+                byte1(LDC);
+                byte1(index);
+            } else {
+                byte1(LDC_W);
+                byte2(index);
+            }
+        }
+    }
+
+    private void storeResult(int instruction) {
+        int result = function.getResult(instruction);
+        if (uses[result] == 0) {
+            byte1(POP);
+        } else if (global[result]) {
+            // state[slot] = value
+            byte1(DUP);
+            store(locals[result]);
+            byte1(ALOAD_3);
+            byte1(SWAP);
+            pushInt(globalSlots[result]);
+            byte1(SWAP);
+            byte1(IASTORE);
+        } else if (!stacked[result]) {
+            store(locals[result]);
+        }
+    }
+
+    private void loadState(int slot) {
+        byte1(ALOAD_3);
+        pushInt(slot);
+        byte1(IALOAD);
+    }
+
+    private void load(int local) {
+        localInstruction(ILOAD, ILOAD_0, local);
+    }
+
+    private void store(int local) {
+        localInstruction(ISTORE, ISTORE_0, local);
+    }
+
+    private void localInstruction(int opcode, int shortOpcode, int local) {
+        if (local <= 3) {
+            byte1(shortOpcode + local);
+        } else if (local <= 0xFF) {
+            byte1(opcode);
+            byte1(local);
+        } else {
+            byte1(WIDE);
+            byte1(opcode);
+            byte2(local);
+        }
+    }
+
+    private void invokeInterface(String owner, String name, String type, int argumentSlots) {
+        int method = methodConstant(11, owner, name, type);
+        byte1(INVOKEINTERFACE);
+        byte2(method);
+        byte1(argumentSlots);
+        byte1(0);
+    }
+
+    private void byte1(int value) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, 2 * code.length);
+        }
+        code[codeLength++] = (byte) value;
+    }
+
+    private void byte2(int value) {
+        byte1(value >> 8);
+        byte1(value);
+    }
+
+    private void byte4(int value) {
+        byte2(value >> 16);
+        byte2(value);
+    }
+
+    private void patch4(int position, int value) {
+        code[position] = (byte) (value >> 24);
+        code[position + 1] = (byte) (value >> 16);
+        code[position + 2] = (byte) (value >> 8);
+        code[position + 3] = (byte) value;
+    }
+
+    // constant pool
+
+    private int utf8(String text) {
+        return constant("utf8 " + text, 1, output -> output.writeUTF(text));
+    }
+
+    private int classConstant(String name) {
+        int nameIndex = utf8(name);
+        return constant("class " + name, 7, output -> output.writeShort(nameIndex));
+    }
+
+    private int integerConstant(int value) {
+        return constant("int " + value, 3, output -> output.writeInt(value));
+    }
+
+    /**
+     * Returns the index of a Methodref (tag 10) or InterfaceMethodref (tag 11) constant.
+     */
+    private int methodConstant(int tag, String owner, String name, String type) {
+        int ownerIndex = classConstant(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(type);
+        int nameAndType = constant("nameandtype " + name + " " + type, 12, output -> {
+            output.writeShort(nameIndex);
+            output.writeShort(typeIndex);
+        });
+        return constant("method" + tag + " " + owner + "." + name + type, tag, output -> {
+            output.writeShort(ownerIndex);
+            output.writeShort(nameAndType);
+        });
+    }
+
+    private interface ConstantBody {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private int constant(String key, int tag, ConstantBody body) {
+        Integer index = constantIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            constants.writeByte(tag);
+            body.write(constants);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        constantIndices.put(key, constantCount);
+        return constantCount++;
+    }
+}
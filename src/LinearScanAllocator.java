@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Linear scan register allocation (Poletto and Sarkar) over the locals of an {@link IrFunction}: its variables and
+ * the values computed by its instructions.
+ *
+ * Liveness is computed per local, from the blocks where it is used back to those where it is defined, then every
+ * local gets a single live interval over the instructions numbered in layout order, from the first to the last
+ * position where it is live. Intervals are visited by increasing start;
+ * when no register is free, the interval that ends last is spilled to a stack slot. Locals live across a call are
+ * only given callee-saved registers.
+ */
+public class LinearScanAllocator {
+    /** Location of a local that is never live. */
+    public static final int UNUSED = -1;
+
+    private final IrFunction function;
+    private final int variableCount;
+    private final int localCount;
+    private final int callerSaved;
+    private final int registerCount;
+
+    private int[] starts;
+    private int[] ends;
+    private int[] locations;
+    private int spillSlots = 0;
+    private final BitSet usedRegisters = new BitSet();
+
+    /**
+     * Creates an allocator for a function. Registers are numbered from 0: the first ones are caller-saved, the
+     * others callee-saved.
+     *
+     * @param function the function.
+     * @param callerSaved the number of caller-saved registers.
+     * @param calleeSaved the number of callee-saved registers.
+     */
+    public LinearScanAllocator(IrFunction function, int callerSaved, int calleeSaved) {
+        this.function = function;
+        this.variableCount = function.getVariableCount();
+        this.localCount = variableCount + function.getValueCount() + 1;
+        this.callerSaved = callerSaved;
+        this.registerCount = callerSaved + calleeSaved;
+    }
+
+    /**
+     * Returns the local of a variable slot.
+     *
+     * @param slot the slot.
+     * @return the local.
+     */
+    public int variable(int slot) {
+        return slot;
+    }
+
+    /**
+     * Returns the local of a value.
+     *
+     * @param value the value.
+     * @return the local.
+     */
+    public int value(int value) {
+        return variableCount + value;
+    }
+
+    /**
+     * Allocates every local to a register or a stack slot.
+     */
+    public void allocate() {
+        buildIntervals();
+        // positions of the calls, in increasing order
+        int[] calls = new int[16];
+        int callCount = 0;
+        int position = 0;
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++, position++) {
+                IrOpcode opcode = function.getOpcode(block.get(i));
+                if (opcode == IrOpcode.READ || opcode == IrOpcode.PRINT) {
+                    if (callCount == calls.length) {
+                        calls = Arrays.copyOf(calls, callCount * 2);
+                    }
+                    calls[callCount++] = position;
+                }
+            }
+        }
+        calls = Arrays.copyOf(calls, callCount);
+
+        Integer[] order = new Integer[localCount];
+        for (int local = 0; local < localCount; local++) {
+            order[local] = local;
+        }
+        Arrays.sort(order, (x, y) -> Integer.compare(starts[x], starts[y]));
+
+        locations = new int[localCount];
+        Arrays.fill(locations, UNUSED);
+        List<Integer> active = new ArrayList<>();
+        int[] owners = new int[registerCount];
+        Arrays.fill(owners, -1);
+        for (int local : order) {
+            if (starts[local] > ends[local]) {
+                continue;
+            }
+            // the operands of an instruction are read before its result is written, so a register can be reused
+            // by a local starting where another one ends
+            for (int i = active.size() - 1; i >= 0; i--) {
+                int other = active.get(i);
+                if (ends[other] <= starts[local]) {
+                    owners[locations[other]] = -1;
+                    active.remove(i);
+                }
+            }
+            boolean crossesCall = crossesCall(calls, local);
+            int register = freeRegister(owners, crossesCall);
+            if (register < 0) {
+                // spill the interval that ends last, if it can give its register
+                int victim = -1;
+                for (int other : active) {
+                    if ((!crossesCall || locations[other] >= callerSaved)
+                            && (victim < 0 || ends[other] > ends[victim])) {
+                        victim = other;
+                    }
+                }
+                if (victim >= 0 && ends[victim] > ends[local]) {
+                    register = locations[victim];
+                    locations[victim] = registerCount + spillSlots++;
+                    active.remove(Integer.valueOf(victim));
+                } else {
+                    locations[local] = registerCount + spillSlots++;
+                    continue;
+                }
+            }
+            locations[local] = register;
+            owners[register] = local;
+            usedRegisters.set(register);
+            active.add(local);
+        }
+    }
+
+    /**
+     * Returns whether a call is strictly inside the interval of a local, by binary search of its first call after
+     * the start.
+     */
+    private boolean crossesCall(int[] calls, int local) {
+        int index = Arrays.binarySearch(calls, starts[local] + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < calls.length && calls[index] < ends[local];
+    }
+
+    private int freeRegister(int[] owners, boolean crossesCall) {
+        for (int register = crossesCall ? callerSaved : 0; register < registerCount; register++) {
+            if (owners[register] < 0) {
+                return register;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the live interval of every local: the blocks where each local is used before being defined, then a
+     * backward worklist from those blocks to the blocks it is live into and out of, stopping at the blocks that
+     * define it. Only the blocks where a local is live are visited, so the work and the memory grow with the sizes
+     * of the live ranges instead of the number of blocks times the number of locals.
+     */
+    private void buildIntervals() {
+        function.computeCfg();
+        List<IrBlock> blocks = function.getBlocks();
+        int blockCount = blocks.size();
+        int[] indices = new int[maxBlockId() + 1];
+        int[] firsts = new int[blockCount];
+        int[] lasts = new int[blockCount];
+
+        starts = new int[localCount];
+        ends = new int[localCount];
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, -1);
+        // (local, block) pairs of the upward exposed uses and of the definitions
+        LocalBlocks exposed = new LocalBlocks(localCount);
+        LocalBlocks defined = new LocalBlocks(localCount);
+        int[] definedIn = new int[localCount]; // last block defining each local, plus 1
+        int[] exposedIn = new int[localCount]; // last block using each local before defining it, plus 1
+        int position = 0;
+        for (int b = 0; b < blockCount; b++) {
+            IrBlock block = blocks.get(b);
+            indices[block.getId()] = b;
+            firsts[b] = position;
+            lasts[b] = position + block.size() - 1;
+            for (int i = 0; i < block.size(); i++, position++) {
+                int instruction = block.get(i);
+                for (int used : usedLocals(instruction)) {
+                    extend(used, position);
+                    if (definedIn[used] != b + 1 && exposedIn[used] != b + 1) {
+                        exposedIn[used] = b + 1;
+                        exposed.add(used, b);
+                    }
+                }
+                int local = definedLocal(instruction);
+                if (local >= 0) {
+                    extend(local, position);
+                    if (definedIn[local] != b + 1) {
+                        definedIn[local] = b + 1;
+                        defined.add(local, b);
+                    }
+                }
+            }
+        }
+        exposed.group();
+        defined.group();
+
+        // marks of the local being propagated: blocks defining it, and blocks it is live into and out of
+        int[] kills = new int[blockCount];
+        int[] liveIn = new int[blockCount];
+        int[] liveOut = new int[blockCount];
+        Arrays.fill(kills, -1);
+        Arrays.fill(liveIn, -1);
+        Arrays.fill(liveOut, -1);
+        int[] worklist = new int[blockCount];
+        for (int local = 0; local < localCount; local++) {
+            for (int k = defined.start(local); k < defined.start(local + 1); k++) {
+                kills[defined.block(k)] = local;
+            }
+            int pending = 0;
+            for (int k = exposed.start(local); k < exposed.start(local + 1); k++) {
+                int b = exposed.block(k);
+                liveIn[b] = local;
+                extend(local, firsts[b]);
+                worklist[pending++] = b;
+            }
+            while (pending > 0) {
+                int b = worklist[--pending];
+                for (IrBlock predecessor : blocks.get(b).getPredecessors()) {
+                    int p = indices[predecessor.getId()];
+                    if (liveOut[p] != local) {
+                        liveOut[p] = local;
+                        extend(local, lasts[p]);
+                    }
+                    if (kills[p] != local && liveIn[p] != local) {
+                        liveIn[p] = local;
+                        extend(local, firsts[p]);
+                        worklist[pending++] = p;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pairs of a local and a block, grouped by local once all of them are added.
+     */
+    private static class LocalBlocks {
+        private int[] locals = new int[16];
+        private int[] blocks = new int[16];
+        private int size = 0;
+        private final int[] starts;
+
+        LocalBlocks(int localCount) {
+            starts = new int[localCount + 1];
+        }
+
+        void add(int local, int block) {
+            if (size == locals.length) {
+                locals = Arrays.copyOf(locals, size * 2);
+                blocks = Arrays.copyOf(blocks, size * 2);
+            }
+            locals[size] = local;
+            blocks[size++] = block;
+            starts[local + 1]++;
+        }
+
+        /** Sorts the blocks by local (counting sort), after which they are read with {@link #block(int)}. */
+        void group() {
+            for (int local = 1; local < starts.length; local++) {
+                starts[local] += starts[local - 1];
+            }
+            int[] next = Arrays.copyOf(starts, starts.length - 1);
+            int[] grouped = new int[size];
+            for (int k = 0; k < size; k++) {
+                grouped[next[locals[k]]++] = blocks[k];
+            }
+            blocks = grouped;
+            locals = null;
+        }
+
+        /** Returns the index of the first block of a local; those of the local end at the start of the next one. */
+        int start(int local) {
+            return starts[local];
+        }
+
+        int block(int index) {
+            return blocks[index];
+        }
+    }
+
+    private void extend(int local, int position) {
+        starts[local] = Math.min(starts[local], position);
+        ends[local] = Math.max(ends[local], position);
+    }
+
+    private int maxBlockId() {
+        int max = 0;
+        for (IrBlock block : function.getBlocks()) {
+            max = Math.max(max, block.getId());
+        }
+        return max;
+    }
+
+    /**
+     * Returns the locals read by an instruction.
+     *
+     * @param instruction the instruction.
+     * @return the locals, constants excluded.
+     */
+    int[] usedLocals(int instruction) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        if (opcode == IrOpcode.LOAD) {
+            return new int[]{variable(function.getA(instruction))};
+        }
+        int a = IrFunction.usesValueA(opcode) ? function.getA(instruction) : IrFunction.NO_VALUE;
+        int b = IrFunction.usesValueB(opcode) ? function.getB(instruction) : IrFunction.NO_VALUE;
+        if (a > 0 && b > 0) {
+            return new int[]{value(a), value(b)};
+        } else if (a > 0) {
+            return new int[]{value(a)};
+        } else if (b > 0) {
+            return new int[]{value(b)};
+        }
+        return new int[0];
+    }
+
+    /**
+     * Returns the local written by an instruction.
+     *
+     * @param instruction the instruction.
+     * @return the local, or -1.
+     */
+    int definedLocal(int instruction) {
+        if (function.getOpcode(instruction) == IrOpcode.STORE) {
+            return variable(function.getA(instruction));
+        }
+        int result = function.getResult(instruction);
+        return result == IrFunction.NO_VALUE ? -1 : value(result);
+    }
+
+    /**
+     * Returns where a local lives after {@link #allocate()}.
+     *
+     * @param local the local.
+     * @return a register number, a stack slot number plus the number of registers, or {@link #UNUSED}.
+     */
+    public int getLocation(int local) {
+        return locations[local];
+    }
+
+    public boolean isRegister(int location) {
+        return location >= 0 && location < registerCount;
+    }
+
+    /**
+     * Returns the number of stack slots used for spilled locals.
+     *
+     * @return the number of slots.
+     */
+    public int getSpillSlots() {
+        return spillSlots;
+    }
+
+    /**
+     * Returns whether a register holds some local.
+     *
+     * @param register the register.
+     * @return true iff the register is used.
+     */
+    public boolean isUsed(int register) {
+        return usedRegisters.get(register);
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered ASCII output for the textual LLVM IR.
+ *
+ * Text is written byte by byte into a fixed buffer that is flushed to every output channel when it is full, so that
+ * emitting an instruction does not allocate: templates are pre-encoded with {@link #encode(String)}, integers are
+ * formatted digit by digit and names are copied character by character (identifiers and labels are ASCII).
+ */
+public class LlvmEmitter {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final WritableByteChannel[] outputs;
+    private final byte[] bytes;
+    private final ByteBuffer view;
+    private final byte[] digits = new byte[11];
+    private int position = 0;
+
+    /**
+     * Creates an emitter writing the same text to every output channel.
+     *
+     * @param outputs the channels, which are not closed by the emitter.
+     */
+    public LlvmEmitter(WritableByteChannel... outputs) {
+        this(DEFAULT_CAPACITY, outputs);
+    }
+
+    /**
+     * Creates an emitter with a buffer of the given size.
+     *
+     * @param capacity the size of the buffer, at least 11 bytes (the longest integer).
+     * @param outputs the channels, which are not closed by the emitter.
+     */
+    public LlvmEmitter(int capacity, WritableByteChannel... outputs) {
+        this.outputs = outputs;
+        this.bytes = new byte[Math.max(capacity, digits.length)];
+        this.view = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Encodes a template once, to be written with {@link #write(byte[])}.
+     *
+     * @param text the ASCII text.
+     * @return the encoded text.
+     */
+    public static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public LlvmEmitter write(byte[] text) {
+        int offset = 0;
+        while (offset < text.length) {
+            if (position == bytes.length) {
+                flush();
+            }
+            int length = Math.min(text.length - offset, bytes.length - position);
+            System.arraycopy(text, offset, bytes, position, length);
+            position += length;
+            offset += length;
+        }
+        return this;
+    }
+
+    public LlvmEmitter write(char c) {
+        if (position == bytes.length) {
+            flush();
+        }
+        bytes[position++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Writes a name (variable or label) without encoding it to a new array.
+     *
+     * @param name the ASCII name.
+     * @return this emitter.
+     */
+    public LlvmEmitter write(String name) {
+        if (bytes.length - position < name.length()) {
+            flush();
+            if (bytes.length < name.length()) {
+                write(encode(name));
+                return this;
+            }
+        }
+        for (int i = 0; i < name.length(); i++) {
+            bytes[position++] = (byte) name.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an integer in decimal.
+     *
+     * @param value the integer.
+     * @return this emitter.
+     */
+    public LlvmEmitter write(int value) {
+        // digits are produced on the negative side, which also covers Integer.MIN_VALUE
+        int remaining = value < 0 ? value : -value;
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        if (bytes.length - position < digits.length - start) {
+            flush();
+        }
+        System.arraycopy(digits, start, bytes, position, digits.length - start);
+        position += digits.length - start;
+        return this;
+    }
+
+    /**
+     * Writes the buffered text to the output channels.
+     */
+    public void flush() {
+        try {
+            for (WritableByteChannel output : outputs) {
+                view.clear().limit(position);
+                while (view.hasRemaining()) {
+                    output.write(view);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+}
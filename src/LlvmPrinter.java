@@ -0,0 +1,596 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders an {@link IrFunction} as a textual LLVM IR module.
+ *
+ * Values are renumbered in layout order, as LLVM requires unnamed values to be numbered sequentially; the runtime
+ * functions are appended when the program reads or prints, either calling printf/scanf or, with
+ * {@link #setBufferedIo(boolean)}, buffering the standard streams themselves. The text is produced by an {@link LlvmEmitter} from
+ * pre-encoded templates, so printing an instruction does not allocate.
+ *
+ * For profile-guided optimization, the module can count the executions of the blocks of a {@link BranchProfile} and
+ * save them when @main returns ({@link #setProfileOutput(String)}), or carry the branch weights of a profile
+ * recorded that way ({@link #setBranchProfile(BranchProfile)}).
+ */
+public class LlvmPrinter {
+    /** Definition of @println, printing an integer and a new line with printf. */
+    public static final String PRINT_FUNCTION = """
+            @.strP= private unnamed_addr constant [4 x i8] c"%d\\0A\\00", align 1
+            define void @println(i32 %var) {
+              %1= call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([4 x i8], [4 x i8]* @.strP, i32 0, i32 0), i32 %var)
+              ret void
+            }
+            declare i32 @printf(i8*, ...)
+            """;
+
+    /** Definition of @readInt, reading an integer with scanf. */
+    public static final String READ_FUNCTION = """
+            @.strR= private unnamed_addr constant [3 x i8] c"%d\\00", align 1
+            define i32 @readInt() {
+              %var= alloca i32, align 4
+              %1= call i32 (i8*, ...) @scanf(i8* getelementptr inbounds ([3 x i8], [3 x i8]* @.strR, i32 0, i32 0), i32* %var)
+              %2= load i32, i32* %var, align 4
+              ret i32 %2
+            }
+            declare i32 @scanf(i8*, ...)
+            """;
+
+    /**
+     * Definition of @readInt, parsing integers by hand from a 64 KB buffer refilled with read(2). Past the end of
+     * the input, 0 is read.
+     */
+    public static final String BUFFERED_READ_FUNCTION = """
+            @.inBuf = internal global [65536 x i8] zeroinitializer, align 16
+            @.inPos = internal global i32 0, align 4
+            @.inLen = internal global i32 0, align 4
+            declare i64 @read(i32, i8*, i64)
+            define internal i32 @readByte() {
+            entry:
+              %pos = load i32, i32* @.inPos, align 4
+              %len = load i32, i32* @.inLen, align 4
+              %empty = icmp eq i32 %pos, %len
+              br i1 %empty, label %fill, label %take
+            fill:
+              %n = call i64 @read(i32 0, i8* getelementptr inbounds ([65536 x i8], [65536 x i8]* @.inBuf, i64 0, i64 0), i64 65536)
+              %more = icmp sgt i64 %n, 0
+              br i1 %more, label %filled, label %eof
+            filled:
+              %n32 = trunc i64 %n to i32
+              store i32 %n32, i32* @.inLen, align 4
+              br label %take
+            take:
+              %at = phi i32 [ %pos, %entry ], [ 0, %filled ]
+              %at64 = sext i32 %at to i64
+              %ptr = getelementptr inbounds [65536 x i8], [65536 x i8]* @.inBuf, i64 0, i64 %at64
+              %byte = load i8, i8* %ptr, align 1
+              %after = add i32 %at, 1
+              store i32 %after, i32* @.inPos, align 4
+              %c = zext i8 %byte to i32
+              ret i32 %c
+            eof:
+              ret i32 -1
+            }
+            define i32 @readInt() {
+            entry:
+              br label %skip
+            skip:
+              %c0 = call i32 @readByte()
+              %space = icmp ult i32 %c0, 33
+              br i1 %space, label %skip, label %sign
+            sign:
+              %negative = icmp eq i32 %c0, 45
+              br i1 %negative, label %minus, label %digits
+            minus:
+              %c1 = call i32 @readByte()
+              br label %digits
+            digits:
+              %c = phi i32 [ %c0, %sign ], [ %c1, %minus ], [ %c2, %digit ]
+              %v = phi i32 [ 0, %sign ], [ 0, %minus ], [ %v2, %digit ]
+              %d = sub i32 %c, 48
+              %isDigit = icmp ult i32 %d, 10
+              br i1 %isDigit, label %digit, label %done
+            digit:
+              %v10 = mul i32 %v, 10
+              %v2 = add i32 %v10, %d
+              %c2 = call i32 @readByte()
+              br label %digits
+            done:
+              %opposite = sub i32 0, %v
+              %result = select i1 %negative, i32 %opposite, i32 %v
+              ret i32 %result
+            }
+            """;
+
+    /**
+     * Definition of @println, formatting integers by hand into a 64 KB buffer written with write(2) when it is full
+     * and when the program exits.
+     */
+    public static final String BUFFERED_PRINT_FUNCTION = """
+            @.outBuf = internal global [65536 x i8] zeroinitializer, align 16
+            @.outLen = internal global i32 0, align 4
+            @llvm.global_dtors = appending global [1 x { i32, void ()*, i8* }] [{ i32, void ()*, i8* } { i32 65535, void ()* @flushOutput, i8* null }]
+            declare i64 @write(i32, i8*, i64)
+            define internal void @flushOutput() {
+            entry:
+              %len = load i32, i32* @.outLen, align 4
+              br label %loop
+            loop:
+              %off = phi i32 [ 0, %entry ], [ %off2, %wrote ]
+              %left = sub i32 %len, %off
+              %pending = icmp sgt i32 %left, 0
+              br i1 %pending, label %flush, label %done
+            flush:
+              %off64 = sext i32 %off to i64
+              %ptr = getelementptr inbounds [65536 x i8], [65536 x i8]* @.outBuf, i64 0, i64 %off64
+              %left64 = sext i32 %left to i64
+              %n = call i64 @write(i32 1, i8* %ptr, i64 %left64)
+              %ok = icmp sgt i64 %n, 0
+              br i1 %ok, label %wrote, label %done
+            wrote:
+              %n32 = trunc i64 %n to i32
+              %off2 = add i32 %off, %n32
+              br label %loop
+            done:
+              store i32 0, i32* @.outLen, align 4
+              ret void
+            }
+            define void @println(i32 %var) {
+            entry:
+              %len0 = load i32, i32* @.outLen, align 4
+              %full = icmp sgt i32 %len0, 65524
+              br i1 %full, label %flush, label %format
+            flush:
+              call void @flushOutput()
+              br label %format
+            format:
+              %len = phi i32 [ %len0, %entry ], [ 0, %flush ]
+              %negative = icmp slt i32 %var, 0
+              %opposite = sub i32 0, %var
+              %abs = select i1 %negative, i32 %opposite, i32 %var
+              %signLen = zext i1 %negative to i32
+              %start = add i32 %len, %signLen
+              br label %count
+            count:
+              %digits = phi i32 [ 1, %format ], [ %digits1, %count ]
+              %rest = phi i32 [ %abs, %format ], [ %rest1, %count ]
+              %rest1 = udiv i32 %rest, 10
+              %digits1 = add i32 %digits, 1
+              %moreDigits = icmp ne i32 %rest1, 0
+              br i1 %moreDigits, label %count, label %minus
+            minus:
+              %len64 = sext i32 %len to i64
+              %signPtr = getelementptr inbounds [65536 x i8], [65536 x i8]* @.outBuf, i64 0, i64 %len64
+              store i8 45, i8* %signPtr, align 1
+              %end = add i32 %start, %digits
+              br label %digit
+            digit:
+              %pos = phi i32 [ %end, %minus ], [ %pos1, %digit ]
+              %value = phi i32 [ %abs, %minus ], [ %value1, %digit ]
+              %pos1 = sub i32 %pos, 1
+              %value1 = udiv i32 %value, 10
+              %remainder = urem i32 %value, 10
+              %char = add i32 %remainder, 48
+              %char8 = trunc i32 %char to i8
+              %pos64 = sext i32 %pos1 to i64
+              %digitPtr = getelementptr inbounds [65536 x i8], [65536 x i8]* @.outBuf, i64 0, i64 %pos64
+              store i8 %char8, i8* %digitPtr, align 1
+              %moreValue = icmp ne i32 %value1, 0
+              br i1 %moreValue, label %digit, label %newline
+            newline:
+              %end64 = sext i32 %end to i64
+              %newlinePtr = getelementptr inbounds [65536 x i8], [65536 x i8]* @.outBuf, i64 0, i64 %end64
+              store i8 10, i8* %newlinePtr, align 1
+              %newLen = add i32 %end, 1
+              store i32 %newLen, i32* @.outLen, align 4
+              ret void
+            }
+            """;
+
+    /**
+     * Definition of @writeProfile, writing the block counters to the profile file with open(2) and write(2), after
+     * the magic number and the checksum of the profile. The placeholders in capitals are replaced for each module.
+     */
+    public static final String PROFILE_FUNCTION = """
+            @.profCounters = internal global [COUNTERS x i64] zeroinitializer, align 16
+            @.profPath = private unnamed_addr constant [PATH_LENGTH x i8] c"PATH\\00", align 1
+            declare i32 @open(i8*, i32, ...)
+            declare i32 @close(i32)
+            define internal void @writeProfile() {
+            entry:
+              store i64 MAGIC, i64* getelementptr inbounds ([COUNTERS x i64], [COUNTERS x i64]* @.profCounters, i64 0, i64 0), align 16
+              store i64 CHECKSUM, i64* getelementptr inbounds ([COUNTERS x i64], [COUNTERS x i64]* @.profCounters, i64 0, i64 1), align 8
+              %bytes = bitcast [COUNTERS x i64]* @.profCounters to i8*
+              %fd = call i32 (i8*, i32, ...) @open(i8* getelementptr inbounds ([PATH_LENGTH x i8], [PATH_LENGTH x i8]* @.profPath, i64 0, i64 0), i32 577, i32 420)
+              %opened = icmp sge i32 %fd, 0
+              br i1 %opened, label %loop, label %done
+            loop:
+              %off = phi i64 [ 0, %entry ], [ %off2, %wrote ]
+              %left = sub i64 SIZE, %off
+              %pending = icmp sgt i64 %left, 0
+              br i1 %pending, label %flush, label %close
+            flush:
+              %ptr = getelementptr inbounds i8, i8* %bytes, i64 %off
+              %n = call i64 @write(i32 %fd, i8* %ptr, i64 %left)
+              %ok = icmp sgt i64 %n, 0
+              br i1 %ok, label %wrote, label %close
+            wrote:
+              %off2 = add i64 %off, %n
+              br label %loop
+            close:
+              %closed = call i32 @close(i32 %fd)
+              br label %done
+            done:
+              ret void
+            }
+            """;
+
+    private static final byte[] PRINT_RUNTIME = LlvmEmitter.encode(PRINT_FUNCTION);
+    private static final byte[] READ_RUNTIME = LlvmEmitter.encode(READ_FUNCTION);
+    private static final byte[] BUFFERED_PRINT_RUNTIME = LlvmEmitter.encode(BUFFERED_PRINT_FUNCTION);
+    private static final byte[] BUFFERED_READ_RUNTIME = LlvmEmitter.encode(BUFFERED_READ_FUNCTION);
+    private static final byte[] DEFINE_MAIN = LlvmEmitter.encode("define i32 @main() {\n");
+    private static final byte[] END_MAIN = LlvmEmitter.encode("}\n");
+    private static final byte[] LABEL_END = LlvmEmitter.encode(":\n");
+    private static final byte[] RESULT = LlvmEmitter.encode("  %");
+    private static final byte[] ASSIGN = LlvmEmitter.encode("= ");
+    private static final byte[] ALLOCA = LlvmEmitter.encode("= alloca i32");
+    private static final byte[] LOAD = LlvmEmitter.encode("load i32, i32* %");
+    private static final byte[] STORE = LlvmEmitter.encode("  store i32 ");
+    private static final byte[] POINTER = LlvmEmitter.encode(", i32* %");
+    private static final byte[] CONST = LlvmEmitter.encode("add i32 0 , ");
+    private static final byte[] NEG = LlvmEmitter.encode("mul i32  -1 , ");
+    private static final byte[] ADD = LlvmEmitter.encode("add i32 ");
+    private static final byte[] SUB = LlvmEmitter.encode("sub i32 ");
+    private static final byte[] MUL = LlvmEmitter.encode("mul i32 ");
+    private static final byte[] SDIV = LlvmEmitter.encode("sdiv i32 ");
+    private static final byte[] CONST_NSW = LlvmEmitter.encode("add nsw i32 0 , ");
+    private static final byte[] NEG_NSW = LlvmEmitter.encode("mul nsw i32  -1 , ");
+    private static final byte[] ADD_NSW = LlvmEmitter.encode("add nsw i32 ");
+    private static final byte[] SUB_NSW = LlvmEmitter.encode("sub nsw i32 ");
+    private static final byte[] MUL_NSW = LlvmEmitter.encode("mul nsw i32 ");
+    private static final byte[] ICMP_EQ = LlvmEmitter.encode("icmp eq i32 ");
+    private static final byte[] ICMP_SLT = LlvmEmitter.encode("icmp slt i32 ");
+    private static final byte[] AND = LlvmEmitter.encode("and i1 ");
+    private static final byte[] OR = LlvmEmitter.encode("or i1 ");
+    private static final byte[] READ = LlvmEmitter.encode("call i32 @readInt()");
+    private static final byte[] PRINT = LlvmEmitter.encode("  call void @println(i32 ");
+    private static final byte[] BR = LlvmEmitter.encode("  br label %");
+    private static final byte[] CBR = LlvmEmitter.encode("  br i1 ");
+    private static final byte[] LABEL = LlvmEmitter.encode(", label %");
+    private static final byte[] RET = LlvmEmitter.encode("ret i32 0");
+    private static final byte[] SEPARATOR = LlvmEmitter.encode(", ");
+    private static final byte[] TRUE = LlvmEmitter.encode("true");
+    private static final byte[] FALSE = LlvmEmitter.encode("false");
+    private static final byte[] TARGET = LlvmEmitter.encode("""
+            target datalayout = "e-m:e-p270:32:32-p271:32:32-p272:64:64-i64:64-f80:128-n8:16:32:64-S128"
+            target triple = "x86_64-pc-linux-gnu"
+            """);
+    private static final byte[] DEFINE_MAIN_WITH_ATTRIBUTES = LlvmEmitter.encode("define i32 @main() #0 {\n");
+    private static final byte[] LOOP = LlvmEmitter.encode(", !llvm.loop !");
+    private static final byte[] ATTRIBUTES = LlvmEmitter.encode("""
+            attributes #0 = { nounwind norecurse }
+            attributes #1 = { alwaysinline nounwind }
+            !0 = !{!"llvm.loop.mustprogress"}
+            """);
+    private static final byte[] WRITE_DECLARATION = LlvmEmitter.encode("declare i64 @write(i32, i8*, i64)\n");
+    private static final byte[] WRITE_PROFILE = LlvmEmitter.encode("  call void @writeProfile()\n");
+    private static final byte[] PROF = LlvmEmitter.encode(", !prof !");
+    private static final byte[] COUNTER_LOAD = LlvmEmitter.encode("  %prof.");
+    private static final byte[] COUNTER_ADD = LlvmEmitter.encode(".inc = add i64 %prof.");
+    private static final byte[] COUNTER_STORE = LlvmEmitter.encode("  store i64 %prof.");
+    private static final byte[] INCREMENT = LlvmEmitter.encode(", 1\n");
+
+    private IrFunction function;
+    private int[] numbers;
+    private LlvmEmitter out;
+    private boolean bufferedIo = false;
+    private boolean optimizationHints = false;
+    private DominatorTree dominators;
+    private int[] loopIds;
+    private String profileOutput = null;
+    private BranchProfile profile = null;
+    private int[] counterIndices;
+    private byte[] counterAddress;
+    private List<int[]> metadata;
+
+    /**
+     * Chooses the runtime functions appended to the module.
+     *
+     * @param enabled true for the buffered runtime, false for the printf/scanf one (default).
+     */
+    public void setBufferedIo(boolean enabled) {
+        this.bufferedIo = enabled;
+    }
+
+    /**
+     * Annotates the module for the LLVM optimizer: nsw on add/sub/mul (programs are assumed not to overflow),
+     * nounwind and norecurse on @main, internal linkage and alwaysinline on the runtime functions, the x86-64 Linux
+     * data layout and triple, and llvm.loop.mustprogress metadata on the back edges of loops.
+     *
+     * @param enabled true to annotate the module, false to print it as is (default).
+     */
+    public void setOptimizationHints(boolean enabled) {
+        this.optimizationHints = enabled;
+    }
+
+    /**
+     * Instruments the module for profile-guided optimization: the "if", "Else", "While" and "CondWhile" blocks
+     * counted by a {@link BranchProfile} increment a 64-bit counter each time they run, and @main saves the counters
+     * to a profile file before it returns. The file is opened with the flags of Linux.
+     *
+     * @param path the path of the profile file, relative to the directory the program runs in; null not to
+     *             instrument the module (default).
+     */
+    public void setProfileOutput(String path) {
+        this.profileOutput = path;
+    }
+
+    /**
+     * Annotates the conditional branches of the if and while statements with the branch weights of a profile
+     * (!prof metadata), see {@link BranchProfile#branchWeights(IrFunction, int)}.
+     *
+     * @param profile a profile attached to the function printed, or null not to annotate the branches (default).
+     */
+    public void setBranchProfile(BranchProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Returns the definition of @readInt.
+     *
+     * @param bufferedIo true for the buffered runtime.
+     * @return the LLVM IR.
+     */
+    public static String readFunction(boolean bufferedIo) {
+        return bufferedIo ? BUFFERED_READ_FUNCTION : READ_FUNCTION;
+    }
+
+    /**
+     * Returns the definition of @println.
+     *
+     * @param bufferedIo true for the buffered runtime.
+     * @return the LLVM IR.
+     */
+    public static String printFunction(boolean bufferedIo) {
+        return bufferedIo ? BUFFERED_PRINT_FUNCTION : PRINT_FUNCTION;
+    }
+
+    /**
+     * Renders a function as the @main function of a module.
+     *
+     * @param function the function.
+     * @return the LLVM IR module.
+     */
+    public String print(IrFunction function) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(function, Channels.newChannel(output));
+        return output.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes a function as the @main function of a module to every output channel.
+     *
+     * @param function the function.
+     * @param outputs the channels, which are left open.
+     */
+    public void write(IrFunction function, WritableByteChannel... outputs) {
+        this.function = function;
+        this.numbers = new int[function.getValueCount() + 1];
+        this.out = new LlvmEmitter(outputs);
+        int next = 0;
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int result = function.getResult(block.get(i));
+                if (result != IrFunction.NO_VALUE) {
+                    numbers[result] = ++next;
+                }
+            }
+        }
+
+        int maxBlockId = function.getBlocks().stream().mapToInt(IrBlock::getId).max().orElse(0);
+        metadata = new ArrayList<>();
+        List<IrBlock> countedBlocks = null;
+        if (profileOutput != null) {
+            countedBlocks = BranchProfile.countedBlocks(function);
+            counterIndices = new int[maxBlockId + 1];
+            for (int i = 0; i < countedBlocks.size(); i++) {
+                counterIndices[countedBlocks.get(i).getId()] = BranchProfile.HEADER_LENGTH + i;
+            }
+            int counters = BranchProfile.HEADER_LENGTH + countedBlocks.size();
+            counterAddress = LlvmEmitter.encode(", i64* getelementptr inbounds ([" + counters + " x i64], ["
+                    + counters + " x i64]* @.profCounters, i64 0, i64 ");
+        }
+        if (optimizationHints) {
+            dominators = new DominatorTree(function);
+            loopIds = new int[maxBlockId + 1];
+            out.write(TARGET).write(DEFINE_MAIN_WITH_ATTRIBUTES);
+        } else {
+            out.write(DEFINE_MAIN);
+        }
+        for (IrBlock block : function.getBlocks()) {
+            if (block.getName() != null) {
+                out.write(block.getName()).write(LABEL_END);
+            }
+            if (profileOutput != null && counterIndices[block.getId()] != 0) {
+                writeCounterIncrement(block);
+            }
+            for (int i = 0; i < block.size(); i++) {
+                writeInstruction(block, block.get(i));
+            }
+        }
+        out.write(END_MAIN);
+        if (function.contains(IrOpcode.READ)) {
+            out.write(optimizationHints ? LlvmEmitter.encode(internalRuntime(readFunction(bufferedIo)))
+                    : bufferedIo ? BUFFERED_READ_RUNTIME : READ_RUNTIME);
+        }
+        if (function.contains(IrOpcode.PRINT)) {
+            out.write(optimizationHints ? LlvmEmitter.encode(internalRuntime(printFunction(bufferedIo)))
+                    : bufferedIo ? BUFFERED_PRINT_RUNTIME : PRINT_RUNTIME);
+        }
+        if (profileOutput != null) {
+            writeProfileRuntime(countedBlocks);
+        }
+        if (optimizationHints) {
+            out.write(ATTRIBUTES);
+        }
+        for (int id = 1; id <= metadata.size(); id++) {
+            int[] weights = metadata.get(id - 1);
+            if (weights == null) {
+                out.write('!').write(id).write(" = distinct !{!").write(id).write(", !0}\n");
+            } else {
+                out.write('!').write(id).write(" = !{!\"branch_weights\", i32 ").write(weights[0])
+                        .write(", i32 ").write(weights[1]).write("}\n");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Adds one to the counter of a block, with named values so that the numbering of the others is unchanged.
+     */
+    private void writeCounterIncrement(IrBlock block) {
+        int index = counterIndices[block.getId()];
+        out.write(COUNTER_LOAD).write(block.getName()).write(" = load i64").write(counterAddress).write(index)
+                .write("), align 8\n");
+        out.write(COUNTER_LOAD).write(block.getName()).write(COUNTER_ADD).write(block.getName()).write(INCREMENT);
+        out.write(COUNTER_STORE).write(block.getName()).write(".inc").write(counterAddress).write(index)
+                .write("), align 8\n");
+    }
+
+    /**
+     * Writes @writeProfile, the counters and the path of the profile file.
+     */
+    private void writeProfileRuntime(List<IrBlock> countedBlocks) {
+        StringBuilder path = new StringBuilder();
+        byte[] pathBytes = profileOutput.getBytes(StandardCharsets.UTF_8);
+        for (byte b : pathBytes) {
+            if (b >= ' ' && b < 0x7F && b != '"' && b != '\\') {
+                path.append((char) b);
+            } else {
+                path.append(String.format("\\%02X", b & 0xFF));
+            }
+        }
+        int counters = BranchProfile.HEADER_LENGTH + countedBlocks.size();
+        out.write(PROFILE_FUNCTION.replace("COUNTERS", Integer.toString(counters))
+                .replace("PATH_LENGTH", Integer.toString(pathBytes.length + 1))
+                .replace("MAGIC", Long.toString(BranchProfile.MAGIC))
+                .replace("CHECKSUM", Long.toString(BranchProfile.checksum(countedBlocks)))
+                .replace("SIZE", Integer.toString(counters * Long.BYTES))
+                .replace("PATH", path.toString()));
+        if (!bufferedIo || !function.contains(IrOpcode.PRINT)) {
+            out.write(WRITE_DECLARATION); // else declared by the buffered @println
+        }
+    }
+
+    /**
+     * Gives the runtime functions internal linkage and the alwaysinline attribute group.
+     */
+    private static String internalRuntime(String runtime) {
+        return runtime.replace("define void @println(i32 %var) {", "define internal void @println(i32 %var) #1 {")
+                .replace("define i32 @readInt() {", "define internal i32 @readInt() #1 {");
+    }
+
+    private void writeInstruction(IrBlock block, int instruction) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = function.getA(instruction);
+        int b = function.getB(instruction);
+        if (opcode.hasResult()) {
+            out.write(RESULT).write(numbers[function.getResult(instruction)]).write(ASSIGN);
+        }
+        switch (opcode) {
+            case ALLOCA -> out.write(RESULT).write(function.getVariableName(a)).write(ALLOCA);
+            case LOAD -> out.write(LOAD).write(function.getVariableName(a));
+            case STORE -> {
+                out.write(STORE);
+                operand(b, false).write(POINTER).write(function.getVariableName(a));
+            }
+            case CONST -> unary(optimizationHints ? CONST_NSW : CONST, a);
+            case NEG -> unary(optimizationHints ? NEG_NSW : NEG, a);
+            case ADD -> binary(optimizationHints ? ADD_NSW : ADD, a, b, false);
+            case SUB -> binary(optimizationHints ? SUB_NSW : SUB, a, b, false);
+            case MUL -> binary(optimizationHints ? MUL_NSW : MUL, a, b, false);
+            case SDIV -> binary(SDIV, a, b, false);
+            case ICMP_EQ -> binary(ICMP_EQ, a, b, false);
+            case ICMP_SLT -> binary(ICMP_SLT, a, b, false);
+            case AND -> binary(AND, a, b, true);
+            case OR -> binary(OR, a, b, true);
+            case READ -> out.write(READ);
+            case PRINT -> {
+                out.write(PRINT);
+                operand(a, false).write(')');
+            }
+            case BR -> {
+                out.write(BR).write(function.getBlockById(a).getName());
+                loopMetadata(block, a, IrFunction.NO_VALUE);
+            }
+            case CBR -> {
+                out.write(CBR);
+                operand(a, true).write(LABEL).write(function.getBlockById(b).getName())
+                        .write(LABEL).write(function.getBlockById(function.getC(instruction)).getName());
+                branchWeights(instruction);
+                loopMetadata(block, b, function.getC(instruction));
+            }
+            case RET -> {
+                if (profileOutput != null) {
+                    out.write(WRITE_PROFILE);
+                }
+                out.write(RET);
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Marks a branch going back to the header of its loop, i.e. to a block dominating it, with the id of the loop.
+     */
+    private void loopMetadata(IrBlock block, int target, int otherTarget) {
+        if (!optimizationHints) {
+            return;
+        }
+        for (int id : new int[]{target, otherTarget}) {
+            if (id != IrFunction.NO_VALUE && dominators.dominates(function.getBlockById(id), block)) {
+                if (loopIds[id] == 0) {
+                    metadata.add(null);
+                    loopIds[id] = metadata.size();
+                }
+                out.write(LOOP).write(loopIds[id]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Attaches the branch weights of the profile to a conditional branch of an if or while statement.
+     */
+    private void branchWeights(int instruction) {
+        int[] weights = profile == null ? null : profile.branchWeights(function, instruction);
+        if (weights != null) {
+            metadata.add(weights);
+            out.write(PROF).write(metadata.size());
+        }
+    }
+
+    private void unary(byte[] mnemonic, int a) {
+        out.write(mnemonic);
+        operand(a, false);
+    }
+
+    private void binary(byte[] mnemonic, int a, int b, boolean isBoolean) {
+        out.write(mnemonic);
+        operand(a, isBoolean).write(SEPARATOR);
+        operand(b, isBoolean);
+    }
+
+    private LlvmEmitter operand(int operand, boolean isBoolean) {
+        if (IrFunction.isConstant(operand)) {
+            int value = function.constantValue(operand);
+            return isBoolean ? out.write(value != 0 ? TRUE : FALSE) : out.write(value);
+        }
+        return out.write('%').write(numbers[operand]);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Store-to-load forwarding and redundant load elimination.
+ *
+ * The analysis is local to each basic block: entering a block (a label) forgets everything. Within a block, the
+ * last value stored to or loaded from every variable slot is remembered, and a later load of the same slot is
+ * replaced by that value. Calls (<code>@readInt</code>, <code>@println</code>) do not invalidate anything, as the
+ * slots are allocas whose address never escapes; the result of <code>@readInt</code> is only known through the
+ * store that follows it. Loads whose result is never used are removed as well.
+ */
+public class LoadForwarding implements IrPass {
+    private int forwardedLoads = 0;
+    private int deadLoads = 0;
+
+    @Override
+    public String getName() {
+        return "load-forwarding";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        int[] replacements = new int[function.getValueCount() + 1];
+        int[] slotValues = new int[function.getVariableCount()];
+        for (IrBlock block : function.getBlocks()) {
+            Arrays.fill(slotValues, IrFunction.NO_VALUE);
+            forwardedLoads += block.retain(instruction -> {
+                switch (function.getOpcode(instruction)) {
+                    case LOAD -> {
+                        int slot = function.getA(instruction);
+                        if (slotValues[slot] != IrFunction.NO_VALUE) {
+                            replacements[function.getResult(instruction)] = slotValues[slot];
+                            return false;
+                        }
+                        slotValues[slot] = function.getResult(instruction);
+                    }
+                    case STORE -> slotValues[function.getA(instruction)] =
+                            IrFunction.resolve(replacements, function.getB(instruction));
+                    default -> { }
+                }
+                return true;
+            });
+        }
+        function.replaceUses(replacements);
+        deadLoads += DeadCodeElimination.removeUnused(function, IrOpcode.LOAD);
+    }
+
+    /**
+     * Returns the number of loads replaced by a value already known in their block.
+     *
+     * @return the number of forwarded loads.
+     */
+    public int getForwardedLoads() {
+        return forwardedLoads;
+    }
+
+    /**
+     * Returns the number of loads removed because their result was never used.
+     *
+     * @return the number of dead loads.
+     */
+    public int getDeadLoads() {
+        return deadLoads;
+    }
+}
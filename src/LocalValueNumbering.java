@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * Block-local common subexpression elimination by value numbering.
+ *
+ * Within a block, every arithmetic, comparison and boolean instruction is looked up in a hash table keyed on its
+ * opcode and operands (ordered for commutative opcodes), after replacing the operands by the values they were
+ * found equal to. An instruction already in the table is removed and its uses are given the earlier value. Loads
+ * are numbered per variable slot and forgotten when the slot is stored to, which also covers the store of the
+ * result of <code>@readInt</code>; reads and prints are never numbered. Entering a block forgets everything.
+ */
+public class LocalValueNumbering implements IrPass {
+    private int reusedInstructions = 0;
+
+    // open addressing hash table, whose entries are only valid for the block they were added in
+    private int[] keyOpcodes;
+    private int[] keyA;
+    private int[] keyB;
+    private int[] values;
+    private int[] entryBlocks;
+    private int mask;
+
+    @Override
+    public String getName() {
+        return "local-value-numbering";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        int maxBlockSize = 0;
+        for (IrBlock block : function.getBlocks()) {
+            maxBlockSize = Math.max(maxBlockSize, block.size());
+        }
+        int capacity = Integer.highestOneBit(Math.max(maxBlockSize, 8) * 2 - 1) * 2;
+        keyOpcodes = new int[capacity];
+        keyA = new int[capacity];
+        keyB = new int[capacity];
+        values = new int[capacity];
+        entryBlocks = new int[capacity];
+        Arrays.fill(entryBlocks, -1);
+        mask = capacity - 1;
+
+        int[] replacements = new int[function.getValueCount() + 1];
+        int[] slotValues = new int[function.getVariableCount()];
+        int blockCount = 0;
+        for (IrBlock block : function.getBlocks()) {
+            Arrays.fill(slotValues, IrFunction.NO_VALUE);
+            int blockNumber = blockCount++;
+            reusedInstructions += block.retain(instruction -> {
+                IrOpcode opcode = function.getOpcode(instruction);
+                int result = function.getResult(instruction);
+                int a = function.getA(instruction);
+                int b = function.getB(instruction);
+                int known;
+                switch (opcode) {
+                    case LOAD -> {
+                        known = slotValues[a];
+                        if (known == IrFunction.NO_VALUE) {
+                            slotValues[a] = result;
+                        }
+                    }
+                    case STORE -> {
+                        slotValues[a] = IrFunction.NO_VALUE;
+                        return true;
+                    }
+                    case CONST -> known = lookup(blockNumber, opcode, a, IrFunction.NO_VALUE, result);
+                    case NEG -> known = lookup(blockNumber, opcode,
+                            IrFunction.resolve(replacements, a), IrFunction.NO_VALUE, result);
+                    case ADD, SUB, MUL, SDIV, ICMP_EQ, ICMP_SLT, AND, OR -> {
+                        a = IrFunction.resolve(replacements, a);
+                        b = IrFunction.resolve(replacements, b);
+                        if (isCommutative(opcode) && a > b) {
+                            int swap = a;
+                            a = b;
+                            b = swap;
+                        }
+                        known = lookup(blockNumber, opcode, a, b, result);
+                    }
+                    default -> {
+                        return true;
+                    }
+                }
+                if (known != IrFunction.NO_VALUE) {
+                    replacements[result] = known;
+                    return false;
+                }
+                return true;
+            });
+        }
+        function.replaceUses(replacements);
+    }
+
+    private static boolean isCommutative(IrOpcode opcode) {
+        return switch (opcode) {
+            case ADD, MUL, ICMP_EQ, AND, OR -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Looks an instruction up in the table of the current block, adding it if it is not there.
+     *
+     * @return the value of the equal instruction found, or {@link IrFunction#NO_VALUE} if it was added.
+     */
+    private int lookup(int blockNumber, IrOpcode opcode, int a, int b, int result) {
+        int slot = (opcode.ordinal() * 31 + a) * 0x9E3779B1 + b;
+        slot = (slot ^ (slot >>> 16)) & mask;
+        while (entryBlocks[slot] == blockNumber) {
+            if (keyOpcodes[slot] == opcode.ordinal() && keyA[slot] == a && keyB[slot] == b) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        entryBlocks[slot] = blockNumber;
+        keyOpcodes[slot] = opcode.ordinal();
+        keyA[slot] = a;
+        keyB[slot] = b;
+        values[slot] = result;
+        return IrFunction.NO_VALUE;
+    }
+
+    /**
+     * Returns the number of instructions removed because an equal one was computed earlier in their block.
+     *
+     * @return the number of reused instructions.
+     */
+    public int getReusedInstructions() {
+        return reusedInstructions;
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Natural loops of an {@link IrFunction}.
+ *
+ * A back-edge is an edge whose target dominates its source; the natural loop of a header is the header plus every
+ * block that reaches one of its back-edges without going through the header. Loops sharing a header are merged.
+ */
+public class LoopInfo {
+    /**
+     * A natural loop.
+     */
+    public static final class Loop {
+        private final IrBlock header;
+        private final BitSet blocks = new BitSet();
+        private final List<IrBlock> latches = new ArrayList<>();
+
+        private Loop(IrBlock header) {
+            this.header = header;
+            blocks.set(header.getId());
+        }
+
+        public IrBlock getHeader() {
+            return header;
+        }
+
+        /**
+         * Returns the blocks jumping back to the header.
+         *
+         * @return the sources of the back-edges.
+         */
+        public List<IrBlock> getLatches() {
+            return latches;
+        }
+
+        public boolean contains(IrBlock block) {
+            return blocks.get(block.getId());
+        }
+
+        /**
+         * Returns the blocks of the loop, in the layout order of the function.
+         *
+         * @param function the function containing the loop.
+         * @return the blocks of the loop.
+         */
+        public List<IrBlock> getBlocks(IrFunction function) {
+            List<IrBlock> result = new ArrayList<>();
+            for (IrBlock block : function.getBlocks()) {
+                if (contains(block)) {
+                    result.add(block);
+                }
+            }
+            return result;
+        }
+    }
+
+    private final List<Loop> loops = new ArrayList<>();
+    private final Loop[] loopsByHeader;
+    private final int[] depths;
+
+    /**
+     * Finds the natural loops of a function.
+     *
+     * @param function the function.
+     * @param dominators the dominator tree of the function.
+     */
+    public LoopInfo(IrFunction function, DominatorTree dominators) {
+        int blockCount = 0;
+        for (IrBlock block : function.getBlocks()) {
+            blockCount = Math.max(blockCount, block.getId() + 1);
+        }
+        loopsByHeader = new Loop[blockCount];
+        depths = new int[blockCount];
+        for (IrBlock header : dominators.getReversePostorder()) {
+            Loop loop = null;
+            for (IrBlock latch : header.getPredecessors()) {
+                if (!dominators.dominates(header, latch)) {
+                    continue;
+                }
+                if (loop == null) {
+                    loop = new Loop(header);
+                    loops.add(loop);
+                    loopsByHeader[header.getId()] = loop;
+                }
+                loop.latches.add(latch);
+                List<IrBlock> worklist = new ArrayList<>();
+                worklist.add(latch);
+                while (!worklist.isEmpty()) {
+                    IrBlock block = worklist.remove(worklist.size() - 1);
+                    if (loop.blocks.get(block.getId()) || !dominators.isReachable(block)) {
+                        continue;
+                    }
+                    loop.blocks.set(block.getId());
+                    worklist.addAll(block.getPredecessors());
+                }
+            }
+        }
+        for (Loop loop : loops) {
+            for (int id = loop.blocks.nextSetBit(0); id >= 0; id = loop.blocks.nextSetBit(id + 1)) {
+                depths[id]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the loops, outer loops first.
+     *
+     * @return the natural loops of the function.
+     */
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * Returns the loop of a header.
+     *
+     * @param header the block.
+     * @return the loop whose header is the block, or null if it is not a loop header.
+     */
+    public Loop getLoop(IrBlock header) {
+        return header.getId() < loopsByHeader.length ? loopsByHeader[header.getId()] : null;
+    }
+
+    /**
+     * Returns the number of loops containing a block.
+     *
+     * @param block the block.
+     * @return the loop nesting depth of the block (0 outside loops).
+     */
+    public int getDepth(IrBlock block) {
+        return block.getId() < depths.length ? depths[block.getId()] : 0;
+    }
+}
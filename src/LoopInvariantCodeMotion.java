@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loop-invariant code motion for while loops.
+ *
+ * For every natural loop, innermost first, the variables stored in the loop are collected; loads of the other
+ * variables and arithmetic whose operands are constants, values computed before the loop or other invariant
+ * values are moved to a preheader block created just before the loop header (e.g. <code>PreCondWhile0</code>
+ * before <code>CondWhile0</code>), so that they are evaluated once instead of on every iteration.
+ *
+ * Hoisted instructions are executed even if the loop body is not, so only instructions that cannot trap are
+ * moved: a division is only hoisted when its divisor is a constant other than 0 and -1, and
+ * <code>@readInt</code> calls, whose side effect is to consume the input, are never moved (the variable they
+ * store to is assigned in the loop, so its loads stay too). Allocas are first moved to the entry block, so that
+ * they dominate every preheader.
+ */
+public class LoopInvariantCodeMotion implements IrPass {
+    private int hoistedInstructions = 0;
+    private int createdPreheaders = 0;
+    private final List<IrBlock> preheaders = new ArrayList<>();
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        hoistAllocas(function);
+        LoopInfo nesting = new LoopInfo(function, new DominatorTree(function));
+        List<IrBlock> headers = new ArrayList<>();
+        for (LoopInfo.Loop loop : nesting.getLoops()) {
+            headers.add(loop.getHeader());
+        }
+        headers.sort((first, second) -> nesting.getDepth(second) - nesting.getDepth(first));
+
+        LoopInfo loopInfo = nesting;
+        for (IrBlock header : headers) {
+            // Preheaders created for inner loops belong to the outer ones: loops are recomputed after each of them
+            if (hoist(function, loopInfo.getLoop(header))) {
+                loopInfo = new LoopInfo(function, new DominatorTree(function));
+            }
+        }
+        removeEmptyPreheaders(function);
+    }
+
+    private static void hoistAllocas(IrFunction function) {
+        List<Integer> allocas = new ArrayList<>();
+        for (IrBlock block : function.getBlocks()) {
+            block.retain(instruction -> {
+                if (function.getOpcode(instruction) == IrOpcode.ALLOCA) {
+                    allocas.add(instruction);
+                    return false;
+                }
+                return true;
+            });
+        }
+        IrBlock entry = function.getBlocks().get(0);
+        for (int i = 0; i < allocas.size(); i++) {
+            entry.insert(i, allocas.get(i));
+        }
+    }
+
+    /**
+     * Moves the invariant instructions of a loop to a new preheader.
+     *
+     * @return true if a preheader was created, false if nothing could be hoisted.
+     */
+    private boolean hoist(IrFunction function, LoopInfo.Loop loop) {
+        List<IrBlock> blocks = loop.getBlocks(function);
+        boolean[] isStored = new boolean[function.getVariableCount()];
+        boolean[] isDefinedInLoop = new boolean[function.getValueCount() + 1];
+        for (IrBlock block : blocks) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.getOpcode(instruction) == IrOpcode.STORE) {
+                    isStored[function.getA(instruction)] = true;
+                }
+                isDefinedInLoop[function.getResult(instruction)] = true;
+            }
+        }
+        isDefinedInLoop[IrFunction.NO_VALUE] = false;
+
+        boolean[] isInvariant = new boolean[function.getValueCount() + 1];
+        List<Integer> hoisted = new ArrayList<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IrBlock block : blocks) {
+                changed |= block.retain(instruction -> {
+                    int result = function.getResult(instruction);
+                    if (result != IrFunction.NO_VALUE && !isInvariant[result]
+                            && isHoistable(function, instruction, isStored, isDefinedInLoop, isInvariant)) {
+                        isInvariant[result] = true;
+                        hoisted.add(instruction);
+                        return false;
+                    }
+                    return true;
+                }) > 0;
+            }
+        }
+        if (hoisted.isEmpty()) {
+            return false;
+        }
+
+        IrBlock preheader = createPreheader(function, loop);
+        for (int instruction : hoisted) {
+            preheader.insert(preheader.size() - 1, instruction);
+        }
+        hoistedInstructions += hoisted.size();
+        return true;
+    }
+
+    private static boolean isHoistable(IrFunction function, int instruction, boolean[] isStored,
+                                       boolean[] isDefinedInLoop, boolean[] isInvariant) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = function.getA(instruction);
+        int b = function.getB(instruction);
+        switch (opcode) {
+            case LOAD:
+                return !isStored[a];
+            case CONST:
+                return true;
+            case SDIV:
+                if (!IrFunction.isConstant(b) || function.constantValue(b) == 0 || function.constantValue(b) == -1) {
+                    return false; // may trap
+                }
+                return isInvariantOperand(a, isDefinedInLoop, isInvariant);
+            case NEG:
+                return isInvariantOperand(a, isDefinedInLoop, isInvariant);
+            case ADD:
+            case SUB:
+            case MUL:
+            case ICMP_EQ:
+            case ICMP_SLT:
+            case AND:
+            case OR:
+                return isInvariantOperand(a, isDefinedInLoop, isInvariant)
+                        && isInvariantOperand(b, isDefinedInLoop, isInvariant);
+            default:
+                return false; // @readInt, and instructions without result
+        }
+    }
+
+    private static boolean isInvariantOperand(int operand, boolean[] isDefinedInLoop, boolean[] isInvariant) {
+        return IrFunction.isConstant(operand) || !isDefinedInLoop[operand] || isInvariant[operand];
+    }
+
+    private IrBlock createPreheader(IrFunction function, LoopInfo.Loop loop) {
+        IrBlock header = loop.getHeader();
+        IrBlock preheader = function.newBlock("Pre" + header.getName());
+        function.placeBlockBefore(preheader, header);
+        for (IrBlock predecessor : new ArrayList<>(header.getPredecessors())) {
+            if (!loop.contains(predecessor)) {
+                function.retarget(predecessor.getTerminator(), header, preheader);
+            }
+        }
+        preheader.add(function.createInstruction(IrOpcode.BR, header.getId(), IrFunction.NO_VALUE,
+                IrFunction.NO_VALUE));
+        function.computeCfg();
+        preheaders.add(preheader);
+        return preheader;
+    }
+
+    private void removeEmptyPreheaders(IrFunction function) {
+        // Everything hoisted into the preheader of an inner loop may have moved on to an outer preheader
+        for (IrBlock preheader : preheaders) {
+            if (preheader.size() == 1) {
+                IrBlock header = preheader.getSuccessors().get(0);
+                for (IrBlock predecessor : preheader.getPredecessors()) {
+                    function.retarget(predecessor.getTerminator(), preheader, header);
+                }
+                function.getBlocks().remove(preheader);
+                function.computeCfg();
+            } else {
+                createdPreheaders++;
+            }
+        }
+        preheaders.clear();
+    }
+
+    public int getHoistedInstructions() {
+        return hoistedInstructions;
+    }
+
+    public int getCreatedPreheaders() {
+        return createdPreheaders;
+    }
+}
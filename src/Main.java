@@ -1,37 +1,525 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Project Part 3: LLVM
  */
 public class Main {
+    private static boolean shortCircuit = true;
+    private static boolean ssa = false;
+    private static boolean forwardLoads = false;
+    private static int optimizationLevel = 0;
+    private static boolean timePasses = false;
+    private static String outputFormat = "ll";
+    private static boolean run = false;
+    private static boolean interpret = false;
+    private static boolean vm = false;
+    private static boolean bufferedIo = false;
+    private static boolean llvmHints = false;
+    private static boolean exe = false;
+    private static boolean parallelCodegen = false;
+    private static String treeFile = null;
+    private static boolean cacheTree = false;
+    private static boolean stats = false;
+    private static String statsFile = null;
+    private static boolean profileGenerate = false;
+    private static boolean profileUse = false;
+    private static String profileFile = null;
+    private static final List<CompileStats> fileStats = new ArrayList<>();
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java -jar part3.jar [FILE]");
+        List<String> filePaths = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--no-short-circuit" -> shortCircuit = false;
+                case "--ssa" -> ssa = true;
+                case "--forward-loads" -> forwardLoads = true;
+                case "-O0", "-O1", "-O2" -> optimizationLevel = arg.charAt(2) - '0';
+                case "--time-passes" -> timePasses = true;
+                case "--emit=ll", "--emit=bc", "--emit=asm", "--emit=pmpb" ->
+                        outputFormat = arg.substring("--emit=".length());
+                case "--run" -> run = true;
+                case "--interpret" -> interpret = true;
+                case "--vm" -> vm = true;
+                case "--buffered-io" -> bufferedIo = true;
+                case "--llvm-hints" -> llvmHints = true;
+                case "--exe" -> exe = true;
+                case "--parallel-codegen" -> parallelCodegen = true;
+                case "--cache-tree" -> cacheTree = true;
+                default -> {
+                    if (arg.startsWith("--tree=")) {
+                        treeFile = arg.substring("--tree=".length());
+                    } else if (arg.equals("--stats") || arg.startsWith("--stats=")) {
+                        stats = true;
+                        statsFile = arg.startsWith("--stats=") ? arg.substring("--stats=".length()) : null;
+                    } else if (arg.equals("--profile-generate") || arg.startsWith("--profile-generate=")) {
+                        profileGenerate = true;
+                        profileFile = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+                    } else if (arg.equals("--profile-use") || arg.startsWith("--profile-use=")) {
+                        profileUse = true;
+                        profileFile = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+                    } else {
+                        filePaths.add(arg);
+                    }
+                }
+            }
+        }
+        if (filePaths.isEmpty() || filePaths.stream().anyMatch(filePath -> filePath.startsWith("-"))) {
+            printUsage();
+            return;
+        }
+
+        // options that the interpreters, the VM or the SSA generator would silently ignore
+        if (bufferedIo && (run || interpret || vm || !outputFormat.equals("ll"))) {
+            System.err.println("--buffered-io is only available with --emit=ll, without --run, --interpret or --vm");
+            return;
+        }
+        if (llvmHints && (ssa || run || interpret || vm || !outputFormat.equals("ll"))) {
+            System.err.println("--llvm-hints is only available with --emit=ll, without --ssa, --run, --interpret or"
+                    + " --vm");
+            return;
+        }
+        if ((optimizationLevel > 0 || forwardLoads || timePasses)
+                && (ssa || interpret || vm || outputFormat.equals("pmpb"))) {
+            System.err.println("-O1, -O2, --forward-loads and --time-passes are not available with --ssa, --interpret,"
+                    + " --vm or --emit=pmpb");
+            return;
+        }
+        if (parallelCodegen && (ssa || interpret || vm || outputFormat.equals("pmpb"))) {
+            System.err.println("--parallel-codegen is not available with --ssa, --interpret, --vm or --emit=pmpb");
+            return;
+        }
+        if (stats && (ssa || run || interpret || vm || exe || cacheTree || !outputFormat.equals("ll"))) {
+            System.err.println("--stats is only available with --emit=ll, without --ssa, --run, --interpret, --vm,"
+                    + " --exe or --cache-tree");
+            return;
+        }
+        if ((profileGenerate || profileUse)
+                && (ssa || run || interpret || vm || !outputFormat.equals("ll") || profileGenerate && profileUse)) {
+            System.err.println("--profile-generate and --profile-use are only available with --emit=ll, without --ssa,"
+                    + " --run, --interpret or --vm, and not together");
+            return;
+        }
+        if (profileFile != null && filePaths.size() > 1) {
+            System.err.println("A profile file can only be given for a single input file");
+            return;
+        }
+        if (exe) {
+            buildExecutables(filePaths);
+            return;
+        }
+        for (String filePath : filePaths) {
+            CompilerEvents.setFile(filePath);
+            CompilerEvents.FileCompile event = new CompilerEvents.FileCompile();
+            event.begin();
+            Exception failure = null;
+            try {
+                processFile(filePath);
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Error processing file: " + e.getMessage());
+            } catch (Exception e) {
+                failure = e;
+                System.err.println("An error occurred: " + e.getMessage());
+            }
+            event.finish(new File(filePath), failure);
+            CompilerEvents.setFile(null);
+        }
+        if (stats) {
+            reportStats();
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java -jar part3.jar [OPTIONS] [FILE]...");
+        System.out.println("Options:");
+        System.out.println("  --no-short-circuit  evaluate every operand of and/or conditions");
+        System.out.println("  --ssa               keep variables in registers (phi nodes) instead of alloca slots");
+        System.out.println("  --forward-loads     reuse values already stored or loaded in the same block");
+        System.out.println("  -O0, -O1, -O2       optimization level of the IR pipeline (default -O0)");
+        System.out.println("  --time-passes       report the time and size change of every IR pass");
+        System.out.println("  --parallel-codegen  generate the IR of the top-level instructions on every core");
+        System.out.println("  --emit=ll|bc|asm    write textual LLVM IR (default), LLVM bitcode or x86-64 assembly");
+        System.out.println("  --emit=pmpb         write register bytecode for --vm");
+        System.out.println("  --buffered-io       read and print through buffers instead of scanf/printf (LLVM IR only)");
+        System.out.println("  --llvm-hints        add nsw flags, attributes, target and loop metadata (LLVM IR only)");
+        System.out.println("  --run               compile to JVM bytecode and run the program instead of writing it");
+        System.out.println("  --interpret         run the program with the tree interpreter, without compiling it");
+        System.out.println("  --vm                run the program (or a .pmpb file) on the register bytecode VM");
+        System.out.println("  --tree=FILE.tex     also write the parse tree as a LaTeX document (forest package)");
+        System.out.println("  --stats[=FILE.json] report the time, allocations and sizes of every phase (and save them as JSON)");
+        System.out.println("  --cache-tree        load the parse tree from FILE.pmpt if the source is unchanged, else save it");
+        System.out.println("  --exe               build native executables with clang (or llc and cc), files in parallel");
+        System.out.println("  --profile-generate[=FILE]  count the executions of the if/while blocks into FILE.pmpprof");
+        System.out.println("  --profile-use[=FILE]       lay out the blocks and weight the branches with that profile");
+    }
+
+    private static void processFile(String filePath) throws IOException, Exception {
+        if (vm && filePath.endsWith(".pmpb")) {
+            // saved bytecode, run without parsing the program again
+            try (InputStream input = new BufferedInputStream(new FileInputStream(filePath))) {
+                runProgram(BytecodeProgram.read(input));
+            }
+            return;
+        }
+        CompileStats stats = Main.stats ? new CompileStats(filePath) : null;
+        ParseTree parseTree = stats != null ? parse(filePath, stats) : parse(filePath, run || interpret || vm);
+        if (treeFile != null) {
+            // streamed to the file, the document is never held in memory
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(treeFile), 1 << 16)) {
+                parseTree.writeLaTeXusingForest(writer);
+            }
+        }
+        if (interpret) {
+            runProgram(new TreeInterpreter(parseTree));
+            return;
+        }
+        if (vm) {
+            runProgram(new BytecodeCompiler().compile(parseTree));
+            return;
+        }
+        String fileNameWithoutExtension = extractFileNameWithoutExtension(filePath);
+        if (outputFormat.equals("pmpb")) {
+            File outputFile = outputFile("more/results", fileNameWithoutExtension + ".pmpb");
+            BytecodeProgram program = new BytecodeCompiler().compile(parseTree);
+            writeOutput(outputFile, "pmpb", () -> {
+                try (OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    program.write(output);
+                }
+            });
+            System.out.println("Output saved to: " + outputFile.getAbsolutePath());
+            return;
+        }
+        // generate LLVM code
+        if (ssa) {
+            if (run || !outputFormat.equals("ll")) {
+                System.err.println((run ? "--run" : "--emit=" + outputFormat) + " is not available with --ssa");
+                return;
+            }
+            SsaGenerator generator = new SsaGenerator(shortCircuit);
+            generator.setBufferedIo(bufferedIo);
+            String llvmCode = generator.generate(parseTree);
+            System.out.println(llvmCode);
+            saveToFile(llvmCode, "more/results", fileNameWithoutExtension + ".ll");
+            return;
+        }
+        ParseTree.setShortCircuit(shortCircuit);
+        if (stats != null) {
+            stats.start();
+        }
+        IrFunction ir = generateIr(parseTree);
+        BranchProfile profile = readProfile(filePath);
+        PassManager passManager = passManager(profile);
+        passManager.run(ir);
+        if (stats != null) {
+            stats.end(CompileStats.Phase.CODEGEN);
+        }
+        reportPasses(passManager);
+        warnIfStale(filePath, profile);
+
+        if (run) {
+            runProgram(JvmClassWriter.load(new JvmClassWriter().write(ir)));
             return;
         }
+        if (outputFormat.equals("bc")) {
+            File outputFile = outputFile("more/results", fileNameWithoutExtension + ".bc");
+            byte[] bitcode = new BitcodeWriter().write(ir);
+            writeOutput(outputFile, "bc", () -> {
+                try (FileOutputStream output = new FileOutputStream(outputFile)) {
+                    output.write(bitcode);
+                }
+            });
+            System.out.println("Output saved to: " + outputFile.getAbsolutePath());
+            return;
+        }
+        if (outputFormat.equals("asm")) {
+            String assembly = new X86Printer().print(ir);
+            System.out.println(assembly);
+            saveToFile(assembly, "more/results", fileNameWithoutExtension + ".s");
+            return;
+        }
+        // the module is written once, to the standard output and to the result file at the same time
+        if (stats != null) {
+            stats.start();
+        }
+        File outputFile = outputFile("more/results", fileNameWithoutExtension + ".ll");
+        writeOutput(outputFile, "ll", () -> {
+            try (FileChannel file = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                LlvmPrinter printer = printer(filePath, profile);
+                printer.write(ir, Channels.newChannel(System.out), stats != null ? stats.countIr(file) : file);
+            }
+        });
+        System.out.println();
+        if (stats != null) {
+            stats.end(CompileStats.Phase.WRITE);
+        }
+        System.out.println("Output saved to: " + outputFile.getAbsolutePath());
+        if (stats != null) {
+            System.out.print(stats.getReport());
+            fileStats.add(stats);
+        }
+    }
+
+    /**
+     * Prints the statistics of all the files compiled, and saves the statistics of every file as JSON.
+     */
+    private static void reportStats() {
+        CompileStats total = new CompileStats("all files");
+        for (CompileStats stats : fileStats) {
+            total.add(stats);
+        }
+        if (fileStats.size() > 1) {
+            System.out.print(total.getReport());
+        }
+        if (statsFile != null) {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(statsFile))) {
+                writer.write("{\"files\": [");
+                for (int i = 0; i < fileStats.size(); i++) {
+                    writer.write((i == 0 ? "\n  " : ",\n  ") + fileStats.get(i).toJson());
+                }
+                writer.write("\n], \"total\": " + total.toJson() + "}\n");
+            } catch (IOException e) {
+                System.err.println("Error writing statistics: " + e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * Builds an executable for every file, several at a time (one per core), and reports the time of each stage.
+     */
+    private static void buildExecutables(List<String> filePaths) {
+        if (ssa || run || interpret || vm || !outputFormat.equals("ll")) {
+            System.err.println("--exe is only available with --emit=ll, without --ssa, --run, --interpret or --vm");
+            return;
+        }
+        NativeCompiler compiler;
         try {
-            processFile(args[0]);
+            compiler = NativeCompiler.find();
         } catch (IOException e) {
-            System.err.println("Error processing file: " + e.getMessage());
+            System.err.println(e.getMessage());
+            return;
+        }
+        ParseTree.setShortCircuit(shortCircuit);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(filePaths.size(), Runtime.getRuntime().availableProcessors()));
+        List<Future<String>> reports = new ArrayList<>();
+        for (String filePath : filePaths) {
+            reports.add(executor.submit(() -> buildExecutable(compiler, filePath)));
+        }
+        for (int i = 0; i < filePaths.size(); i++) {
+            try {
+                System.out.println(reports.get(i).get());
+            } catch (ExecutionException e) {
+                System.err.println("Error processing file " + filePaths.get(i) + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Builds the executable of a file.
+     *
+     * @return the report of the file: where the executable is and the time of each stage.
+     */
+    private static String buildExecutable(NativeCompiler compiler, String filePath) throws Exception {
+        CompilerEvents.setFile(filePath);
+        CompilerEvents.FileCompile event = new CompilerEvents.FileCompile();
+        event.begin();
+        try {
+            String report = buildExecutableReport(compiler, filePath);
+            event.finish(new File(filePath), null);
+            return report;
         } catch (Exception e) {
-            System.err.println("An error occurred: " + e.getMessage());
+            event.finish(new File(filePath), e);
+            throw e;
+        } finally {
+            CompilerEvents.setFile(null);
         }
     }
 
-    private static void processFile(String filePath) throws IOException, Exception {
+    private static String buildExecutableReport(NativeCompiler compiler, String filePath) throws Exception {
+        long start = System.nanoTime();
+        ParseTree parseTree = parse(filePath, true);
+        long parsed = System.nanoTime();
+        IrFunction ir = generateIr(parseTree);
+        BranchProfile profile = readProfile(filePath);
+        passManager(profile).run(ir);
+        warnIfStale(filePath, profile);
+        long generated = System.nanoTime();
+        File executable = outputFile("more/results", extractFileNameWithoutExtension(filePath));
+        LlvmPrinter printer = printer(filePath, profile);
+        CompilerEvents.Write write = new CompilerEvents.Write();
+        write.begin();
+        try {
+            compiler.compile(ir, printer, executable);
+        } catch (IOException | InterruptedException e) {
+            write.finish(executable, "exe", e);
+            throw e;
+        }
+        write.finish(executable, "exe", null);
+        long built = System.nanoTime();
+        return String.format("Executable saved to: %s (parse %.1f ms, IR %.1f ms, %s %.1f ms)",
+                executable.getAbsolutePath(), (parsed - start) / 1e6, (generated - parsed) / 1e6,
+                compiler.getDescription(), (built - generated) / 1e6);
+    }
+
+    private static ParseTree parse(String filePath, boolean quiet) throws IOException, ParseException {
+        byte[] sourceHash = null;
+        Path cache = null;
+        if (cacheTree) {
+            sourceHash = ParseTreeCache.hash(Path.of(filePath));
+            cache = ParseTreeCache.cacheFile(Path.of(filePath));
+            ParseTree cached = ParseTreeCache.read(cache, sourceHash);
+            if (cached != null) {
+                return cached;
+            }
+        }
         ParseTree parseTree;
         try (FileReader codeSource = new FileReader(filePath)) {
             Parser parser = new Parser(codeSource);
+            if (quiet) {
+                parser.displayNoRules();
+            }
             parseTree = parser.parse();
         }
-        // generate LLVM code
-        parseTree.program();
-        String fileNameWithoutExtension = extractFileNameWithoutExtension(filePath);
-        String llvmCode = parseTree.getLlvmCodeOutput().toString();
-        System.out.println(llvmCode);
+        if (cacheTree) {
+            ParseTreeCache.write(parseTree, sourceHash, cache);
+        }
+        return parseTree;
+    }
+
+    /**
+     * Reads, lexes and parses a file one phase after the other, measuring every phase.
+     */
+    private static ParseTree parse(String filePath, CompileStats stats) throws IOException, ParseException {
+        stats.start();
+        String source = Files.readString(Path.of(filePath));
+        stats.end(CompileStats.Phase.READ);
+        stats.start();
+        List<Symbol> tokens = Parser.lex(new StringReader(source));
+        stats.end(CompileStats.Phase.LEX);
+        stats.start();
+        ParseTree parseTree = new Parser(tokens).parse();
+        stats.end(CompileStats.Phase.PARSE);
+        stats.countSource(source, tokens.size());
+        stats.countTree(parseTree);
+        return parseTree;
+    }
+
+    private static IrFunction generateIr(ParseTree parseTree) throws Exception {
+        return parallelCodegen ? parseTree.program(Runtime.getRuntime().availableProcessors()) : parseTree.program();
+    }
 
-        saveToFile(llvmCode, "more/results", fileNameWithoutExtension + ".ll");
+    /**
+     * Creates the pass pipeline, ending with the profile-guided block layout if a profile is used.
+     *
+     * @param profile the profile read with --profile-use, or null.
+     */
+    private static PassManager passManager(BranchProfile profile) {
+        PassManager passManager = PassManager.forLevel(optimizationLevel);
+        if (forwardLoads && !passManager.contains("load-forwarding")) {
+            passManager.add(new LoadForwarding());
+        }
+        if (profile != null) {
+            passManager.add(new BlockLayout(profile));
+        }
+        return passManager;
+    }
+
+    /**
+     * Returns the profile file of a source file: the one given with the option, else
+     * <code>&lt;input_file_name&gt;.pmpprof</code> in the current directory.
+     */
+    private static String profileFile(String filePath) {
+        return profileFile != null ? profileFile : extractFileNameWithoutExtension(filePath) + ".pmpprof";
+    }
+
+    /**
+     * Reads the profile of a source file with --profile-use.
+     *
+     * @return the profile, or null without --profile-use.
+     */
+    private static BranchProfile readProfile(String filePath) throws IOException {
+        if (!profileUse) {
+            return null;
+        }
+        try {
+            return BranchProfile.read(Path.of(profileFile(filePath)));
+        } catch (NoSuchFileException e) {
+            throw new IOException("no profile " + profileFile(filePath) + ", run a build made with --profile-generate"
+                    + " first");
+        }
+    }
+
+    private static void warnIfStale(String filePath, BranchProfile profile) {
+        if (profile != null && !profile.isAttached()) {
+            System.err.println("Warning: " + profileFile(filePath) + " was recorded for another version of "
+                    + filePath + " or with other options; it is ignored");
+        }
+    }
+
+    /**
+     * Creates the printer of the LLVM IR of a source file, with the options given.
+     *
+     * @param profile the profile read with --profile-use, or null.
+     */
+    private static LlvmPrinter printer(String filePath, BranchProfile profile) {
+        LlvmPrinter printer = new LlvmPrinter();
+        printer.setBufferedIo(bufferedIo);
+        printer.setOptimizationHints(llvmHints);
+        if (profileGenerate) {
+            printer.setProfileOutput(profileFile(filePath));
+        }
+        if (profile != null && profile.isAttached()) {
+            printer.setBranchProfile(profile);
+        }
+        return printer;
+    }
+
+    /**
+     * Runs a program, reading the standard input and printing to the standard output.
+     */
+    private static void runProgram(PmpProgram program) {
+        PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                1 << 16), false);
+        try {
+            program.run(PmpProgram.reader(System.in), output::println);
+        } finally {
+            output.flush();
+        }
+    }
+
+    private static void reportPasses(PassManager passManager) {
+        if (forwardLoads) {
+            int forwardedLoads = 0;
+            int deadLoads = 0;
+            for (IrPass pass : passManager.getPasses()) {
+                if (pass instanceof LoadForwarding loadForwarding) {
+                    forwardedLoads += loadForwarding.getForwardedLoads();
+                    deadLoads += loadForwarding.getDeadLoads();
+                }
+            }
+            System.err.println("Load forwarding: " + forwardedLoads + " loads forwarded, "
+                    + deadLoads + " dead loads removed");
+        }
+        if (timePasses) {
+            System.out.print(passManager.getReport());
+        }
     }
 
     private static String extractFileNameWithoutExtension(String filePath) {
@@ -39,16 +527,47 @@ public class Main {
         return fileName.substring(0, fileName.lastIndexOf('.'));
     }
 
-    private static void saveToFile(String content, String directoryName, String fileName) throws IOException {
+    private static File outputFile(String directoryName, String fileName) {
         File directory = new File(directoryName);
         if (!directory.exists()) {
             directory.mkdir();
         }
+        return new File(directory, fileName);
+    }
 
-        File outputFile = new File(directory, fileName);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-            writer.write(content);
-        }
+    private static void saveToFile(String content, String directoryName, String fileName) throws IOException {
+        File outputFile = outputFile(directoryName, fileName);
+        writeOutput(outputFile, fileName.substring(fileName.lastIndexOf('.') + 1), () -> {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+                writer.write(content);
+            }
+        });
         System.out.println("Output saved to: " + outputFile.getAbsolutePath());
     }
+
+    /**
+     * Writing of an output file.
+     */
+    private interface OutputWriter {
+        void write() throws IOException;
+    }
+
+    /**
+     * Writes an output file, recording the write as a flight recorder event.
+     *
+     * @param outputFile the file written.
+     * @param format the format of the file, e.g. "ll".
+     * @param writer the code writing the file.
+     */
+    private static void writeOutput(File outputFile, String format, OutputWriter writer) throws IOException {
+        CompilerEvents.Write event = new CompilerEvents.Write();
+        event.begin();
+        try {
+            writer.write();
+        } catch (IOException | RuntimeException e) {
+            event.finish(outputFile, format, e);
+            throw e;
+        }
+        event.finish(outputFile, format, null);
+    }
 }
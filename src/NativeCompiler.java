@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a native executable from an {@link IrFunction} with the LLVM toolchain installed on the system.
+ *
+ * The module is streamed by an {@link LlvmPrinter} into the standard input of clang, or of llc whose assembly is
+ * piped into cc when clang is not installed, so that no intermediate file is written. clang and llc run with -O2.
+ */
+public class NativeCompiler {
+    private final String compiler;
+    private final String assembler;
+
+    private NativeCompiler(String compiler, String assembler) {
+        this.compiler = compiler;
+        this.assembler = assembler;
+    }
+
+    /**
+     * Finds the toolchain on the PATH.
+     *
+     * @return a compiler using clang, or llc and cc.
+     * @throws IOException if neither clang nor llc and cc are installed.
+     */
+    public static NativeCompiler find() throws IOException {
+        String clang = findExecutable("clang");
+        if (clang != null) {
+            return new NativeCompiler(clang, null);
+        }
+        String llc = findExecutable("llc");
+        String cc = findExecutable("cc");
+        if (llc != null && cc != null) {
+            return new NativeCompiler(llc, cc);
+        }
+        throw new IOException("No LLVM toolchain found: --exe needs clang, or llc and cc, on the PATH");
+    }
+
+    private static String findExecutable(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            File file = new File(directory.isEmpty() ? "." : directory, name);
+            if (file.isFile() && file.canExecute()) {
+                return file.getPath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a description of the toolchain, e.g. "/usr/bin/llc | /usr/bin/cc".
+     */
+    public String getDescription() {
+        return assembler == null ? compiler : compiler + " | " + assembler;
+    }
+
+    /**
+     * Compiles a function to an executable. Several functions can be compiled at the same time by different threads.
+     *
+     * @param function the function, printed as the @main function of the module.
+     * @param printer the printer writing the module.
+     * @param executable the executable to create.
+     * @throws IOException if the toolchain cannot be started or fails.
+     * @throws InterruptedException if the thread is interrupted while waiting for the toolchain.
+     */
+    public void compile(IrFunction function, LlvmPrinter printer, File executable)
+            throws IOException, InterruptedException {
+        List<ProcessBuilder> builders = new ArrayList<>();
+        if (assembler == null) {
+            builders.add(new ProcessBuilder(compiler, "-O2", "-x", "ir", "-", "-o", executable.getPath()));
+        } else {
+            builders.add(new ProcessBuilder(compiler, "-O2", "-o", "-", "-"));
+            builders.add(new ProcessBuilder(assembler, "-x", "assembler", "-", "-o", executable.getPath()));
+        }
+        for (ProcessBuilder builder : builders) {
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+        builders.get(builders.size() - 1).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        List<Process> processes = ProcessBuilder.startPipeline(builders);
+        try (OutputStream input = processes.get(0).getOutputStream()) {
+            printer.write(function, Channels.newChannel(input));
+        } catch (UncheckedIOException | IOException e) {
+            // the toolchain stopped reading, its exit code tells why
+        }
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < processes.size(); i++) {
+            int exitCode = processes.get(i).waitFor();
+            if (exitCode != 0) {
+                String command = builders.get(i).command().get(0);
+                failures.add(new File(command).getName() + " failed with exit code " + exitCode);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException(String.join(", ", failures));
+        }
+    }
+}
@@ -1,5 +1,12 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A skeleton class to represent parse trees.
@@ -39,48 +46,96 @@ public class ParseTree {
         this.children = chdn;
     }
 
+    public Symbol getLabel() {
+        return label;
+    }
+
+    public List<ParseTree> getChildren() {
+        return children;
+    }
+
     /* Pure LaTeX version (using the forest package) */
-    public String toLaTexTree() {
-        StringBuilder treeTeX = new StringBuilder();
-        treeTeX.append("[");
-        treeTeX.append("{" + label.toTexString() + "}");   // Implement this yourself in Symbol.java
-        treeTeX.append(" ");
 
-        for (ParseTree child : children) {
-            treeTeX.append(child.toLaTexTree());
+    /*
+     * The trees are written to an Appendable by an iterative walk, without building a String per subtree: the work
+     * stack holds the nodes still to write and the text closing the nodes already opened. The String versions are
+     * wrappers writing to a StringBuilder.
+     */
+
+    public void writeLaTexTree(Appendable out) throws IOException {
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(this);
+        while (!work.isEmpty()) {
+            Object next = work.pop();
+            if (next instanceof String text) {
+                out.append(text);
+                continue;
+            }
+            ParseTree tree = (ParseTree) next;
+            out.append("[{").append(tree.label.toTexString()).append("} ");
+            work.push("]");
+            for (int i = tree.children.size() - 1; i >= 0; i--) {
+                work.push(tree.children.get(i));
+            }
         }
-        treeTeX.append("]");
-        return treeTeX.toString();
+    }
+    public void writeForestPicture(Appendable out) throws IOException {
+        out.append("\\begin{forest}for tree={rectangle, draw, l sep=20pt}");
+        writeLaTexTree(out);
+        out.append(";\n\\end{forest}");
+    }
+    public void writeLaTeXusingForest(Appendable out) throws IOException {
+        out.append("\\documentclass[border=5pt]{standalone}\n\n\\usepackage{forest}\n\n\\begin{document}\n\n");
+        writeForestPicture(out);
+        out.append("\n\n\\end{document}\n%% Local Variables:\n%% TeX-engine: lualatex\n%% End:");
+    }
+    public String toLaTexTree() {
+        return render(this::writeLaTexTree);
     }
     public String toForestPicture() {
-        return "\\begin{forest}for tree={rectangle, draw, l sep=20pt}" + toLaTexTree() + ";\n\\end{forest}";
+        return render(this::writeForestPicture);
     }
     public String toLaTeXusingForest() {
-        return "\\documentclass[border=5pt]{standalone}\n\n\\usepackage{forest}\n\n\\begin{document}\n\n" +
-                toForestPicture()
-                + "\n\n\\end{document}\n%% Local Variables:\n%% TeX-engine: lualatex\n%% End:";
+        return render(this::writeLaTeXusingForest);
     }
 
     /* Tikz version (using graphs and graphdrawing libraries, with GD library trees, requiring LuaLaTeX) */
-    public String toTikZ() {
-        StringBuilder treeTikZ = new StringBuilder();
-        treeTikZ.append("node {");
-        treeTikZ.append(label.toTexString());  // Implement this yourself in Symbol.java
-        treeTikZ.append("}\n");
-        for (ParseTree child : children) {
-            treeTikZ.append("child { ");
-            treeTikZ.append(child.toTikZ());
-            treeTikZ.append(" }\n");
+    public void writeTikZ(Appendable out) throws IOException {
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(this);
+        while (!work.isEmpty()) {
+            Object next = work.pop();
+            if (next instanceof String text) {
+                out.append(text);
+                continue;
+            }
+            ParseTree tree = (ParseTree) next;
+            out.append("node {").append(tree.label.toTexString()).append("}\n");
+            for (int i = tree.children.size() - 1; i >= 0; i--) {
+                work.push(" }\n");
+                work.push(tree.children.get(i));
+                work.push("child { ");
+            }
         }
-        return treeTikZ.toString();
+    }
+    public void writeTikZPicture(Appendable out) throws IOException {
+        out.append("\\begin{tikzpicture}[tree layout,every node/.style={draw,rounded corners=3pt}]\n\\");
+        writeTikZ(out);
+        out.append(";\n\\end{tikzpicture}");
+    }
+    public void writeLaTeXusingTikz(Appendable out) throws IOException {
+        out.append("\\documentclass[border=5pt]{standalone}\n\n\\usepackage{tikz}\\usetikzlibrary{graphs,graphdrawing}\\usegdlibrary{trees}\n\n\\begin{document}\n\n");
+        writeTikZPicture(out);
+        out.append("\n\n\\end{document}\n%% Local Variables:\n%% TeX-engine: lualatex\n%% End:");
+    }
+    public String toTikZ() {
+        return render(this::writeTikZ);
     }
     public String toTikZPicture() {
-        return "\\begin{tikzpicture}[tree layout,every node/.style={draw,rounded corners=3pt}]\n\\" + toTikZ() + ";\n\\end{tikzpicture}";
+        return render(this::writeTikZPicture);
     }
     public String toLaTeXusingTikz() {
-        return "\\documentclass[border=5pt]{standalone}\n\n\\usepackage{tikz}\\usetikzlibrary{graphs,graphdrawing}\\usegdlibrary{trees}\n\n\\begin{document}\n\n" +
-                toTikZPicture()
-                + "\n\n\\end{document}\n%% Local Variables:\n%% TeX-engine: lualatex\n%% End:";
+        return render(this::writeLaTeXusingTikz);
     }
 
     /* Alias */
@@ -88,64 +143,171 @@ public class ParseTree {
         return this.toLaTeXusingForest();
     }
 
-    /* Private fields for LLVM IR code generation */
+    private interface TreeWriter {
+        void write(Appendable out) throws IOException;
+    }
+
+    private static String render(TreeWriter writer) {
+        StringBuilder text = new StringBuilder();
+        try {
+            writer.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder does not throw
+        }
+        return text.toString();
+    }
+
+    /* Code generation options */
+
+    private static boolean shortCircuit = true;
 
-    private static final StringBuilder llvmCodeOutput = new StringBuilder();
-    private static Integer variableIndex = 0;
-    private static final ArrayList<String> allocatedVariables = new ArrayList<>();
-    private static Integer ifIndex = 0;
+    /** Minimum number of top-level instructions generated by a thread of {@link #program(int)}. */
+    private static final int MIN_CHUNK = 256;
 
-    private static Integer whileIndex = 0;
-    private static boolean isReadFunctionUsed = false;
-    private static boolean isPrintFunctionUsed = false;
+    /* IR Generation Methods */
 
-    /* LLVM IR Generation Methods */
+    /*
+     * The code is generated without recursion, so that long instruction lists, long operator chains and deeply
+     * nested statements cannot overflow the Java stack. A statement method emits what comes before its children
+     * and schedules the rest as steps on a work stack, run in order by program(); expressions and conditions are
+     * evaluated by evaluate() with explicit stacks. The instructions and blocks are created in the same order as a
+     * recursive walk would create them.
+     */
 
-    public void program() {
+    public IrFunction program() {
+        CompilerEvents.Codegen event = new CompilerEvents.Codegen();
+        event.begin();
         // [1] <Program>  ->  begin <Code> end
-        llvmCodeOutput.append("define i32 @main() {\n");
-        children.get(1).code();
-        llvmCodeOutput.append("ret i32 0\n}\n");
+        IrFunction ir = new IrFunction();
+        ArrayDeque<Runnable> work = new ArrayDeque<>();
+        try {
+            children.get(1).code(ir, work);
+            while (!work.isEmpty()) {
+                work.pop().run();
+            }
+        } catch (RuntimeException e) {
+            event.finish(1, null, e);
+            throw e;
+        }
+        ir.emit(IrOpcode.RET);
+        ir.ensureAllocas();
+        event.finish(1, ir, null);
+        return ir;
+    }
+
+    /**
+     * Generates the program like {@link #program()}, with the top-level instructions split in consecutive chunks
+     * generated at the same time by several threads. Each chunk gets its own function, numbered from 0, and the
+     * functions are appended in order (see {@link IrFunction#append(IrFunction)}), so the result is the same.
+     *
+     * @param threads the number of threads.
+     * @return the function, as returned by {@link #program()}.
+     */
+    public IrFunction program(int threads) throws InterruptedException, ExecutionException {
+        // [1] <Program>  ->  begin <Code> end
+        // [2] <Code>  ->  <InstList>
+        // [4] <InstList>  ->  <Instruction><InstListTail>
+        // [5] <InstListTail>  ->  ...<Instruction><InstListTail>
+        List<ParseTree> instructions = new ArrayList<>();
+        ParseTree list = children.get(1).children.get(0);
+        if (list.label.isNonTerminal()) {
+            if (list.children.get(0).label.isNonTerminal()) {
+                instructions.add(list.children.get(0));
+            }
+            ParseTree tail = list.children.get(1);
+            while (tail.label.isNonTerminal() && tail.children.get(0).label.getTerminal() == LexicalUnit.DOTS) {
+                instructions.add(tail.children.get(1));
+                tail = tail.children.get(2);
+            }
+        }
+        int chunkCount = Math.min(threads * 4, (instructions.size() + MIN_CHUNK - 1) / MIN_CHUNK);
+        if (threads <= 1 || chunkCount <= 1) {
+            return program();
+        }
+        CompilerEvents.Codegen event = new CompilerEvents.Codegen();
+        event.begin();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<IrFunction>> fragments = new ArrayList<>();
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                List<ParseTree> chunkInstructions = instructions.subList(
+                        instructions.size() * chunk / chunkCount, instructions.size() * (chunk + 1) / chunkCount);
+                fragments.add(executor.submit(() -> {
+                    IrFunction fragment = new IrFunction();
+                    ArrayDeque<Runnable> work = new ArrayDeque<>();
+                    for (int i = chunkInstructions.size() - 1; i >= 0; i--) {
+                        ParseTree instruction = chunkInstructions.get(i);
+                        work.push(() -> instruction.instruction(fragment, work));
+                    }
+                    while (!work.isEmpty()) {
+                        work.pop().run();
+                    }
+                    return fragment;
+                }));
+            }
+            IrFunction ir = new IrFunction();
+            for (Future<IrFunction> fragment : fragments) {
+                ir.append(fragment.get());
+            }
+            ir.emit(IrOpcode.RET);
+            ir.ensureAllocas();
+            event.finish(threads, ir, null);
+            return ir;
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            event.finish(threads, null, e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-        if (isReadFunctionUsed) {
-            llvmCodeOutput.append(get_read());}
-        if (isPrintFunctionUsed) {
-            llvmCodeOutput.append(get_print());}
+    /**
+     * Schedules steps to run one after the other, before the steps already on the work stack.
+     */
+    private static void schedule(ArrayDeque<Runnable> work, Runnable... steps) {
+        for (int i = steps.length - 1; i >= 0; i--) {
+            work.push(steps[i]);
+        }
     }
 
-    public void code() {
+    public void code(IrFunction ir, ArrayDeque<Runnable> work) {
         // [2] <Code>  ->  <InstList>
         // [3] <Code>  ->  EPSILON
 
         // if it has a child, it is not EPSILON so we call instList
         if (children.get(0).label.isNonTerminal()) {
-            children.get(0).instructionList();
+            children.get(0).instructionList(ir, work);
         }
     }
 
-    public void instructionList() {
+    public void instructionList(IrFunction ir, ArrayDeque<Runnable> work) {
         // [4] <InstList>  ->  <Instruction><InstListTail>
-        if (children.get(0).label.isNonTerminal()) {
-            children.get(0).instruction();
-        }
-
-        if (children.get(1).label.isNonTerminal()) {
-            children.get(1).instructionListTail();
-        }
-    }
-
-    public void instructionListTail() {
+        schedule(work,
+                () -> {
+                    if (children.get(0).label.isNonTerminal()) {
+                        children.get(0).instruction(ir, work);
+                    }
+                },
+                () -> {
+                    if (children.get(1).label.isNonTerminal()) {
+                        children.get(1).instructionListTail(ir, work);
+                    }
+                });
+    }
+
+    public void instructionListTail(IrFunction ir, ArrayDeque<Runnable> work) {
         // [5] <InstListTail>  ->  ...<Instruction><InstListTail>
         // [6] <InstListTail>  ->  EPSILON
 
         LexicalUnit lu = children.get(0).label.getTerminal();
         if (lu == LexicalUnit.DOTS) {
-            children.get(1).instruction();
-            children.get(2).instructionListTail();
+            schedule(work,
+                    () -> children.get(1).instruction(ir, work),
+                    () -> children.get(2).instructionListTail(ir, work));
         }
     }
 
-    public void instruction() {
+    public void instruction(IrFunction ir, ArrayDeque<Runnable> work) {
         // [7] <Instruction>  ->  <Assign>
         // [8] <Instruction>  ->  <If>
         // [9] <Instruction>  ->  <While>
@@ -155,368 +317,401 @@ public class ParseTree {
 
         if (children.get(0).label.isNonTerminal()) {
             switch (children.get(0).label.getNonTerminal()) {
-                case Assign -> children.get(0).assignExpr();
-                case If -> children.get(0).ifExpr();
-                case While -> children.get(0).whileExpr();
-                case Print -> children.get(0).printExpr();
-                case Read -> children.get(0).readExpr();
+                case Assign -> children.get(0).assignExpr(ir);
+                case If -> children.get(0).ifExpr(ir, work);
+                case While -> children.get(0).whileExpr(ir, work);
+                case Print -> children.get(0).printExpr(ir);
+                case Read -> children.get(0).readExpr(ir);
             }
             return;
         }
 
         // [12] <Instruction>  ->  begin <InstList> end
         if (children.get(0).label.getType().equals(LexicalUnit.BEG)) {
-            children.get(1).instructionList();
+            children.get(1).instructionList(ir, work);
             return;
         }
 
         throw new RuntimeException("Error in instruction");
     }
 
-    public String assignExpr() {
+    public void assignExpr(IrFunction ir) {
         // [13] <Assign>  ->  [Varname] := <ExprArith>
 
-        String varName = children.get(0).label.getValue().toString();
-        String code;
+        int variable = ir.variable(children.get(0).label.getValue().toString());
 
         // Allocation of memory for the variable if it has not been allocated before
-        if (!allocatedVariables.contains(varName)) {
-            code = "  %" + varName + "= alloca i32\n";
-            llvmCodeOutput.append(code);
-            allocatedVariables.add(varName);
+        if (ir.allocate(variable)) {
+            ir.emit(IrOpcode.ALLOCA, variable);
         }
 
         // Assess the arithmetic expression (right side of the assignment)
-        String exprResultVar = children.get(2).exprArith();
+        int exprResult = children.get(2).exprArith(ir);
 
         // Store the result in the variable (left side of the assignment)
-        code = "  store i32 " + exprResultVar + ", i32* %" + varName + "\n";
-        llvmCodeOutput.append(code);
-
-        return null;
+        ir.emit(IrOpcode.STORE, variable, exprResult);
     }
-    public String exprArith() {
+
+    public int exprArith(IrFunction ir) {
         // [14] <ExprArith>  ->  <Prod> <ExprArith'>
-        String var1 = children.get(0).prod();
-        if (children.size() > 1) {
-            return exprArithPrime(var1, children.get(1));
-        } else {
-            return var1;
-        }
-    }
-
-    public String exprArithPrime(String leftVar, ParseTree exprArithPrimeTree) {
-        // [15] <ExprArith'>  ->  + <Prod> <ExprArith'>
-        // [16] <ExprArith'>  ->  - <Prod> <ExprArith'>
-        // [17] <ExprArith'>  ->  EPSILON
-        LexicalUnit lu = exprArithPrimeTree.children.get(0).label.getTerminal();
-        switch (lu) {
-            case PLUS -> {
-                String rightVar = exprArithPrimeTree.children.get(1).prod();
-                String resultVar = "%" + ++variableIndex;
-                String code = "  " + resultVar + "= add i32 " + leftVar + ", " + rightVar + "\n";
-                llvmCodeOutput.append(code);
-                if (exprArithPrimeTree.children.size() > 2) {
-                    return exprArithPrime(resultVar, exprArithPrimeTree.children.get(2));
-                } else {
-                    return resultVar;
-                }
-            }
-            case MINUS -> {
-                String rightVar = exprArithPrimeTree.children.get(1).prod();
-                String resultVar = "%" + ++variableIndex;
-                String code = "  " + resultVar + "= sub i32 " + leftVar + ", " + rightVar + "\n";
-                llvmCodeOutput.append(code);
-                if (exprArithPrimeTree.children.size() > 2) {
-                    return exprArithPrime(resultVar, exprArithPrimeTree.children.get(2));
-                } else {
-                    return resultVar;
-                }
-            }
-        }
-        // Return the result of the last operation
-        return leftVar;
+        return evaluate(new IrEvaluation(ir));
     }
 
-
-
-    public String prod() {
-        // [18] <Prod>  ->  <Atom> <Prod'>
-        String var1 = children.get(0).atom();
-        if (children.size() > 1) {
-            return prodPrime(var1, children.get(1));
+    public void ifExpr(IrFunction ir, ArrayDeque<Runnable> work) {
+        // [26] <If>  -> if <Cond> then <Instruction> else <IfTail>
+        Boolean knownCond = children.get(1).constantCond();
+        if (knownCond != null) {
+            // The condition is statically known: only the live arm is generated
+            if (knownCond) {
+                work.push(() -> children.get(3).instruction(ir, work));
+            } else {
+                work.push(() -> children.get(5).ifTail(ir, work));
+            }
+            return;
+        }
+        int ifCount = ir.nextIfIndex();
+        IrBlock thenBlock = ir.newBlock("if" + ifCount);
+        IrBlock elseBlock = children.get(5).label.isNonTerminal() ? ir.newBlock("Else" + ifCount) : null;
+        IrBlock endBlock = ir.newBlock("EndIf" + ifCount);
+
+        if (elseBlock != null) { // if there is an else statement
+            schedule(work,
+                    () -> ir.startBlock(elseBlock),
+                    () -> children.get(5).ifTail(ir, work),
+                    () -> ir.emitBranch(endBlock),
+                    () -> ir.startBlock(endBlock));
         } else {
-            return var1;
+            work.push(() -> ir.startBlock(endBlock));
         }
+        schedule(work,
+                // conditional jump to if or else
+                () -> children.get(1).branchOnCond(ir, work, thenBlock, elseBlock != null ? elseBlock : endBlock),
+                () -> ir.startBlock(thenBlock),
+                () -> children.get(3).instruction(ir, work),
+                () -> ir.emitBranch(endBlock));
     }
 
-    public String prodPrime(String leftVar, ParseTree prodPrimeTree) {
-        // [19] <Prod'>  ->  * <Atom> <Prod'>
-        // [20] <Prod'>  ->  / <Atom> <Prod'>
-        // [21] <Prod'>  ->  EPSILON
-
-        LexicalUnit lu = prodPrimeTree.children.get(0).label.getTerminal();
+    public void ifTail(IrFunction ir, ArrayDeque<Runnable> work) {
+        // [27] <IfTail>  ->  <Instruction>
+        // [28] <IfTail>  ->  EPSILON
+        if (!children.isEmpty() && children.get(0).label.isNonTerminal()) {
+            children.get(0).instruction(ir, work);
+        }
+    }
 
-        switch (lu) {
-            case TIMES -> {
-                String rightVar = prodPrimeTree.children.get(1).atom();
-                String resultVar = "%" + ++variableIndex;
-                String code = "  " + resultVar + "= mul i32 " + leftVar + ", " + rightVar + "\n";
-                llvmCodeOutput.append(code);
-                if (prodPrimeTree.children.size() > 2) {
-                    return prodPrime(resultVar, prodPrimeTree.children.get(2));
+    public int cond(IrFunction ir) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        return evaluate(new IrEvaluation(ir));
+    }
+
+    /**
+     * Evaluates an expression or a condition: an &lt;ExprArith&gt;, &lt;Prod&gt;, &lt;Atom&gt;, &lt;Cond&gt;,
+     * &lt;Conj&gt; or &lt;SimpleCond&gt; tree. The operands are evaluated from left to right, each one before the
+     * operator applied to it, like in a recursive walk.
+     *
+     * @param evaluation what a number, a variable and an operator evaluate to.
+     * @return the value of the tree.
+     */
+    <T> T evaluate(Evaluation<T> evaluation) {
+        // the work stack holds trees to evaluate and operators to apply to the values on top of the value stack
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        List<T> values = new ArrayList<>();
+        work.push(this);
+        while (!work.isEmpty()) {
+            Object next = work.pop();
+            if (next instanceof IrOpcode opcode) {
+                T right = values.remove(values.size() - 1);
+                if (opcode == IrOpcode.NEG) {
+                    values.add(evaluation.negate(right));
                 } else {
-                    return resultVar;
+                    T left = values.remove(values.size() - 1);
+                    values.add(evaluation.apply(opcode, left, right));
                 }
+                continue;
             }
-            case DIVIDE -> {
-                String rightVar = prodPrimeTree.children.get(1).atom();
-                String resultVar = "%" + ++variableIndex;
-                String code = "  " + resultVar + "= sdiv i32 " + leftVar + ", " + rightVar + "\n";
-                llvmCodeOutput.append(code);
-                if (prodPrimeTree.children.size() > 2) {
-                    return prodPrime(resultVar, prodPrimeTree.children.get(2));
-                } else {
-                    return resultVar;
+            ParseTree tree = (ParseTree) next;
+            List<ParseTree> children = tree.children;
+            switch (tree.label.getNonTerminal()) {
+                case ExprArith, Prod, Cond, Conj -> {
+                    // [14] <ExprArith>  ->  <Prod> <ExprArith'>
+                    // [18] <Prod>  ->  <Atom> <Prod'>
+                    // [29] <Cond>  ->  <Conj> <Cond'>
+                    // [32] <Conj>  ->  <SimpleCond> <Conj'>
+                    if (children.size() > 1) {
+                        work.push(children.get(1));
+                    }
+                    work.push(children.get(0));
                 }
+                case ExprArithPrime, ProdPrime, CondPrime, ConjPrime -> {
+                    // [15] <ExprArith'>  ->  + <Prod> <ExprArith'>      [16] - <Prod> <ExprArith'>
+                    // [19] <Prod'>  ->  * <Atom> <Prod'>                [20] / <Atom> <Prod'>
+                    // [30] <Cond'>  ->  or <Conj> <Cond'>
+                    // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
+                    // [17] [21] [31] [34]  ->  EPSILON
+                    IrOpcode opcode = switch (children.get(0).label.getTerminal()) {
+                        case PLUS -> IrOpcode.ADD;
+                        case MINUS -> IrOpcode.SUB;
+                        case TIMES -> IrOpcode.MUL;
+                        case DIVIDE -> IrOpcode.SDIV;
+                        case OR -> IrOpcode.OR;
+                        case AND -> IrOpcode.AND;
+                        default -> null;
+                    };
+                    if (opcode != null) {
+                        if (children.size() > 2) {
+                            work.push(children.get(2));
+                        }
+                        work.push(opcode);
+                        work.push(children.get(1));
+                    }
+                }
+                case Atom -> {
+                    // [22] <Atom>  ->  - <Atom>
+                    // [23] <Atom>  ->  ( <ExprArith> )
+                    // [24] <Atom>  ->  [Varname]
+                    // [25] <Atom>  ->  [Number]
+                    switch (children.get(0).label.getTerminal()) {
+                        case NUMBER -> values.add(evaluation.number((Integer) children.get(0).label.getValue()));
+                        case VARNAME -> values.add(evaluation.variable(children.get(0).label.getValue().toString()));
+                        case MINUS -> {
+                            work.push(IrOpcode.NEG);
+                            work.push(children.get(1));
+                        }
+                        case LPAREN -> work.push(children.get(1));
+                        default -> throw new RuntimeException("Error in atom");
+                    }
+                }
+                case SimpleCond -> {
+                    // [35] <SimpleCond>  ->  {<Cond>}
+                    // [36] <SimpleCond>  ->  <ExprArith> <Comp> <ExprArith>
+                    if (children.get(0).label.getTerminal() == LexicalUnit.LBRACK) {
+                        work.push(children.get(1));
+                    } else {
+                        work.push(children.get(1).compOp());
+                        work.push(children.get(2));
+                        work.push(children.get(0));
+                    }
+                }
+                default -> throw new RuntimeException("Error in expression");
             }
         }
-        // Return the result of the last operation
-        return leftVar;
+        return values.get(0);
     }
 
+    /**
+     * What the leaves and operators of an expression or condition evaluate to.
+     */
+    interface Evaluation<T> {
+        T number(int value);
 
+        T variable(String name);
 
+        T negate(T value);
 
-    public String atom() {
-        // [22] <Atom>  ->  - <Atom>
-        // [23] <Atom>  ->  ( <ExprArith> )
-        // [24] <Atom>  ->  [Varname]
-        // [25] <Atom>  ->  [Number]
+        T apply(IrOpcode opcode, T left, T right);
+    }
 
-        LexicalUnit lu = children.get(0).label.getTerminal();
-        switch (lu) {
-            case NUMBER -> {
-                String nextVar = "%" + ++variableIndex;
-                String code = "  " + nextVar + "= add i32 0 , " + children.get(0).label.getValue() + "\n";
-                llvmCodeOutput.append(code);
-                return nextVar;
-            }
-            case MINUS -> {
-                children.get(1).atom();
-                String prevVar = "%" + (variableIndex -1);
-                String currentVar = "%" + variableIndex;
-                String nextVar = "%" + ++variableIndex;
-                String code = "  " + nextVar +"= mul i32 " + " -1" + " , " + currentVar + "\n";
-                llvmCodeOutput.append(code);
-                return nextVar;
-            }
-            case VARNAME -> {
-                String code = "  " + "%" + ++variableIndex + "= load i32, i32* " + "%" + children.get(0).label.getValue() + "\n";
-                llvmCodeOutput.append(code);
-                return "%" + variableIndex;
-            }
-            case LPAREN -> children.get(1).exprArith();
-        }
-        return "%" + variableIndex;
+    /**
+     * Emits the instructions computing an expression or condition; the values are IR values.
+     */
+    private static final class IrEvaluation implements Evaluation<Integer> {
+        private final IrFunction ir;
 
-    }
+        IrEvaluation(IrFunction ir) {
+            this.ir = ir;
+        }
 
-    public void ifExpr() {
-        // [26] <If>  -> if <Cond> then <Instruction> else <IfTail>
-        String var = children.get(1).cond();
-        String code = "  br i1 " + var + ", label %if" + ifIndex; // conditional jump to if or else
-        if (children.get(3).label.isNonTerminal()) {
-            code += ", label %Else" + ifIndex + "\n";
-        } else {
-            code += ", label %EndIf" + ifIndex + "\n";
+        @Override
+        public Integer number(int value) {
+            return ir.emit(IrOpcode.CONST, ir.constant(value));
         }
 
-        code += "if" + ifIndex + ":\n";
-        llvmCodeOutput.append(code);
-        children.get(3).instruction();
-        code = "  br label %EndIf" + ifIndex + "\n";
+        @Override
+        public Integer variable(String name) {
+            return ir.emit(IrOpcode.LOAD, ir.variable(name));
+        }
 
-        if (children.get(5).label.isNonTerminal()) { // if there is an else statement
-            code += "Else" + ifIndex + ":\n";
-            llvmCodeOutput.append(code);
-            children.get(5).ifTail();
-            code = "  br label %EndIf" + ifIndex + "\n";
+        @Override
+        public Integer negate(Integer value) {
+            return ir.emit(IrOpcode.NEG, value);
         }
 
-        code += "EndIf" + ifIndex + ":\n";
-        llvmCodeOutput.append(code);
-        ifIndex++;
+        @Override
+        public Integer apply(IrOpcode opcode, Integer left, Integer right) {
+            return ir.emit(opcode, left, right);
+        }
     }
 
-    public void ifTail() {
-        // [27] <IfTail>  ->  <Instruction>
-        // [28] <IfTail>  ->  EPSILON
-        if (children.get(0).label.isNonTerminal()) {
-            children.get(0).instruction();
+    /**
+     * Computes an expression or condition at compile time; a value is null when it depends on a variable, and a
+     * condition is 0 or 1. An "or" with a true operand is true and an "and" with a false operand is false even
+     * when the other operand is unknown.
+     */
+    static final Evaluation<Integer> CONSTANT_EVALUATION = new Evaluation<>() {
+        @Override
+        public Integer number(int value) {
+            return value;
         }
-    }
 
-    public String cond() {
-        // [29] <Cond>  ->  <Conj> <Cond'>
+        @Override
+        public Integer variable(String name) {
+            return null;
+        }
+
+        @Override
+        public Integer negate(Integer value) {
+            return value == null ? null : -value;
+        }
+
+        @Override
+        public Integer apply(IrOpcode opcode, Integer left, Integer right) {
+            if (opcode == IrOpcode.OR && (Integer.valueOf(1).equals(left) || Integer.valueOf(1).equals(right))) {
+                return 1;
+            }
+            if (opcode == IrOpcode.AND && (Integer.valueOf(0).equals(left) || Integer.valueOf(0).equals(right))) {
+                return 0;
+            }
+            return left == null || right == null ? null : ConstantFolding.evaluate(opcode, left, right);
+        }
+    };
 
-        String var = children.get(0).conj();
-        if (children.size() > 1) {
-            return condPrime(var, children.get(1));
+    public void branchOnCond(IrFunction ir, ArrayDeque<Runnable> work, IrBlock trueBlock, IrBlock falseBlock) {
+        // Jumps to trueBlock if this <Cond> holds and to falseBlock otherwise
+        if (shortCircuit) {
+            condBranch(ir, work, trueBlock, falseBlock);
         } else {
-            return var;
+            ir.emitCondBranch(cond(ir), trueBlock, falseBlock);
         }
     }
 
-    public String condPrime(String leftVar, ParseTree condPrimeTree) {
+    public void condBranch(IrFunction ir, ArrayDeque<Runnable> work, IrBlock trueBlock, IrBlock falseBlock) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        orBranch(ir, work, children.get(0), children.size() > 1 ? children.get(1) : null, trueBlock, falseBlock);
+    }
+
+    private static void orBranch(IrFunction ir, ArrayDeque<Runnable> work, ParseTree conjTree,
+                                 ParseTree condPrimeTree, IrBlock trueBlock, IrBlock falseBlock) {
         // [30] <Cond'>  ->  or <Conj> <Cond'>
-        // [31] <Cond'>  ->  EPSILON
-
-        LexicalUnit lu = condPrimeTree.children.get(0).label.getTerminal();
-        if (lu == LexicalUnit.OR) {
-            String rightVar = condPrimeTree.children.get(1).conj();
-            String code = "  %" + ++variableIndex + "= or i1 " + leftVar + ", " + rightVar + "\n";
-            llvmCodeOutput.append(code);
-            if (condPrimeTree.children.size() > 2) {
-                return condPrime("%" + variableIndex, condPrimeTree.children.get(2));
-            } else {
-                return "%" + variableIndex;
-            }
+        // The right operand of an "or" is only evaluated when the left one is false
+        if (condPrimeTree == null || condPrimeTree.children.get(0).label.getTerminal() != LexicalUnit.OR) {
+            conjTree.conjBranch(ir, work, trueBlock, falseBlock);
+            return;
         }
-        return "%" + variableIndex;
+        IrBlock nextBlock = ir.newBlock("OrElse" + ir.nextCondIndex());
+        schedule(work,
+                () -> conjTree.conjBranch(ir, work, trueBlock, nextBlock),
+                () -> ir.startBlock(nextBlock),
+                () -> orBranch(ir, work, condPrimeTree.children.get(1),
+                        condPrimeTree.children.size() > 2 ? condPrimeTree.children.get(2) : null,
+                        trueBlock, falseBlock));
     }
 
-    public String conj() {
+    public void conjBranch(IrFunction ir, ArrayDeque<Runnable> work, IrBlock trueBlock, IrBlock falseBlock) {
         // [32] <Conj>  ->  <SimpleCond> <Conj'>
-        String var = children.get(0).simpleCond();
-        if (children.size() > 1) {
-            return conjPrime(var, children.get(1));
-        } else {
-            return var;
-        }
+        andBranch(ir, work, children.get(0), children.size() > 1 ? children.get(1) : null, trueBlock, falseBlock);
     }
 
-    public String conjPrime(String leftVar, ParseTree conjPrimeTree) {
+    private static void andBranch(IrFunction ir, ArrayDeque<Runnable> work, ParseTree simpleCondTree,
+                                  ParseTree conjPrimeTree, IrBlock trueBlock, IrBlock falseBlock) {
         // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
-        // [34] <Conj'>  ->  EPSILON
-
-        LexicalUnit lu = conjPrimeTree.children.get(0).label.getTerminal();
-        if (lu == LexicalUnit.AND) {
-            String rightVar = conjPrimeTree.children.get(1).simpleCond();
-            String code = "  %" + ++variableIndex + "= and i1 " + leftVar + ", " + rightVar + "\n";
-            llvmCodeOutput.append(code);
-            if (conjPrimeTree.children.size() > 2) {
-                return conjPrime("%" + variableIndex, conjPrimeTree.children.get(2));
-            } else {
-                return "%" + variableIndex;
-            }
+        // The right operand of an "and" is only evaluated when the left one is true
+        if (conjPrimeTree == null || conjPrimeTree.children.get(0).label.getTerminal() != LexicalUnit.AND) {
+            work.push(() -> simpleCondTree.simpleCondBranch(ir, work, trueBlock, falseBlock));
+            return;
         }
-        return "%" + variableIndex;
+        IrBlock nextBlock = ir.newBlock("AndThen" + ir.nextCondIndex());
+        schedule(work,
+                () -> simpleCondTree.simpleCondBranch(ir, work, nextBlock, falseBlock),
+                () -> ir.startBlock(nextBlock),
+                () -> andBranch(ir, work, conjPrimeTree.children.get(1),
+                        conjPrimeTree.children.size() > 2 ? conjPrimeTree.children.get(2) : null,
+                        trueBlock, falseBlock));
     }
 
-    public String simpleCond() {
+    public void simpleCondBranch(IrFunction ir, ArrayDeque<Runnable> work, IrBlock trueBlock, IrBlock falseBlock) {
         // [35] <SimpleCond>  ->  {<Cond>}
         // [36] <SimpleCond>  ->  <ExprArith> <Comp> <ExprArith>
-
-        LexicalUnit lu = children.get(0).label.getTerminal();
-        String var = null;
-
-        if (lu == LexicalUnit.LBRACK) {
-            var = children.get(1).cond();  // retrieve the result of the encapsulated condition
-        } else {
-            // Arithmetic comparison
-            String leftVar = children.get(0).exprArith();  // Assess the first arithmetic expression
-            String comp = children.get(1).compOp();        // Get the comparison operator
-            String rightVar = children.get(2).exprArith(); // Assess the second arithmetic expression
-
-            // Generate comparison code
-            String resultVar = "%" + ++variableIndex;
-            String code = "  " + resultVar + "= icmp " + comp + " i32 " + leftVar + ", " + rightVar + "\n";
-            llvmCodeOutput.append(code);
-            var = resultVar;
+        if (children.get(0).label.getTerminal() == LexicalUnit.LBRACK) {
+            work.push(() -> children.get(1).condBranch(ir, work, trueBlock, falseBlock));
+            return;
         }
+        ir.emitCondBranch(evaluate(new IrEvaluation(ir)), trueBlock, falseBlock);
+    }
 
-        return var;
+    public Boolean constantCond() {
+        // [29] <Cond>, [32] <Conj> or [35] - [36] <SimpleCond>
+        // Returns the value of the condition if it does not depend on any variable, null otherwise
+        Integer value = evaluate(CONSTANT_EVALUATION);
+        return value == null ? null : value != 0;
     }
 
+    public Integer constantExpr() {
+        // [14] <ExprArith>, [18] <Prod> or [22] - [25] <Atom>
+        // Returns the value of the expression if it does not depend on any variable, null otherwise
+        return evaluate(CONSTANT_EVALUATION);
+    }
 
-    public String compOp() {
+    public IrOpcode compOp() {
         // [37] <Comp>  ->  =
         // [38] <Comp>  ->  <
         return switch (children.get(0).label.getTerminal()) {
-            case EQUAL -> "eq";
-            case SMALLER -> "slt";
+            case EQUAL -> IrOpcode.ICMP_EQ;
+            case SMALLER -> IrOpcode.ICMP_SLT;
             default -> null;
         };
 
     }
 
-    public void whileExpr() {
+    public void whileExpr(IrFunction ir, ArrayDeque<Runnable> work) {
         // [39] <While>  ->  while <Cond> do <Instruction>
-        Integer whileCount = whileIndex++;
-        String code = "  br label %CondWhile" + whileCount + "\n" +  // unconditional jump to while
-                "CondWhile" + whileCount +":\n";
-        llvmCodeOutput.append(code); // get code of WHILE condition
-        children.get(1).cond();
-        code = "  br i1 " + "%" + variableIndex + ", label %While" + whileCount + ", label %WhileEnd" +
-                whileCount + "\n" +
-                "While" + whileCount + ":\n";
-        llvmCodeOutput.append(code);
-        children.get(3).instruction();
-        code = "  br label %CondWhile" + whileCount+ "\n" +
-                "WhileEnd" + whileCount + ":\n";
-        llvmCodeOutput.append(code);
-    }
-
-
-    public String printExpr() {
+        Boolean knownCond = children.get(1).constantCond();
+        if (knownCond == Boolean.FALSE) {
+            return; // the body is never executed
+        }
+        int whileCount = ir.nextWhileIndex();
+        IrBlock condBlock = ir.newBlock("CondWhile" + whileCount);
+        IrBlock bodyBlock = ir.newBlock("While" + whileCount);
+        IrBlock endBlock = ir.newBlock("WhileEnd" + whileCount);
+        ir.emitBranch(condBlock); // unconditional jump to while
+
+        ir.startBlock(condBlock); // get code of WHILE condition
+        schedule(work,
+                () -> {
+                    if (knownCond == Boolean.TRUE) {
+                        ir.emitBranch(bodyBlock);
+                    } else {
+                        children.get(1).branchOnCond(ir, work, bodyBlock, endBlock);
+                    }
+                },
+                () -> ir.startBlock(bodyBlock),
+                () -> children.get(3).instruction(ir, work),
+                () -> ir.emitBranch(condBlock),
+                () -> ir.startBlock(endBlock));
+    }
+
+
+    public void printExpr(IrFunction ir) {
         // [40] <Print>  ->  print([VarName])
-        String code = "  " + "%" + ++variableIndex + "= load i32, i32* %" + children.get(2).label.getValue().toString() + "\n"
-                + "  call void @println(i32 " + "%" + variableIndex + ")\n";
-        llvmCodeOutput.append(code);
-        isPrintFunctionUsed = true;
-        return "%" + variableIndex;
-    }
-
-    public String readExpr() {
-        String code;
-        if (!allocatedVariables.contains(children.get(2).label.getValue())){
-            code = "  %" + children.get(2).label.getValue() + "= alloca i32\n";
-            llvmCodeOutput.append(code);
-            allocatedVariables.add(children.get(2).label.getValue().toString());
-        }
-        code = "  " + "%" + ++variableIndex + "= call i32 @readInt()\n" +
-                "  store i32 " + "%" + variableIndex + ", i32* %" + children.get(2).label.getValue() + "\n";
-        llvmCodeOutput.append(code);
-        isReadFunctionUsed = true;
-        return "%" + variableIndex;
-    }
-
-    private static String get_print(){
-        return """
-                @.strP= private unnamed_addr constant [4 x i8] c"%d\\0A\\00", align 1
-                define void @println(i32 %var) {
-                  %1= call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([4 x i8], [4 x i8]* @.strP, i32 0, i32 0), i32 %var)
-                  ret void
-                }
-                declare i32 @printf(i8*, ...)
-                """;
-    }
-
-    private static String get_read(){
-        return """
-                @.strR= private unnamed_addr constant [3 x i8] c"%d\\00", align 1
-                define i32 @readInt() {
-                  %var= alloca i32, align 4
-                  %1= call i32 (i8*, ...) @scanf(i8* getelementptr inbounds ([3 x i8], [3 x i8]* @.strR, i32 0, i32 0), i32* %var)
-                  %2= load i32, i32* %var, align 4
-                  ret i32 %2
-                }
-                declare i32 @scanf(i8*, ...)
-                """;
+        int value = ir.emit(IrOpcode.LOAD, ir.variable(children.get(2).label.getValue().toString()));
+        ir.emit(IrOpcode.PRINT, value);
+    }
+
+    public void readExpr(IrFunction ir) {
+        // [41] <Read>  ->  read([VarName])
+        int variable = ir.variable(children.get(2).label.getValue().toString());
+        if (ir.allocate(variable)) {
+            ir.emit(IrOpcode.ALLOCA, variable);
+        }
+        ir.emit(IrOpcode.STORE, variable, ir.emit(IrOpcode.READ));
     }
 
-    public StringBuilder getLlvmCodeOutput() {
-        return llvmCodeOutput;
+    /**
+     * Chooses how the conditions of if and while statements are lowered.
+     *
+     * @param enabled true to jump out of an and/or chain as soon as its value is known (default),
+     *                false to evaluate every operand and combine them with and/or on i1.
+     */
+    public static void setShortCircuit(boolean enabled) {
+        shortCircuit = enabled;
     }
 }
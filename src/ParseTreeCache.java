@@ -0,0 +1,293 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Saves a {@link ParseTree} in a compact binary file kept next to its source, so that later compilations of an
+ * unchanged source can load the tree instead of lexing and parsing it again.
+ *
+ * The file holds the magic number "PMPT" and a format version (big-endian 32-bit integers), the SHA-256 hash of the
+ * source, the number of distinct strings of the terminals (identifiers and keywords) and each of them (its length in
+ * bytes and its UTF-8 bytes), the number of nodes, then the nodes in preorder. Every other integer is an unsigned
+ * LEB128 varint, zigzag-encoded when it may be negative.
+ *
+ * A node starts with a tag: an ordinal shifted left by 3, or'ed with a kind in the two low bits and a "positioned"
+ * flag in bit 2. Kind 0 is a non-terminal, and the ordinal is that of its {@link NonTerminal}; kinds 1, 2 and 3 are
+ * a terminal without value, with a number and with a string, and the ordinal is that of its {@link LexicalUnit}. The
+ * tag of a terminal is followed by:
+ * <ul>
+ *   <li>if the flag is set, its position: the zigzag difference between its line and the line of the previous
+ *   positioned terminal, then the zigzag difference between its column and the column of that terminal if they are
+ *   on the same line, else its column (lines count from 1, and the first terminal is compared to line 0 and column
+ *   0). The flag is clear for the terminals created without position (line 0 and column -1), and their position is
+ *   skipped;</li>
+ *   <li>its value: the zigzag number for kind 2, the index of the string in the table for kind 3, nothing for kind
+ *   1.</li>
+ * </ul>
+ * Every node ends with its number of children. When the tree is read, the nodes of the same non-terminal share their
+ * label, and so do the terminals of the same lexical unit without position and value. The file is memory-mapped to
+ * be read.
+ */
+public class ParseTreeCache {
+    private static final int MAGIC = 0x504D5054; // "PMPT"
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+
+    // low bits of the tag of a node: what follows it
+    private static final int KIND_BITS = 3;
+    private static final int KIND_MASK = 3;
+    private static final int NON_TERMINAL = 0;
+    private static final int NO_VALUE = 1;
+    private static final int NUMBER_VALUE = 2;
+    private static final int STRING_VALUE = 3;
+    private static final int POSITIONED = 4;
+
+    private static final NonTerminal[] NON_TERMINALS = NonTerminal.values();
+    private static final LexicalUnit[] LEXICAL_UNITS = LexicalUnit.values();
+
+    /**
+     * Returns the file caching the tree of a source file: the same path with the extension .pmpt.
+     *
+     * @param source the path of the source file.
+     * @return the path of the cache.
+     */
+    public static Path cacheFile(Path source) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return source.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + ".pmpt");
+    }
+
+    /**
+     * Computes the hash identifying the content of a source file.
+     *
+     * @param source the path of the source file.
+     * @return the SHA-256 hash of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static byte[] hash(Path source) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(source));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform provides SHA-256
+        }
+    }
+
+    /**
+     * Writes a tree to a cache file.
+     *
+     * @param tree the parse tree.
+     * @param sourceHash the hash of its source, see {@link #hash(Path)}.
+     * @param cache the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(ParseTree tree, byte[] sourceHash, Path cache) throws IOException {
+        // first walk: the string table and the number of nodes
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int nodeCount = 0;
+        ArrayDeque<ParseTree> work = new ArrayDeque<>();
+        work.push(tree);
+        while (!work.isEmpty()) {
+            ParseTree node = work.pop();
+            nodeCount++;
+            if (node.getLabel().getValue() instanceof String value) {
+                strings.putIfAbsent(value, strings.size());
+            }
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                work.push(node.getChildren().get(i));
+            }
+        }
+
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(cache), 1 << 16)) {
+            writeInt(output, MAGIC);
+            writeInt(output, VERSION);
+            output.write(sourceHash);
+            writeVarint(output, strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(output, bytes.length);
+                output.write(bytes);
+            }
+            writeVarint(output, nodeCount);
+            // second walk: the nodes in preorder
+            int line = 0;
+            int column = 0;
+            work.push(tree);
+            while (!work.isEmpty()) {
+                ParseTree node = work.pop();
+                Symbol label = node.getLabel();
+                if (label.isNonTerminal()) {
+                    writeVarint(output, label.getNonTerminal().ordinal() << KIND_BITS | NON_TERMINAL);
+                } else {
+                    Object value = label.getValue();
+                    int kind = value instanceof Integer ? NUMBER_VALUE : value instanceof String ? STRING_VALUE : NO_VALUE;
+                    // a symbol created without position has line 0 (the undefined line plus 1) and column -1
+                    boolean positioned = label.getLine() != 0 || label.getColumn() != -1;
+                    writeVarint(output, label.getType().ordinal() << KIND_BITS | (positioned ? POSITIONED : 0) | kind);
+                    if (positioned) {
+                        // most tokens are on the line of the previous one, a few columns further
+                        writeVarint(output, zigzag(label.getLine() - line));
+                        writeVarint(output, zigzag(label.getLine() == line ? label.getColumn() - column
+                                : label.getColumn()));
+                        line = label.getLine();
+                        column = label.getColumn();
+                    }
+                    if (kind == NUMBER_VALUE) {
+                        writeVarint(output, zigzag((Integer) value));
+                    } else if (kind == STRING_VALUE) {
+                        writeVarint(output, strings.get((String) value));
+                    }
+                }
+                writeVarint(output, node.getChildren().size());
+                for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                    work.push(node.getChildren().get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a tree from a cache file, if it exists and was written for the current content of the source.
+     *
+     * The labels without position of the tree read are shared between its nodes, and so are the empty lists of
+     * children of its leaves.
+     *
+     * @param cache the cache file.
+     * @param sourceHash the hash of the source, see {@link #hash(Path)}.
+     * @return the parse tree, or null if there is no cache, or it is stale or damaged.
+     * @throws IOException if the file cannot be read.
+     */
+    public static ParseTree read(Path cache, byte[] sourceHash) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, sourceHash)) {
+                return null;
+            }
+            String[] strings = new String[readVarint(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readVarint(buffer)];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            Symbol[] nonTerminalLabels = new Symbol[NON_TERMINALS.length];
+            Symbol[] unpositionedLabels = new Symbol[LEXICAL_UNITS.length];
+            int nodeCount = readVarint(buffer);
+            Symbol[] labels = new Symbol[nodeCount];
+            int[] childCounts = new int[nodeCount];
+            int line = 0;
+            int column = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                int tag = readVarint(buffer);
+                int kind = tag & KIND_MASK;
+                if (kind == NON_TERMINAL) {
+                    int ordinal = tag >>> KIND_BITS;
+                    if (nonTerminalLabels[ordinal] == null) {
+                        nonTerminalLabels[ordinal] = new Symbol(null, NON_TERMINALS[ordinal]);
+                    }
+                    labels[i] = nonTerminalLabels[ordinal];
+                } else {
+                    LexicalUnit unit = LEXICAL_UNITS[tag >>> KIND_BITS];
+                    if ((tag & POSITIONED) != 0) {
+                        int lineDelta = unzigzag(readVarint(buffer));
+                        column = (lineDelta == 0 ? column : 0) + unzigzag(readVarint(buffer));
+                        line += lineDelta;
+                    }
+                    Object value = switch (kind) {
+                        case NUMBER_VALUE -> unzigzag(readVarint(buffer));
+                        case STRING_VALUE -> strings[readVarint(buffer)];
+                        default -> null;
+                    };
+                    if ((tag & POSITIONED) != 0) {
+                        // the constructor counts lines from 1
+                        labels[i] = new Symbol(unit, line - 1, column, value);
+                    } else if (value == null) {
+                        if (unpositionedLabels[unit.ordinal()] == null) {
+                            unpositionedLabels[unit.ordinal()] = new Symbol(unit);
+                        }
+                        labels[i] = unpositionedLabels[unit.ordinal()];
+                    } else {
+                        labels[i] = new Symbol(unit, value);
+                    }
+                }
+                childCounts[i] = readVarint(buffer);
+            }
+            // the subtrees are built from the last node, so the children of a node are on top of the stack
+            ArrayDeque<ParseTree> subtrees = new ArrayDeque<>();
+            List<ParseTree> noChildren = List.of();
+            for (int i = nodeCount - 1; i >= 0; i--) {
+                List<ParseTree> children = noChildren;
+                if (childCounts[i] > 0) {
+                    ParseTree[] childArray = new ParseTree[childCounts[i]];
+                    for (int child = 0; child < childArray.length; child++) {
+                        childArray[child] = subtrees.pop();
+                    }
+                    children = Arrays.asList(childArray);
+                }
+                subtrees.push(new ParseTree(labels[i], children));
+            }
+            return subtrees.size() == 1 && !buffer.hasRemaining() ? subtrees.pop() : null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException
+                | NoSuchElementException e) {
+            return null; // e.g. written by a compilation that was interrupted
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeInt(OutputStream output, int value) throws IOException {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+    private static void writeVarint(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
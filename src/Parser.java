@@ -1,7 +1,10 @@
 import java.util.List;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * Parser for PascalMaisPresque.
@@ -16,6 +19,14 @@ public class Parser{
      * Lexer object for the parsed file.
      */
     private LexicalAnalyzer scanner;
+    /**
+     * Tokens lexed beforehand, read instead of the lexer when the parser is created from a list of tokens.
+     */
+    private Iterator<Symbol> tokens;
+    /**
+     * Number of tokens read so far, look-ahead included.
+     */
+    private int tokenCount=0;
     /**
      * Current symbol at the head of the word to be read. This corresponds to the look-ahead (of length 1).
      */
@@ -24,6 +35,10 @@ public class Parser{
      * Option to print only the rule number (false) or the full rule (true).
      */
     private boolean fullRuleDisplay=false;
+    /**
+     * Option to print the rules used at all.
+     */
+    private boolean ruleDisplay=true;
     /**
      * Width (in characters) of the widest left handside in a production rule.
      */
@@ -42,6 +57,44 @@ public class Parser{
     public Parser(FileReader source) throws IOException{
         this.scanner = new LexicalAnalyzer(source);
         this.current = scanner.nextToken();
+        this.tokenCount = 1;
+    }
+
+    /**
+     * Creates a Parser object reading tokens lexed beforehand, e.g. to time lexing and parsing separately.
+     * 
+     * @param tokens the tokens of the parsed file, ending with {@link LexicalUnit#EOS EOS}, see {@link #lex(Reader)}.
+     */
+    public Parser(List<Symbol> tokens){
+        this.tokens = tokens.iterator();
+        this.current = this.tokens.next();
+        this.tokenCount = 1;
+    }
+
+    /**
+     * Lexes a whole file.
+     * 
+     * @param source the parsed file.
+     * @return the tokens of the file, the last one being {@link LexicalUnit#EOS EOS}.
+     * @throws IOException in case the lexing fails (syntax error).
+     */
+    public static List<Symbol> lex(Reader source) throws IOException{
+        CompilerEvents.Lex event = new CompilerEvents.Lex();
+        event.begin();
+        LexicalAnalyzer scanner = new LexicalAnalyzer(source);
+        List<Symbol> tokens = new ArrayList<Symbol>();
+        Symbol token;
+        try {
+            do {
+                token = scanner.nextToken();
+                tokens.add(token);
+            } while (token.getType() != LexicalUnit.EOS);
+        } catch (IOException | RuntimeException e) {
+            event.finish(tokens.size(), e);
+            throw e;
+        }
+        event.finish(tokens.size(), null);
+        return tokens;
     }
     
     /* Display of the rules */
@@ -86,7 +139,9 @@ public class Parser{
      * @param ruleRhs the right hand-side of the rule as a String.
      */
     private void ruleOutput(int rNum, String ruleLhs,String ruleRhs) {
-        ruleOutput(rNum,ruleLhs,ruleRhs,this.fullRuleDisplay);
+        if (this.ruleDisplay) {
+            ruleOutput(rNum,ruleLhs,ruleRhs,this.fullRuleDisplay);
+        }
     }
     
     /**
@@ -103,6 +158,13 @@ public class Parser{
         this.fullRuleDisplay=false;
     }
 
+    /**
+     * Disables the display of the rules, e.g. when the program is run instead of compiled.
+     */
+    public void displayNoRules() {
+        this.ruleDisplay=false;
+    }
+
     /* Matching of terminals */
     /**
      * Advances in the input stream, consuming one token.
@@ -110,7 +172,12 @@ public class Parser{
      * @throws IOException in case the lexing fails (syntax error).
      */
     private void consume() throws IOException{
-        current = scanner.nextToken();
+        tokenCount++;
+        if (tokens == null) {
+            current = scanner.nextToken();
+        } else if (tokens.hasNext()) {
+            current = tokens.next();
+        } // else the look-ahead stays on EOS
     }
 
     /**
@@ -142,9 +209,18 @@ public class Parser{
      * @throws ParseException in case the parsing fails (syntax error).
      */
     public ParseTree parse() throws IOException, ParseException{
+        CompilerEvents.Parse event = new CompilerEvents.Parse();
+        event.begin();
         // Program is the initial symbol of the grammar
-        ParseTree pt = program();
-        if (!this.fullRuleDisplay) {System.out.println();} // New line at the end of list of rules
+        ParseTree pt;
+        try {
+            pt = program();
+        } catch (IOException | ParseException | RuntimeException e) {
+            event.finish(tokenCount, null, e);
+            throw e;
+        }
+        event.finish(tokenCount, pt, null);
+        if (this.ruleDisplay && !this.fullRuleDisplay) {System.out.println();} // New line at the end of list of rules
         return pt;
     }
     
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a pipeline of {@link IrPass passes} over an {@link IrFunction}, measuring the time spent in every pass and
+ * its effect on the size of the function.
+ */
+public class PassManager {
+    private final List<IrPass> passes = new ArrayList<>();
+    private final List<String> reportLines = new ArrayList<>();
+
+    /**
+     * Creates the pipeline of an optimization level.
+     *
+     * <ul>
+     *   <li>-O0: no pass, the IR is printed as generated;</li>
+     *   <li>-O1: control flow simplification, block-local load forwarding and value numbering, then dead code
+     *   elimination;</li>
+     *   <li>-O2: load forwarding and constant folding first, so that branches on variables holding a known
+     *   constant are folded by the control flow simplification, then loop-invariant code motion, and loads are
+     *   forwarded again across the merged blocks and preheaders.</li>
+     * </ul>
+     *
+     * @param level the optimization level, from 0 to 2.
+     * @return a pass manager running the pipeline of that level.
+     */
+    public static PassManager forLevel(int level) {
+        PassManager manager = new PassManager();
+        if (level >= 2) {
+            manager.add(new LoadForwarding());
+            manager.add(new ConstantFolding());
+        }
+        if (level >= 1) {
+            manager.add(new SimplifyCfg());
+        }
+        if (level >= 2) {
+            manager.add(new LoopInvariantCodeMotion());
+        }
+        if (level >= 1) {
+            manager.add(new LoadForwarding());
+            manager.add(new LocalValueNumbering());
+            manager.add(new DeadCodeElimination());
+        }
+        return manager;
+    }
+
+    /**
+     * Appends a pass to the pipeline.
+     *
+     * @param pass the pass.
+     */
+    public void add(IrPass pass) {
+        passes.add(pass);
+    }
+
+    /**
+     * Returns whether the pipeline contains a pass with the given name.
+     *
+     * @param name the name of a pass.
+     * @return true iff such a pass is run.
+     */
+    public boolean contains(String name) {
+        for (IrPass pass : passes) {
+            if (pass.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<IrPass> getPasses() {
+        return passes;
+    }
+
+    /**
+     * Runs every pass of the pipeline, in order.
+     *
+     * @param function the function to transform.
+     */
+    public void run(IrFunction function) {
+        for (IrPass pass : passes) {
+            int instructionsBefore = function.size();
+            int blocksBefore = function.getBlocks().size();
+            long start = System.nanoTime();
+            pass.run(function);
+            long elapsed = System.nanoTime() - start;
+            reportLines.add(String.format("  %-24s %9.3f ms  %+6d instructions  %+4d blocks",
+                    pass.getName(), elapsed / 1e6,
+                    function.size() - instructionsBefore, function.getBlocks().size() - blocksBefore));
+        }
+    }
+
+    /**
+     * Returns the time spent in each pass run so far and how it changed the size of the function.
+     *
+     * @return a human-readable report.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder("Pass timings:\n");
+        for (String line : reportLines) {
+            report.append(line).append("\n");
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,50 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A PMP program compiled to run inside the JVM.
+ */
+public interface PmpProgram {
+    /**
+     * Runs the program.
+     *
+     * @param in the source of the integers read by the program.
+     * @param out the destination of the integers printed by the program.
+     */
+    void run(IntSupplier in, IntConsumer out);
+
+    /**
+     * Returns a source reading integers separated by white space, like scanf("%d") does; 0 is read past the end of
+     * the input.
+     *
+     * @param input the input.
+     * @return the source.
+     */
+    static IntSupplier reader(InputStream input) {
+        InputStream buffered = new BufferedInputStream(input, 1 << 16);
+        return () -> {
+            try {
+                int c = buffered.read();
+                while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    c = buffered.read();
+                }
+                boolean negative = c == '-';
+                if (c == '-' || c == '+') {
+                    c = buffered.read();
+                }
+                int value = 0;
+                while (c >= '0' && c <= '9') {
+                    value = 10 * value + (c - '0');
+                    c = buffered.read();
+                }
+                return negative ? -value : value;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
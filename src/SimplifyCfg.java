@@ -0,0 +1,198 @@
+import java.util.List;
+
+/**
+ * Control flow simplification: constant branches, unreachable blocks and straight-line chains of blocks.
+ *
+ * <ul>
+ *   <li>a conditional branch on a constant (after {@link ConstantFolding}) or with twice the same target becomes
+ *   an unconditional one;</li>
+ *   <li>branches to a block that only jumps elsewhere go directly to the final target;</li>
+ *   <li>blocks that cannot be reached from the entry block are removed;</li>
+ *   <li>a block ending with an unconditional branch to a block that has no other predecessor is merged with it;</li>
+ *   <li>variables that are never loaded lose their alloca and their stores.</li>
+ * </ul>
+ */
+public class SimplifyCfg implements IrPass {
+    private int foldedBranches = 0;
+    private int threadedBranches = 0;
+    private int removedBlocks = 0;
+    private int mergedBlocks = 0;
+    private int removedAllocas = 0;
+
+    @Override
+    public String getName() {
+        return "simplify-cfg";
+    }
+
+    @Override
+    public void run(IrFunction function) {
+        boolean changed = true;
+        while (changed) {
+            changed = foldBranches(function);
+            changed |= threadBranches(function);
+            changed |= removeUnreachableBlocks(function);
+            changed |= mergeBlocks(function);
+            changed |= removeUnusedVariables(function); // may empty blocks, which can then be threaded
+        }
+        function.ensureAllocas();
+    }
+
+    private boolean foldBranches(IrFunction function) {
+        int before = foldedBranches;
+        for (IrBlock block : function.getBlocks()) {
+            int terminator = block.getTerminator();
+            if (function.getOpcode(terminator) != IrOpcode.CBR) {
+                continue;
+            }
+            int condition = function.getA(terminator);
+            int trueTarget = function.getB(terminator);
+            int falseTarget = function.getC(terminator);
+            if (IrFunction.isConstant(condition) || trueTarget == falseTarget) {
+                boolean taken = trueTarget == falseTarget || function.constantValue(condition) != 0;
+                int target = taken ? trueTarget : falseTarget;
+                function.replaceInstruction(terminator, IrOpcode.BR, target, IrFunction.NO_VALUE, IrFunction.NO_VALUE);
+                foldedBranches++;
+            }
+        }
+        return foldedBranches != before;
+    }
+
+    private boolean threadBranches(IrFunction function) {
+        int before = threadedBranches;
+        IrBlock entry = function.getBlocks().get(0);
+        for (IrBlock block : function.getBlocks()) {
+            int terminator = block.getTerminator();
+            switch (function.getOpcode(terminator)) {
+                case BR -> {
+                    int target = finalTarget(function, function.getA(terminator), entry);
+                    if (target != function.getA(terminator)) {
+                        function.replaceInstruction(terminator, IrOpcode.BR, target, IrFunction.NO_VALUE,
+                                IrFunction.NO_VALUE);
+                        threadedBranches++;
+                    }
+                }
+                case CBR -> {
+                    int trueTarget = finalTarget(function, function.getB(terminator), entry);
+                    int falseTarget = finalTarget(function, function.getC(terminator), entry);
+                    if (trueTarget != function.getB(terminator) || falseTarget != function.getC(terminator)) {
+                        function.replaceInstruction(terminator, IrOpcode.CBR, function.getA(terminator),
+                                trueTarget, falseTarget);
+                        threadedBranches++;
+                    }
+                }
+                default -> { }
+            }
+        }
+        return threadedBranches != before;
+    }
+
+    private static int finalTarget(IrFunction function, int target, IrBlock entry) {
+        // Follows blocks made of a single unconditional branch, giving up on cycles
+        int current = target;
+        for (int steps = 0; steps <= function.getBlocks().size(); steps++) {
+            IrBlock block = function.getBlockById(current);
+            int terminator = block.getTerminator();
+            if (block == entry || block.size() != 1 || function.getOpcode(terminator) != IrOpcode.BR) {
+                return current;
+            }
+            current = function.getA(terminator);
+        }
+        return target;
+    }
+
+    private boolean removeUnreachableBlocks(IrFunction function) {
+        DominatorTree dominators = new DominatorTree(function);
+        int before = function.getBlocks().size();
+        function.getBlocks().removeIf(block -> !dominators.isReachable(block));
+        removedBlocks += before - function.getBlocks().size();
+        function.computeCfg();
+        return function.getBlocks().size() != before;
+    }
+
+    private boolean mergeBlocks(IrFunction function) {
+        List<IrBlock> blocks = function.getBlocks();
+        IrBlock entry = blocks.get(0);
+        int blockCount = 0;
+        for (IrBlock block : blocks) {
+            blockCount = Math.max(blockCount, block.getId() + 1);
+        }
+        boolean[] isMerged = new boolean[blockCount];
+        int mergedBefore = mergedBlocks;
+        for (IrBlock block : blocks) {
+            if (isMerged[block.getId()]) {
+                continue;
+            }
+            while (true) {
+                int terminator = block.getTerminator();
+                if (function.getOpcode(terminator) != IrOpcode.BR) {
+                    break;
+                }
+                IrBlock successor = function.getBlockById(function.getA(terminator));
+                if (successor == block || successor == entry || successor.getPredecessors().size() != 1) {
+                    break;
+                }
+                block.remove(block.size() - 1);
+                for (int i = 0; i < successor.size(); i++) {
+                    block.add(successor.get(i));
+                }
+                block.getSuccessors().clear();
+                block.getSuccessors().addAll(successor.getSuccessors());
+                for (IrBlock next : successor.getSuccessors()) {
+                    next.getPredecessors().replaceAll(predecessor -> predecessor == successor ? block : predecessor);
+                }
+                isMerged[successor.getId()] = true;
+                mergedBlocks++;
+            }
+        }
+        if (mergedBlocks == mergedBefore) {
+            return false;
+        }
+        blocks.removeIf(block -> isMerged[block.getId()]);
+        return true;
+    }
+
+    private boolean removeUnusedVariables(IrFunction function) {
+        int removed = DeadCodeElimination.removeUnused(function, null);
+        boolean[] isLoaded = new boolean[function.getVariableCount()];
+        for (IrBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                if (function.getOpcode(block.get(i)) == IrOpcode.LOAD) {
+                    isLoaded[function.getA(block.get(i))] = true;
+                }
+            }
+        }
+        for (IrBlock block : function.getBlocks()) {
+            removed += block.retain(instruction -> {
+                IrOpcode opcode = function.getOpcode(instruction);
+                if ((opcode == IrOpcode.ALLOCA || opcode == IrOpcode.STORE) && !isLoaded[function.getA(instruction)]) {
+                    if (opcode == IrOpcode.ALLOCA) {
+                        removedAllocas++;
+                    }
+                    return false;
+                }
+                return true;
+            });
+        }
+        return removed > 0;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    public int getThreadedBranches() {
+        return threadedBranches;
+    }
+
+    public int getRemovedBlocks() {
+        return removedBlocks;
+    }
+
+    public int getMergedBlocks() {
+        return mergedBlocks;
+    }
+
+    public int getRemovedAllocas() {
+        return removedAllocas;
+    }
+}
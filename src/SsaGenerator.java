@@ -0,0 +1,579 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LLVM IR generation in SSA form, without any memory traffic for variables.
+ *
+ * Instead of one alloca slot per variable, the current value of every variable is tracked per basic block and
+ * phi nodes are inserted where control flow joins (EndIf, CondWhile, ...). The construction is done on the fly
+ * while walking the parse tree, following Braun et al., "Simple and Efficient Construction of Static Single
+ * Assignment Form" (CC 2013): a block is sealed once all its predecessors are known, reads in unsealed blocks
+ * (loop headers) create incomplete phis that are completed when the back-edge has been generated, and trivial
+ * phis are removed.
+ *
+ * Temporaries are named <code>%.N</code> and phis <code>%var.N</code> so that phis can be placed at the head of
+ * their block after the rest of the block has already been numbered.
+ */
+public class SsaGenerator {
+    /**
+     * A value usable as an operand: a constant, the result of an instruction or a phi.
+     */
+    private static class Value {
+        final String name;
+        Value replacedBy;
+
+        Value(String name) {
+            this.name = name;
+        }
+
+        Value resolve() {
+            Value value = this;
+            while (value.replacedBy != null) {
+                value = value.replacedBy;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A phi node; its operands follow the order of the predecessors of its block.
+     */
+    private static final class Phi extends Value {
+        private final Block block;
+        private final List<Value> operands = new ArrayList<>();
+
+        Phi(String name, Block block) {
+            super(name);
+            this.block = block;
+        }
+    }
+
+    /**
+     * A non-terminator instruction, printed as <code>result= opcode op1, op2suffix</code>.
+     */
+    private static final class Instruction {
+        private final Value result;
+        private final String opcode;
+        private final String suffix;
+        private final Value[] operands;
+
+        Instruction(Value result, String opcode, String suffix, Value... operands) {
+            this.result = result;
+            this.opcode = opcode;
+            this.suffix = suffix;
+            this.operands = operands;
+        }
+    }
+
+    /**
+     * A basic block, with the current definition of every variable assigned in it.
+     */
+    private static final class Block {
+        private final String name;
+        private final List<Block> predecessors = new ArrayList<>();
+        private final List<Phi> phis = new ArrayList<>();
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final Map<String, Value> currentDef = new HashMap<>();
+        private final Map<String, Phi> incompletePhis = new HashMap<>();
+        private boolean sealed = false;
+        private Value branchCondition;
+        private Block trueTarget;
+        private Block falseTarget;
+
+        Block(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Value UNDEFINED = new Value("0");
+
+    private final boolean shortCircuit;
+    private final List<Block> blocks = new ArrayList<>();
+    private Block current;
+    private int tempIndex = 0;
+    private int phiIndex = 0;
+    private int ifIndex = 0;
+    private int whileIndex = 0;
+    private int condIndex = 0;
+    private boolean isReadFunctionUsed = false;
+    private boolean isPrintFunctionUsed = false;
+    private boolean bufferedIo = false;
+
+    /**
+     * Creates a generator.
+     *
+     * @param shortCircuit true to lower and/or conditions to branch chains, false to evaluate them on i1.
+     */
+    public SsaGenerator(boolean shortCircuit) {
+        this.shortCircuit = shortCircuit;
+    }
+
+    /**
+     * Chooses the runtime functions appended to the module, see {@link LlvmPrinter#setBufferedIo(boolean)}.
+     *
+     * @param enabled true for the buffered runtime, false for the printf/scanf one (default).
+     */
+    public void setBufferedIo(boolean enabled) {
+        this.bufferedIo = enabled;
+    }
+
+    /* Variable tracking (Braun et al.) */
+
+    private void writeVariable(String variable, Block block, Value value) {
+        block.currentDef.put(variable, value);
+    }
+
+    /**
+     * A block whose definition of the variable being read waits for the definitions in its predecessors: the only
+     * one, or the operands of a new phi, read one after the other.
+     */
+    private static final class PendingRead {
+        private final Block block;
+        private final Phi phi;
+        private int predecessor = 0;
+
+        PendingRead(Block block, Phi phi) {
+            this.block = block;
+            this.phi = phi;
+        }
+    }
+
+    /**
+     * Returns the value of a variable at the end of a block. The recursive lookup of Braun et al. through the
+     * predecessors is done with a stack of pending reads, so that long chains of blocks cannot overflow the Java
+     * stack; the phis are created and filled in the same order.
+     */
+    private Value readVariable(String variable, Block block) {
+        ArrayDeque<PendingRead> pending = new ArrayDeque<>();
+        Value value;
+        while (true) {
+            // down to a block where the variable is known, or that needs a phi without reading further
+            while (true) {
+                Value definition = block.currentDef.get(variable);
+                if (definition != null) {
+                    value = definition.resolve();
+                    break;
+                }
+                if (!block.sealed) {
+                    Phi phi = newPhi(variable, block);
+                    block.incompletePhis.put(variable, phi);
+                    value = phi;
+                } else if (block.predecessors.isEmpty()) {
+                    value = UNDEFINED; // read before any assignment
+                } else if (block.predecessors.size() == 1) {
+                    pending.push(new PendingRead(block, null));
+                    block = block.predecessors.get(0);
+                    continue;
+                } else {
+                    Phi phi = newPhi(variable, block);
+                    writeVariable(variable, block, phi); // breaks cycles through loops
+                    pending.push(new PendingRead(block, phi));
+                    block = block.predecessors.get(0);
+                    continue;
+                }
+                writeVariable(variable, block, value);
+                break;
+            }
+            // back up through the pending reads, until a phi needs the value in another predecessor
+            while (!pending.isEmpty()) {
+                PendingRead read = pending.peek();
+                if (read.phi != null) {
+                    read.phi.operands.add(value);
+                    if (++read.predecessor < read.block.predecessors.size()) {
+                        break;
+                    }
+                    value = tryRemoveTrivialPhi(read.phi);
+                }
+                writeVariable(variable, read.block, value);
+                pending.pop();
+            }
+            if (pending.isEmpty()) {
+                return value;
+            }
+            block = pending.peek().block.predecessors.get(pending.peek().predecessor);
+        }
+    }
+
+    private Phi newPhi(String variable, Block block) {
+        Phi phi = new Phi("%" + variable + "." + phiIndex++, block);
+        block.phis.add(phi);
+        return phi;
+    }
+
+    private Value addPhiOperands(String variable, Phi phi) {
+        for (Block predecessor : phi.block.predecessors) {
+            phi.operands.add(readVariable(variable, predecessor));
+        }
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    private Value tryRemoveTrivialPhi(Phi phi) {
+        Value same = null;
+        for (Value operand : phi.operands) {
+            Value resolved = operand.resolve();
+            if (resolved == same || resolved == phi) {
+                continue;
+            }
+            if (same != null) {
+                return phi; // merges at least two values
+            }
+            same = resolved;
+        }
+        if (same == null) {
+            same = UNDEFINED;
+        }
+        phi.replacedBy = same;
+        phi.block.phis.remove(phi);
+        return same;
+    }
+
+    private void sealBlock(Block block) {
+        for (Map.Entry<String, Phi> entry : block.incompletePhis.entrySet()) {
+            addPhiOperands(entry.getKey(), entry.getValue());
+        }
+        block.incompletePhis.clear();
+        block.sealed = true;
+    }
+
+    /* Blocks and instructions */
+
+    private Block newBlock(String name) {
+        return new Block(name);
+    }
+
+    private void startBlock(Block block) {
+        blocks.add(block);
+        current = block;
+    }
+
+    private void jump(Block target) {
+        current.trueTarget = target;
+        target.predecessors.add(current);
+    }
+
+    private void branch(Value condition, Block trueTarget, Block falseTarget) {
+        current.branchCondition = condition;
+        current.trueTarget = trueTarget;
+        current.falseTarget = falseTarget;
+        trueTarget.predecessors.add(current);
+        falseTarget.predecessors.add(current);
+    }
+
+    private Value emit(String opcode, Value... operands) {
+        Value result = new Value("%." + ++tempIndex);
+        current.instructions.add(new Instruction(result, opcode, "", operands));
+        return result;
+    }
+
+    /* Code generation */
+
+    /**
+     * Generates the LLVM IR of a whole program.
+     *
+     * @param program a ParseTree with a &lt;Program&gt; non-terminal at the root.
+     * @return the LLVM IR module.
+     */
+    public String generate(ParseTree program) {
+        // [1] <Program>  ->  begin <Code> end
+        Block entry = newBlock("entry");
+        entry.sealed = true;
+        startBlock(entry);
+        ParseTree code = program.getChildren().get(1);
+        if (code.getChildren().get(0).getLabel().isNonTerminal()) {
+            ArrayDeque<Runnable> work = new ArrayDeque<>();
+            instructionList(code.getChildren().get(0), work);
+            while (!work.isEmpty()) {
+                work.pop().run();
+            }
+        }
+        removeTrivialPhis();
+
+        StringBuilder output = new StringBuilder("define i32 @main() {\n");
+        for (Block block : blocks) {
+            appendBlock(output, block);
+        }
+        output.append("  ret i32 0\n}\n");
+        if (isReadFunctionUsed) {
+            output.append(LlvmPrinter.readFunction(bufferedIo));
+        }
+        if (isPrintFunctionUsed) {
+            output.append(LlvmPrinter.printFunction(bufferedIo));
+        }
+        return output.toString();
+    }
+
+    private void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                for (Phi phi : new ArrayList<>(block.phis)) {
+                    if (tryRemoveTrivialPhi(phi) != phi) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void appendBlock(StringBuilder output, Block block) {
+        output.append(block.name).append(":\n");
+        for (Phi phi : block.phis) {
+            output.append("  ").append(phi.name).append("= phi i32 ");
+            for (int i = 0; i < phi.operands.size(); i++) {
+                output.append(i == 0 ? "[ " : ", [ ").append(phi.operands.get(i).resolve().name)
+                        .append(", %").append(block.predecessors.get(i).name).append(" ]");
+            }
+            output.append("\n");
+        }
+        for (Instruction instruction : block.instructions) {
+            output.append("  ");
+            if (instruction.result != null) {
+                output.append(instruction.result.name).append("= ");
+            }
+            output.append(instruction.opcode);
+            for (int i = 0; i < instruction.operands.length; i++) {
+                output.append(i == 0 ? " " : ", ").append(instruction.operands[i].resolve().name);
+            }
+            output.append(instruction.suffix).append("\n");
+        }
+        if (block.branchCondition != null) {
+            output.append("  br i1 ").append(block.branchCondition.resolve().name)
+                    .append(", label %").append(block.trueTarget.name)
+                    .append(", label %").append(block.falseTarget.name).append("\n");
+        } else if (block.trueTarget != null) {
+            output.append("  br label %").append(block.trueTarget.name).append("\n");
+        }
+    }
+
+    /*
+     * Like ParseTree, the statements are generated without recursion: a statement method emits what comes before its
+     * children and schedules the rest as steps on a work stack, and the expressions and conditions are evaluated by
+     * ParseTree.evaluate(). The blocks, values and phis are created in the same order as a recursive walk.
+     */
+
+    /**
+     * Schedules steps to run one after the other, before the steps already on the work stack.
+     */
+    private static void schedule(ArrayDeque<Runnable> work, Runnable... steps) {
+        for (int i = steps.length - 1; i >= 0; i--) {
+            work.push(steps[i]);
+        }
+    }
+
+    private void instructionList(ParseTree instList, ArrayDeque<Runnable> work) {
+        // [4] <InstList>  ->  <Instruction><InstListTail>
+        // [5] <InstListTail>  ->  ...<Instruction><InstListTail>
+        List<ParseTree> instructions = new ArrayList<>();
+        instructions.add(instList.getChildren().get(0));
+        ParseTree tail = instList.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.DOTS) {
+            instructions.add(tail.getChildren().get(1));
+            tail = tail.getChildren().get(2);
+        }
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            ParseTree instruction = instructions.get(i);
+            work.push(() -> instruction(instruction, work));
+        }
+    }
+
+    private void instruction(ParseTree instruction, ArrayDeque<Runnable> work) {
+        // [7] - [12] <Instruction>
+        ParseTree first = instruction.getChildren().get(0);
+        if (first.getLabel().isTerminal()) {
+            instructionList(instruction.getChildren().get(1), work); // begin <InstList> end
+            return;
+        }
+        switch (first.getLabel().getNonTerminal()) {
+            case Assign -> assignExpr(first);
+            case If -> ifExpr(first, work);
+            case While -> whileExpr(first, work);
+            case Print -> printExpr(first);
+            case Read -> readExpr(first);
+            default -> throw new RuntimeException("Error in instruction");
+        }
+    }
+
+    private void assignExpr(ParseTree assign) {
+        // [13] <Assign>  ->  [Varname] := <ExprArith>
+        String variable = assign.getChildren().get(0).getLabel().getValue().toString();
+        writeVariable(variable, current, assign.getChildren().get(2).evaluate(evaluation));
+    }
+
+    private void printExpr(ParseTree print) {
+        // [40] <Print>  ->  print([VarName])
+        Value value = readVariable(print.getChildren().get(2).getLabel().getValue().toString(), current);
+        current.instructions.add(new Instruction(null, "call void @println(i32", ")", value));
+        isPrintFunctionUsed = true;
+    }
+
+    private void readExpr(ParseTree read) {
+        // [41] <Read>  ->  read([VarName])
+        String variable = read.getChildren().get(2).getLabel().getValue().toString();
+        writeVariable(variable, current, emit("call i32 @readInt()"));
+        isReadFunctionUsed = true;
+    }
+
+    private void ifExpr(ParseTree ifTree, ArrayDeque<Runnable> work) {
+        // [26] <If>  -> if <Cond> then <Instruction> else <IfTail>
+        int ifCount = ifIndex++;
+        Block thenBlock = newBlock("if" + ifCount);
+        Block elseBlock = newBlock("Else" + ifCount);
+        Block endBlock = newBlock("EndIf" + ifCount);
+        ParseTree ifTail = ifTree.getChildren().get(5);
+
+        schedule(work,
+                () -> branchOnCond(ifTree.getChildren().get(1), thenBlock, elseBlock, work),
+                () -> {
+                    sealBlock(thenBlock);
+                    sealBlock(elseBlock);
+                    startBlock(thenBlock);
+                },
+                () -> instruction(ifTree.getChildren().get(3), work),
+                () -> {
+                    jump(endBlock);
+                    startBlock(elseBlock);
+                },
+                () -> {
+                    if (ifTail.getChildren().get(0).getLabel().isNonTerminal()) {
+                        instruction(ifTail.getChildren().get(0), work);
+                    }
+                },
+                () -> {
+                    jump(endBlock);
+                    sealBlock(endBlock);
+                    startBlock(endBlock);
+                });
+    }
+
+    private void whileExpr(ParseTree whileTree, ArrayDeque<Runnable> work) {
+        // [39] <While>  ->  while <Cond> do <Instruction>
+        int whileCount = whileIndex++;
+        Block condBlock = newBlock("CondWhile" + whileCount);
+        Block bodyBlock = newBlock("While" + whileCount);
+        Block endBlock = newBlock("WhileEnd" + whileCount);
+
+        jump(condBlock);
+        startBlock(condBlock); // not sealed: the back-edge is still unknown
+        schedule(work,
+                () -> branchOnCond(whileTree.getChildren().get(1), bodyBlock, endBlock, work),
+                () -> {
+                    sealBlock(bodyBlock);
+                    sealBlock(endBlock);
+                    startBlock(bodyBlock);
+                },
+                () -> instruction(whileTree.getChildren().get(3), work),
+                () -> {
+                    jump(condBlock);
+                    sealBlock(condBlock);
+                    startBlock(endBlock);
+                });
+    }
+
+    /* Conditions */
+
+    private void branchOnCond(ParseTree cond, Block trueTarget, Block falseTarget, ArrayDeque<Runnable> work) {
+        if (shortCircuit) {
+            condBranch(cond, trueTarget, falseTarget, work);
+        } else {
+            branch(cond.evaluate(evaluation), trueTarget, falseTarget);
+        }
+    }
+
+    private void condBranch(ParseTree cond, Block trueTarget, Block falseTarget, ArrayDeque<Runnable> work) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        orBranch(cond.getChildren().get(0), cond.getChildren().get(1), trueTarget, falseTarget, work);
+    }
+
+    private void orBranch(ParseTree conj, ParseTree condPrime, Block trueTarget, Block falseTarget,
+                          ArrayDeque<Runnable> work) {
+        // [30] <Cond'>  ->  or <Conj> <Cond'>
+        if (condPrime.getChildren().get(0).getLabel().getTerminal() != LexicalUnit.OR) {
+            conjBranch(conj, trueTarget, falseTarget, work);
+            return;
+        }
+        Block next = newBlock("OrElse" + condIndex++);
+        schedule(work,
+                () -> conjBranch(conj, trueTarget, next, work),
+                () -> {
+                    sealBlock(next);
+                    startBlock(next);
+                },
+                () -> orBranch(condPrime.getChildren().get(1), condPrime.getChildren().get(2), trueTarget,
+                        falseTarget, work));
+    }
+
+    private void conjBranch(ParseTree conj, Block trueTarget, Block falseTarget, ArrayDeque<Runnable> work) {
+        // [32] <Conj>  ->  <SimpleCond> <Conj'>
+        andBranch(conj.getChildren().get(0), conj.getChildren().get(1), trueTarget, falseTarget, work);
+    }
+
+    private void andBranch(ParseTree simpleCond, ParseTree conjPrime, Block trueTarget, Block falseTarget,
+                           ArrayDeque<Runnable> work) {
+        // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
+        if (conjPrime.getChildren().get(0).getLabel().getTerminal() != LexicalUnit.AND) {
+            work.push(() -> simpleCondBranch(simpleCond, trueTarget, falseTarget, work));
+            return;
+        }
+        Block next = newBlock("AndThen" + condIndex++);
+        schedule(work,
+                () -> simpleCondBranch(simpleCond, next, falseTarget, work),
+                () -> {
+                    sealBlock(next);
+                    startBlock(next);
+                },
+                () -> andBranch(conjPrime.getChildren().get(1), conjPrime.getChildren().get(2), trueTarget,
+                        falseTarget, work));
+    }
+
+    private void simpleCondBranch(ParseTree simpleCond, Block trueTarget, Block falseTarget,
+                                  ArrayDeque<Runnable> work) {
+        // [35] <SimpleCond>  ->  {<Cond>}
+        if (simpleCond.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.LBRACK) {
+            work.push(() -> condBranch(simpleCond.getChildren().get(1), trueTarget, falseTarget, work));
+        } else {
+            branch(simpleCond.evaluate(evaluation), trueTarget, falseTarget);
+        }
+    }
+
+    /* Expressions */
+
+    /**
+     * Emits the instructions computing an expression or condition, see {@link ParseTree#evaluate}; the variables are
+     * read from the current block.
+     */
+    private final ParseTree.Evaluation<Value> evaluation = new ParseTree.Evaluation<>() {
+        @Override
+        public Value number(int value) {
+            return new Value(Integer.toString(value));
+        }
+
+        @Override
+        public Value variable(String name) {
+            return readVariable(name, current);
+        }
+
+        @Override
+        public Value negate(Value value) {
+            return emit("sub i32", new Value("0"), value);
+        }
+
+        @Override
+        public Value apply(IrOpcode opcode, Value left, Value right) {
+            return emit(switch (opcode) {
+                case ADD -> "add i32";
+                case SUB -> "sub i32";
+                case MUL -> "mul i32";
+                case SDIV -> "sdiv i32";
+                case AND -> "and i1";
+                case OR -> "or i1";
+                case ICMP_EQ -> "icmp eq i32";
+                case ICMP_SLT -> "icmp slt i32";
+                default -> throw new RuntimeException("Error in expression");
+            }, left, right);
+        }
+    };
+}
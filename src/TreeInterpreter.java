@@ -0,0 +1,578 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs a PMP program by walking a tree of nodes built once from its {@link ParseTree}, which is cheaper than
+ * compiling small programs.
+ *
+ * Building the tree resolves every variable name to the index of its slot in an int[] frame, folds the expressions
+ * and conditions that do not depend on any variable (bottom-up, from the nodes built for their operands), and picks specialized nodes for common shapes such as
+ * x := x + 1 or a comparison with a constant, so that running the program never looks anything up by name.
+ * Conditions are nodes evaluating to 0 or 1, and and/or only evaluate their right operand when needed.
+ */
+public class TreeInterpreter implements PmpProgram {
+    /** A node computing an int from the variables of a frame. */
+    abstract static class IntNode {
+        abstract int eval(int[] frame);
+    }
+
+    /** A node executing a statement on the variables of a frame. */
+    abstract static class StatementNode {
+        abstract void execute(int[] frame);
+    }
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final StatementNode body;
+    private IntSupplier in;
+    private IntConsumer out;
+
+    /**
+     * Prepares a program to be run.
+     *
+     * @param program the parse tree of the program.
+     */
+    public TreeInterpreter(ParseTree program) {
+        // [1] <Program>  ->  begin <Code> end
+        // [2] <Code>  ->  <InstList>
+        // [3] <Code>  ->  EPSILON
+        ParseTree code = program.getChildren().get(1);
+        ParseTree instructionList = code.getChildren().get(0);
+        this.body = instructionList.getLabel().isNonTerminal() ? instructionList(instructionList) : new Block();
+    }
+
+    /**
+     * Returns the number of variables of the program, i.e. the size of its frame.
+     *
+     * @return the number of variables.
+     */
+    public int getVariableCount() {
+        return slots.size();
+    }
+
+    @Override
+    public void run(IntSupplier in, IntConsumer out) {
+        this.in = in;
+        this.out = out;
+        body.execute(new int[slots.size()]);
+    }
+
+    private int slot(ParseTree varName) {
+        return slots.computeIfAbsent(varName.getLabel().getValue().toString(), name -> slots.size());
+    }
+
+    // statements
+
+    private StatementNode instructionList(ParseTree tree) {
+        // [4] <InstList>  ->  <Instruction><InstListTail>
+        // [5] <InstListTail>  ->  ...<Instruction><InstListTail>
+        // [6] <InstListTail>  ->  EPSILON
+        List<StatementNode> statements = new ArrayList<>();
+        statements.add(instruction(tree.getChildren().get(0)));
+        ParseTree tail = tree.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.DOTS) {
+            statements.add(instruction(tail.getChildren().get(1)));
+            tail = tail.getChildren().get(2);
+        }
+        statements.removeIf(statement -> statement instanceof Block block && block.statements.length == 0);
+        return statements.size() == 1 ? statements.get(0) : new Block(statements.toArray(new StatementNode[0]));
+    }
+
+    private StatementNode instruction(ParseTree tree) {
+        // [7] - [11] <Instruction>  ->  <Assign> | <If> | <While> | <Print> | <Read>
+        // [12] <Instruction>  ->  begin <InstList> end
+        ParseTree first = tree.getChildren().get(0);
+        if (!first.getLabel().isNonTerminal()) {
+            return instructionList(tree.getChildren().get(1));
+        }
+        List<ParseTree> children = first.getChildren();
+        return switch (first.getLabel().getNonTerminal()) {
+            case Assign -> assign(children);
+            case If -> ifStatement(children);
+            case While -> whileStatement(children);
+            case Print -> new Print(slot(children.get(2)));
+            case Read -> new Read(slot(children.get(2)));
+            default -> throw new RuntimeException("Error in instruction");
+        };
+    }
+
+    private StatementNode assign(List<ParseTree> children) {
+        // [13] <Assign>  ->  [Varname] := <ExprArith>
+        int slot = slot(children.get(0));
+        IntNode value = exprArith(children.get(2));
+        if (value instanceof AddConstant add && add.left instanceof Variable variable && variable.slot == slot) {
+            return new Increment(slot, add.constant);
+        }
+        return new Assign(slot, value);
+    }
+
+    private StatementNode ifStatement(List<ParseTree> children) {
+        // [26] <If>  -> if <Cond> then <Instruction> else <IfTail>
+        // [27] <IfTail>  ->  <Instruction>
+        // [28] <IfTail>  ->  EPSILON
+        ParseTree ifTail = children.get(5);
+        StatementNode thenStatement = instruction(children.get(3));
+        StatementNode elseStatement = ifTail.getLabel().isNonTerminal() && !ifTail.getChildren().isEmpty()
+                && ifTail.getChildren().get(0).getLabel().isNonTerminal()
+                ? instruction(ifTail.getChildren().get(0)) : new Block();
+        IntNode condition = cond(children.get(1));
+        if (condition instanceof Constant constant) {
+            return constant.value != 0 ? thenStatement : elseStatement;
+        }
+        return new If(condition, thenStatement, elseStatement);
+    }
+
+    private StatementNode whileStatement(List<ParseTree> children) {
+        // [39] <While>  ->  while <Cond> do <Instruction>
+        StatementNode body = instruction(children.get(3));
+        IntNode condition = cond(children.get(1));
+        if (condition instanceof Constant constant && constant.value == 0) {
+            return new Block();
+        }
+        return new While(condition, body);
+    }
+
+    // expressions
+
+    private IntNode exprArith(ParseTree tree) {
+        // [14] <ExprArith>  ->  <Prod> <ExprArith'>
+        // [15] <ExprArith'>  ->  + <Prod> <ExprArith'>
+        // [16] <ExprArith'>  ->  - <Prod> <ExprArith'>
+        // [17] <ExprArith'>  ->  EPSILON
+        IntNode left = prod(tree.getChildren().get(0));
+        ParseTree tail = tree.getChildren().get(1);
+        LexicalUnit lu = tail.getChildren().get(0).getLabel().getTerminal();
+        while (lu == LexicalUnit.PLUS || lu == LexicalUnit.MINUS) {
+            IntNode right = prod(tail.getChildren().get(1));
+            Constant folded = fold(lu == LexicalUnit.PLUS ? IrOpcode.ADD : IrOpcode.SUB, left, right);
+            if (folded != null) {
+                left = folded;
+            } else if (right instanceof Constant constant) {
+                left = new AddConstant(left, lu == LexicalUnit.PLUS ? constant.value : -constant.value);
+            } else {
+                left = lu == LexicalUnit.PLUS ? new Add(left, right) : new Sub(left, right);
+            }
+            tail = tail.getChildren().get(2);
+            lu = tail.getChildren().get(0).getLabel().getTerminal();
+        }
+        return left;
+    }
+
+    private IntNode prod(ParseTree tree) {
+        // [18] <Prod>  ->  <Atom> <Prod'>
+        // [19] <Prod'>  ->  * <Atom> <Prod'>
+        // [20] <Prod'>  ->  / <Atom> <Prod'>
+        // [21] <Prod'>  ->  EPSILON
+        IntNode left = atom(tree.getChildren().get(0));
+        ParseTree tail = tree.getChildren().get(1);
+        LexicalUnit lu = tail.getChildren().get(0).getLabel().getTerminal();
+        while (lu == LexicalUnit.TIMES || lu == LexicalUnit.DIVIDE) {
+            IntNode right = atom(tail.getChildren().get(1));
+            Constant folded = fold(lu == LexicalUnit.TIMES ? IrOpcode.MUL : IrOpcode.SDIV, left, right);
+            if (folded != null) {
+                left = folded; // a division by 0 is not folded, so that it fails when run
+            } else {
+                left = lu == LexicalUnit.TIMES ? new Mul(left, right) : new Div(left, right);
+            }
+            tail = tail.getChildren().get(2);
+            lu = tail.getChildren().get(0).getLabel().getTerminal();
+        }
+        return left;
+    }
+
+    private IntNode atom(ParseTree tree) {
+        // [22] <Atom>  ->  - <Atom>
+        // [23] <Atom>  ->  ( <ExprArith> )
+        // [24] <Atom>  ->  [Varname]
+        // [25] <Atom>  ->  [Number]
+        List<ParseTree> children = tree.getChildren();
+        return switch (children.get(0).getLabel().getTerminal()) {
+            case MINUS -> {
+                IntNode operand = atom(children.get(1));
+                yield operand instanceof Constant constant ? new Constant(-constant.value) : new Negate(operand);
+            }
+            case VARNAME -> new Variable(slot(children.get(0)));
+            case NUMBER -> new Constant((Integer) children.get(0).getLabel().getValue());
+            case LPAREN -> exprArith(children.get(1));
+            default -> throw new RuntimeException("Error in atom");
+        };
+    }
+
+    // conditions
+
+    private IntNode cond(ParseTree tree) {
+        // [29] <Cond>  ->  <Conj> <Cond'>
+        // [30] <Cond'>  ->  or <Conj> <Cond'>
+        // [31] <Cond'>  ->  EPSILON
+        IntNode left = conj(tree.getChildren().get(0));
+        ParseTree tail = tree.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.OR) {
+            IntNode right = conj(tail.getChildren().get(1));
+            // an "or" with a true operand is true even if the other one depends on a variable
+            if (left instanceof Constant constant && constant.value != 0) {
+                left = constant;
+            } else if (right instanceof Constant constant && constant.value != 0) {
+                left = constant;
+            } else {
+                Constant folded = fold(IrOpcode.OR, left, right);
+                left = folded != null ? folded : new Or(left, right);
+            }
+            tail = tail.getChildren().get(2);
+        }
+        return left;
+    }
+
+    private IntNode conj(ParseTree tree) {
+        // [32] <Conj>  ->  <SimpleCond> <Conj'>
+        // [33] <Conj'>  ->  and <SimpleCond> <Conj'>
+        // [34] <Conj'>  ->  EPSILON
+        IntNode left = simpleCond(tree.getChildren().get(0));
+        ParseTree tail = tree.getChildren().get(1);
+        while (tail.getChildren().get(0).getLabel().getTerminal() == LexicalUnit.AND) {
+            IntNode right = simpleCond(tail.getChildren().get(1));
+            // an "and" with a false operand is false even if the other one depends on a variable
+            if (left instanceof Constant constant && constant.value == 0) {
+                left = constant;
+            } else if (right instanceof Constant constant && constant.value == 0) {
+                left = constant;
+            } else {
+                Constant folded = fold(IrOpcode.AND, left, right);
+                left = folded != null ? folded : new And(left, right);
+            }
+            tail = tail.getChildren().get(2);
+        }
+        return left;
+    }
+
+    private IntNode simpleCond(ParseTree tree) {
+        // [35] <SimpleCond>  ->  {<Cond>}
+        // [36] <SimpleCond>  ->  <ExprArith> <Comp> <ExprArith>
+        List<ParseTree> children = tree.getChildren();
+        if (children.get(0).getLabel().getTerminal() == LexicalUnit.LBRACK) {
+            return cond(children.get(1));
+        }
+        IntNode left = exprArith(children.get(0));
+        IntNode right = exprArith(children.get(2));
+        IrOpcode opcode = children.get(1).compOp();
+        Constant folded = fold(opcode, left, right);
+        if (folded != null) {
+            return folded;
+        }
+        boolean isEqual = opcode == IrOpcode.ICMP_EQ;
+        if (right instanceof Constant constant) {
+            return isEqual ? new EqualConstant(left, constant.value) : new LessConstant(left, constant.value);
+        }
+        return isEqual ? new Equal(left, right) : new Less(left, right);
+    }
+
+    /**
+     * Folds an operation whose operands are both constant nodes.
+     *
+     * @return the constant node of its result, or null if an operand is not constant or the operation would trap.
+     */
+    private static Constant fold(IrOpcode opcode, IntNode left, IntNode right) {
+        if (left instanceof Constant leftConstant && right instanceof Constant rightConstant) {
+            Integer value = ConstantFolding.evaluate(opcode, leftConstant.value, rightConstant.value);
+            return value == null ? null : new Constant(value);
+        }
+        return null;
+    }
+
+    // statement nodes
+
+    private static final class Block extends StatementNode {
+        private final StatementNode[] statements;
+
+        Block(StatementNode... statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            for (StatementNode statement : statements) {
+                statement.execute(frame);
+            }
+        }
+    }
+
+    private static final class Assign extends StatementNode {
+        private final int slot;
+        private final IntNode value;
+
+        Assign(int slot, IntNode value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            frame[slot] = value.eval(frame);
+        }
+    }
+
+    private static final class Increment extends StatementNode {
+        private final int slot;
+        private final int constant;
+
+        Increment(int slot, int constant) {
+            this.slot = slot;
+            this.constant = constant;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            frame[slot] += constant;
+        }
+    }
+
+    private static final class If extends StatementNode {
+        private final IntNode condition;
+        private final StatementNode thenStatement;
+        private final StatementNode elseStatement;
+
+        If(IntNode condition, StatementNode thenStatement, StatementNode elseStatement) {
+            this.condition = condition;
+            this.thenStatement = thenStatement;
+            this.elseStatement = elseStatement;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            if (condition.eval(frame) != 0) {
+                thenStatement.execute(frame);
+            } else {
+                elseStatement.execute(frame);
+            }
+        }
+    }
+
+    private static final class While extends StatementNode {
+        private final IntNode condition;
+        private final StatementNode body;
+
+        While(IntNode condition, StatementNode body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            while (condition.eval(frame) != 0) {
+                body.execute(frame);
+            }
+        }
+    }
+
+    private final class Print extends StatementNode {
+        private final int slot;
+
+        Print(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            out.accept(frame[slot]);
+        }
+    }
+
+    private final class Read extends StatementNode {
+        private final int slot;
+
+        Read(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        void execute(int[] frame) {
+            frame[slot] = in.getAsInt();
+        }
+    }
+
+    // expression nodes
+
+    private static final class Constant extends IntNode {
+        private final int value;
+
+        Constant(int value) {
+            this.value = value;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return value;
+        }
+    }
+
+    private static final class Variable extends IntNode {
+        private final int slot;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return frame[slot];
+        }
+    }
+
+    private static final class Negate extends IntNode {
+        private final IntNode operand;
+
+        Negate(IntNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return -operand.eval(frame);
+        }
+    }
+
+    private static final class AddConstant extends IntNode {
+        private final IntNode left;
+        private final int constant;
+
+        AddConstant(IntNode left, int constant) {
+            this.left = left;
+            this.constant = constant;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) + constant;
+        }
+    }
+
+    private abstract static class Binary extends IntNode {
+        final IntNode left;
+        final IntNode right;
+
+        Binary(IntNode left, IntNode right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static final class Add extends Binary {
+        Add(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) + right.eval(frame);
+        }
+    }
+
+    private static final class Sub extends Binary {
+        Sub(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) - right.eval(frame);
+        }
+    }
+
+    private static final class Mul extends Binary {
+        Mul(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) * right.eval(frame);
+        }
+    }
+
+    private static final class Div extends Binary {
+        Div(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) / right.eval(frame);
+        }
+    }
+
+    private static final class Equal extends Binary {
+        Equal(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) == right.eval(frame) ? 1 : 0;
+        }
+    }
+
+    private static final class Less extends Binary {
+        Less(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) < right.eval(frame) ? 1 : 0;
+        }
+    }
+
+    private static final class EqualConstant extends IntNode {
+        private final IntNode left;
+        private final int constant;
+
+        EqualConstant(IntNode left, int constant) {
+            this.left = left;
+            this.constant = constant;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) == constant ? 1 : 0;
+        }
+    }
+
+    private static final class LessConstant extends IntNode {
+        private final IntNode left;
+        private final int constant;
+
+        LessConstant(IntNode left, int constant) {
+            this.left = left;
+            this.constant = constant;
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) < constant ? 1 : 0;
+        }
+    }
+
+    private static final class And extends Binary {
+        And(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) != 0 ? right.eval(frame) : 0;
+        }
+    }
+
+    private static final class Or extends Binary {
+        Or(IntNode left, IntNode right) {
+            super(left, right);
+        }
+
+        @Override
+        int eval(int[] frame) {
+            return left.eval(frame) != 0 ? 1 : right.eval(frame);
+        }
+    }
+}
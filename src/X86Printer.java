@@ -0,0 +1,305 @@
+/**
+ * Renders an {@link IrFunction} as x86-64 assembly for the GNU assembler (System V ABI), without going through
+ * LLVM.
+ *
+ * Variables and values are placed by a {@link LinearScanAllocator}; %eax, %ecx and %edx are kept as scratch
+ * registers. A comparison used only by the conditional branch that follows it sets the flags for the jump instead
+ * of being materialized. @readInt and @println are small functions calling scanf and printf, appended when the
+ * program reads or prints.
+ */
+public class X86Printer {
+    private static final String[] REGISTERS_32 = {
+            "%esi", "%edi", "%r8d", "%r9d", "%r10d", "%r11d", "%ebx", "%r12d", "%r13d", "%r14d", "%r15d"};
+    private static final String[] REGISTERS_64 = {
+            "%rsi", "%rdi", "%r8", "%r9", "%r10", "%r11", "%rbx", "%r12", "%r13", "%r14", "%r15"};
+    private static final int CALLER_SAVED = 6;
+    private static final int CALLEE_SAVED = 5;
+
+    /** Definition of readInt, reading an integer with scanf. */
+    public static final String READ_FUNCTION = """
+            \t.globl\treadInt
+            \t.type\treadInt, @function
+            readInt:
+            \tsubq\t$24, %rsp
+            \tleaq\t.LstrR(%rip), %rdi
+            \tleaq\t12(%rsp), %rsi
+            \txorl\t%eax, %eax
+            \tcall\tscanf@PLT
+            \tmovl\t12(%rsp), %eax
+            \taddq\t$24, %rsp
+            \tret
+            \t.size\treadInt, .-readInt
+            \t.section\t.rodata
+            .LstrR:
+            \t.string\t"%d"
+            \t.text
+            """;
+
+    /** Definition of println, printing an integer and a new line with printf. */
+    public static final String PRINT_FUNCTION = """
+            \t.globl\tprintln
+            \t.type\tprintln, @function
+            println:
+            \tsubq\t$8, %rsp
+            \tmovl\t%edi, %esi
+            \tleaq\t.LstrP(%rip), %rdi
+            \txorl\t%eax, %eax
+            \tcall\tprintf@PLT
+            \taddq\t$8, %rsp
+            \tret
+            \t.size\tprintln, .-println
+            \t.section\t.rodata
+            .LstrP:
+            \t.string\t"%d\\n"
+            \t.text
+            """;
+
+    private IrFunction function;
+    private LinearScanAllocator allocator;
+    private StringBuilder output;
+    private int savedRegisters;
+    private int[] uses;
+    private int fusedComparison = -1;
+
+    /**
+     * Renders a function as the main function of an assembly file.
+     *
+     * @param function the function.
+     * @return the assembly.
+     */
+    public String print(IrFunction function) {
+        this.function = function;
+        this.allocator = new LinearScanAllocator(function, CALLER_SAVED, CALLEE_SAVED);
+        this.output = new StringBuilder();
+        this.uses = DeadCodeElimination.countUses(function);
+        allocator.allocate();
+
+        output.append("\t.text\n\t.globl\tmain\n\t.type\tmain, @function\nmain:\n");
+        instruction("pushq", "%rbp");
+        instruction("movq", "%rsp, %rbp");
+        savedRegisters = 0;
+        for (int register = CALLER_SAVED; register < CALLER_SAVED + CALLEE_SAVED; register++) {
+            if (allocator.isUsed(register)) {
+                instruction("pushq", REGISTERS_64[register]);
+                savedRegisters++;
+            }
+        }
+        // keep %rsp 16-byte aligned at calls
+        int frame = 4 * allocator.getSpillSlots();
+        frame += (16 - (8 * savedRegisters + frame) % 16) % 16;
+        if (frame > 0) {
+            instruction("subq", "$" + frame + ", %rsp");
+        }
+
+        for (int b = 0; b < function.getBlocks().size(); b++) {
+            IrBlock block = function.getBlocks().get(b);
+            IrBlock next = b + 1 < function.getBlocks().size() ? function.getBlocks().get(b + 1) : null;
+            if (block.getName() != null) {
+                output.append(label(block)).append(":\n");
+            }
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int following = i + 1 < block.size() ? block.get(i + 1) : -1;
+                appendInstruction(instruction, following, next);
+            }
+        }
+        output.append("\t.size\tmain, .-main\n");
+        if (function.contains(IrOpcode.READ)) {
+            output.append(READ_FUNCTION);
+        }
+        if (function.contains(IrOpcode.PRINT)) {
+            output.append(PRINT_FUNCTION);
+        }
+        output.append("\t.section\t.note.GNU-stack,\"\",@progbits\n");
+        return output.toString();
+    }
+
+    private void appendInstruction(int instruction, int following, IrBlock next) {
+        IrOpcode opcode = function.getOpcode(instruction);
+        int a = function.getA(instruction);
+        int b = function.getB(instruction);
+        switch (opcode) {
+            case ALLOCA -> { }
+            case LOAD -> move(variable(a), result(instruction));
+            case STORE -> move(operand(b), variable(a));
+            case CONST -> move(operand(a), result(instruction));
+            case NEG -> {
+                move(operand(a), "%eax");
+                instruction("negl", "%eax");
+                move("%eax", result(instruction));
+            }
+            case ADD -> binary("addl", a, b, instruction);
+            case SUB -> binary("subl", a, b, instruction);
+            case MUL -> binary("imull", a, b, instruction);
+            case AND -> binary("andl", a, b, instruction);
+            case OR -> binary("orl", a, b, instruction);
+            case SDIV -> {
+                move(operand(a), "%eax");
+                String divisor = operand(b);
+                if (IrFunction.isConstant(b)) {
+                    move(divisor, "%ecx");
+                    divisor = "%ecx";
+                }
+                instruction("cltd", null);
+                instruction("idivl", divisor);
+                move("%eax", result(instruction));
+            }
+            case ICMP_EQ, ICMP_SLT -> {
+                compare(a, b);
+                if (isFused(instruction, following)) {
+                    fusedComparison = instruction;
+                } else {
+                    instruction(opcode == IrOpcode.ICMP_EQ ? "sete" : "setl", "%al");
+                    instruction("movzbl", "%al, %eax");
+                    move("%eax", result(instruction));
+                }
+            }
+            case READ -> {
+                instruction("call", "readInt");
+                move("%eax", result(instruction));
+            }
+            case PRINT -> {
+                move(operand(a), "%edi");
+                instruction("call", "println");
+            }
+            case BR -> {
+                IrBlock target = function.getBlockById(a);
+                if (target != next) {
+                    instruction("jmp", label(target));
+                }
+            }
+            case CBR -> conditionalBranch(instruction, next);
+            case RET -> {
+                instruction("xorl", "%eax, %eax");
+                if (savedRegisters > 0) {
+                    instruction("leaq", -8 * savedRegisters + "(%rbp), %rsp");
+                }
+                for (int register = CALLER_SAVED + CALLEE_SAVED - 1; register >= CALLER_SAVED; register--) {
+                    if (allocator.isUsed(register)) {
+                        instruction("popq", REGISTERS_64[register]);
+                    }
+                }
+                instruction("leave", null);
+                instruction("ret", null);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a comparison only feeds the conditional branch right after it, which then jumps on the flags.
+     */
+    private boolean isFused(int comparison, int following) {
+        return following >= 0 && function.getOpcode(following) == IrOpcode.CBR
+                && function.getA(following) == function.getResult(comparison)
+                && uses[function.getResult(comparison)] == 1;
+    }
+
+    private void conditionalBranch(int instruction, IrBlock next) {
+        int condition = function.getA(instruction);
+        IrBlock trueTarget = function.getBlockById(function.getB(instruction));
+        IrBlock falseTarget = function.getBlockById(function.getC(instruction));
+        if (IrFunction.isConstant(condition)) {
+            IrBlock target = function.constantValue(condition) != 0 ? trueTarget : falseTarget;
+            if (target != next) {
+                instruction("jmp", label(target));
+            }
+            return;
+        }
+        String jump = "jne";
+        String inverse = "je";
+        if (fusedComparison >= 0 && function.getResult(fusedComparison) == condition) {
+            boolean isEqual = function.getOpcode(fusedComparison) == IrOpcode.ICMP_EQ;
+            fusedComparison = -1;
+            jump = isEqual ? "je" : "jl";
+            inverse = isEqual ? "jne" : "jge";
+        } else {
+            String value = operand(condition);
+            if (value.startsWith("%")) {
+                instruction("testl", value + ", " + value);
+            } else {
+                instruction("cmpl", "$0, " + value);
+            }
+        }
+        if (falseTarget == next) {
+            instruction(jump, label(trueTarget));
+        } else if (trueTarget == next) {
+            instruction(inverse, label(falseTarget));
+        } else {
+            instruction(jump, label(trueTarget));
+            instruction("jmp", label(falseTarget));
+        }
+    }
+
+    private void compare(int a, int b) {
+        String left = operand(a);
+        if (!left.startsWith("%")) {
+            move(left, "%eax");
+            left = "%eax";
+        }
+        instruction("cmpl", operand(b) + ", " + left);
+    }
+
+    private void binary(String mnemonic, int a, int b, int instruction) {
+        String destination = result(instruction);
+        String right = operand(b);
+        if (destination.startsWith("%") && !destination.equals(right)) {
+            move(operand(a), destination);
+            instruction(mnemonic, right + ", " + destination);
+        } else {
+            move(operand(a), "%eax");
+            instruction(mnemonic, right + ", %eax");
+            move("%eax", destination);
+        }
+    }
+
+    private void move(String source, String destination) {
+        if (source.equals(destination)) {
+            return;
+        }
+        if (!source.startsWith("%") && !source.startsWith("$") && !destination.startsWith("%")) {
+            instruction("movl", source + ", %eax");
+            source = "%eax";
+        }
+        instruction("movl", source + ", " + destination);
+    }
+
+    private String operand(int operand) {
+        if (IrFunction.isConstant(operand)) {
+            return "$" + function.constantValue(operand);
+        }
+        return location(allocator.value(operand));
+    }
+
+    private String result(int instruction) {
+        return location(allocator.value(function.getResult(instruction)));
+    }
+
+    private String variable(int slot) {
+        return location(allocator.variable(slot));
+    }
+
+    private String location(int local) {
+        int location = allocator.getLocation(local);
+        if (location == LinearScanAllocator.UNUSED) {
+            // never live: a write can go to a scratch register
+            return "%ecx";
+        }
+        if (allocator.isRegister(location)) {
+            return REGISTERS_32[location];
+        }
+        int slot = location - CALLER_SAVED - CALLEE_SAVED;
+        return -(8 * savedRegisters + 4 * (slot + 1)) + "(%rbp)";
+    }
+
+    private static String label(IrBlock block) {
+        return ".L" + block.getName();
+    }
+
+    private void instruction(String mnemonic, String operands) {
+        output.append('\t').append(mnemonic);
+        if (operands != null) {
+            output.append('\t').append(operands);
+        }
+        output.append('\n');
+    }
+}